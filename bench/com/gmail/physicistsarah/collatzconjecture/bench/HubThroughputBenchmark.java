@@ -0,0 +1,94 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.bench;
+
+import com.gmail.physicistsarah.collatzconjecture.core.HubConfiguration;
+import com.gmail.physicistsarah.collatzconjecture.core.ProcessingHub;
+import com.gmail.physicistsarah.collatzconjecture.core.RecordFormat;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks a whole number range run of the {@link ProcessingHub}, from the
+ * workers through the storage manager to the output file, which is written
+ * to a temporary directory. The score is in numbers per second.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HubThroughputBenchmark {
+
+    private static final int RANGE = 1_000_000;
+
+    /**
+     * Held so the level set on it isn't lost to garbage collection.
+     */
+    private static final Logger HUB_LOGGER = Logger.getLogger("com.gmail.physicistsarah.collatzconjecture");
+
+    @Param({"TEXT", "BINARY"})
+    public RecordFormat format;
+
+    @Param({"false", "true"})
+    public boolean mappedOutput;
+
+    private Path directory;
+    private HubConfiguration configuration;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        HUB_LOGGER.setLevel(java.util.logging.Level.WARNING);
+        this.directory = Files.createTempDirectory("collatz-bench");
+        this.configuration = new HubConfiguration.Builder().outputFormat(this.format).mappedOutput(this.mappedOutput)
+                .outputDirectory(this.directory).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /**
+     * Runs the hub over the numbers 1 to {@value #RANGE}, and returns once
+     * the output file is complete.
+     *
+     * @return The hub, consumed by JMH
+     * @throws IOException If an IOException occurred
+     */
+    @Benchmark
+    @OperationsPerInvocation(RANGE)
+    public ProcessingHub numberRange() throws IOException {
+        ProcessingHub hub = new ProcessingHub(BigInteger.ONE, BigInteger.valueOf(RANGE), this.configuration);
+        hub.hubInit();
+        return hub;
+    }
+}
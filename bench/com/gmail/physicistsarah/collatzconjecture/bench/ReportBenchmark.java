@@ -0,0 +1,67 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.bench;
+
+import com.gmail.physicistsarah.collatzconjecture.core.CollatzSequencer.FinalSequencerReport;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the construction and the comparison of
+ * {@link FinalSequencerReport}s, whose natural order is by initial value.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportBenchmark {
+
+    private BigInteger initialValue, iterations, otherValue;
+    private FinalSequencerReport<BigInteger> report, other;
+
+    @Setup
+    public void setup() {
+        this.initialValue = BigInteger.valueOf(837_799);
+        this.otherValue = BigInteger.valueOf(626_331);
+        this.iterations = BigInteger.valueOf(524);
+        this.report = new FinalSequencerReport<>(BigInteger.ONE, this.iterations, "", this.initialValue);
+        this.other = new FinalSequencerReport<>(BigInteger.ONE, BigInteger.valueOf(508), "", this.otherValue);
+    }
+
+    /**
+     * Constructs a report without a sequence.
+     *
+     * @return The report, consumed by JMH
+     */
+    @Benchmark
+    public FinalSequencerReport<BigInteger> construct() {
+        return new FinalSequencerReport<>(BigInteger.ONE, this.iterations, "", this.initialValue);
+    }
+
+    /**
+     * Compares two reports by their initial values.
+     *
+     * @return The comparison, consumed by JMH
+     */
+    @Benchmark
+    public int compare() {
+        return this.report.compareTo(this.other);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.bench;
+
+import com.gmail.physicistsarah.collatzconjecture.core.CollatzSequencer;
+import com.gmail.physicistsarah.collatzconjecture.core.CollatzSequencer.FinalSequencerReport;
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the kernels of {@link CollatzSequencer} across input magnitudes:
+ * the kernels behind {@link CollatzSequencer#iterations(BigInteger)}, and a
+ * full {@link CollatzSequencer#init()} with and without the algebraic
+ * sequence. The primitive long kernel is benchmarked by {@link LongKernel},
+ * over the bit lengths it can take. The inputs are random odd numbers of the
+ * configured bit length, drawn from a fixed seed so runs are comparable.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequencerKernelBenchmark {
+
+    private static final int INPUTS = 1024;
+
+    /**
+     * The bit length of the inputs. Up to 63 bits the long kernel applies,
+     * up to 127 bits the 128 bit kernel, past that the limb array kernel.
+     */
+    @Param({"16", "40", "63", "100", "256", "1024"})
+    public int bits;
+
+    private BigInteger[] numbers;
+    private int next;
+
+    /**
+     * Draws the inputs.
+     *
+     * @param bits The bit length of the inputs
+     * @return The inputs
+     */
+    private static BigInteger[] inputs(int bits) {
+        Random random = new Random(0x5EED);
+        BigInteger[] inputs = new BigInteger[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            inputs[i] = new BigInteger(bits, random).setBit(bits - 1).setBit(0);
+        }
+        return inputs;
+    }
+
+    @Setup
+    public void setup() {
+        this.numbers = inputs(this.bits);
+    }
+
+    private int nextIndex() {
+        return this.next = (this.next + 1) & (INPUTS - 1);
+    }
+
+    /**
+     * The kernel picked by {@link CollatzSequencer#iterations(BigInteger)} for
+     * the input magnitude.
+     *
+     * @return The iterations, consumed by JMH
+     */
+    @Benchmark
+    public long bigIntegerKernel() {
+        return CollatzSequencer.iterations(this.numbers[nextIndex()]);
+    }
+
+    /**
+     * A full ultra lightweight report, as the processing hub computes it.
+     *
+     * @return The report, consumed by JMH
+     */
+    @Benchmark
+    public FinalSequencerReport<? extends Number> ultraLightweightReport() {
+        return new CollatzSequencer(this.numbers[nextIndex()], true).init();
+    }
+
+    /**
+     * A full report holding the algebraic sequence of the trajectory.
+     *
+     * @return The report, consumed by JMH
+     */
+    @Benchmark
+    public FinalSequencerReport<? extends Number> withSequenceReport() {
+        return new CollatzSequencer(this.numbers[nextIndex()], false).init();
+    }
+
+    /**
+     * Benchmarks the primitive long kernel. It has a state of its own, so
+     * that it only runs for the bit lengths that fit into a long.
+     */
+    @State(Scope.Thread)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class LongKernel {
+
+        /**
+         * The bit length of the inputs, at most 63 bits.
+         */
+        @Param({"16", "40", "63"})
+        public int bits;
+
+        private long[] numbers;
+        private int next;
+
+        @Setup
+        public void setup() {
+            BigInteger[] inputs = inputs(this.bits);
+            this.numbers = new long[INPUTS];
+            for (int i = 0; i < INPUTS; i++) {
+                this.numbers[i] = inputs[i].longValueExact();
+            }
+        }
+
+        /**
+         * The primitive long kernel.
+         *
+         * @return The iterations, consumed by JMH
+         */
+        @Benchmark
+        public long longKernel() {
+            this.next = (this.next + 1) & (INPUTS - 1);
+            return CollatzSequencer.iterations(this.numbers[this.next]);
+        }
+    }
+}
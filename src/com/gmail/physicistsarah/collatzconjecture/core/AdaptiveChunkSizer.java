@@ -0,0 +1,125 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.math.BigInteger;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Chooses the size of the work units of a {@link ProcessingHub} from the
+ * time the finished ones took. The workers report how long each work unit
+ * took to compute, the cost per number is smoothed over the reports, and the
+ * next work unit is sized to take the target duration at that cost. The size
+ * at most doubles or halves per report, so a single slow or fast work unit
+ * doesn't swing it.
+ * <p>
+ * Near the end of a range the work units shrink, so that the last ones finish
+ * at about the same time instead of one worker computing a full unit while
+ * the others are idle. Every worker thread gets at least
+ * {@link #TAIL_UNITS_PER_THREAD} units of whatever remains.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@ThreadSafe
+final class AdaptiveChunkSizer {
+
+    /**
+     * The smallest work unit chosen, so that the hand over doesn't cost more
+     * than the numbers.
+     */
+    static final int MIN_CHUNK_SIZE = 64;
+
+    /**
+     * The largest work unit chosen. The results of the work units in flight
+     * are held in memory, so this is kept well below
+     * {@link HubConfiguration#MAX_CHUNK_SIZE}.
+     */
+    static final int MAX_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * The number of work units every worker thread gets of what remains of a
+     * range, at the least.
+     */
+    static final int TAIL_UNITS_PER_THREAD = 4;
+
+    /**
+     * The weight of the newest report in the smoothed cost per number.
+     */
+    private static final double SMOOTHING = 0.25;
+
+    private final long targetNanos;
+    private final int threads;
+    @GuardedBy("this")
+    private double nanosPerNumber = Double.NaN;
+    @GuardedBy("this")
+    private int size;
+
+    /**
+     * Constructs a new {@link AdaptiveChunkSizer}.
+     *
+     * @param initialSize The size of the work units until the first report
+     * @param targetNanos The time a work unit should take, in nanoseconds
+     * @param threads The number of worker threads
+     */
+    AdaptiveChunkSizer(int initialSize, long targetNanos, int threads) {
+        if (targetNanos <= 0) {
+            throw new IllegalArgumentException("The target duration is less than or equal to zero");
+        } else if (threads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is needed");
+        }
+        this.size = clamp(initialSize);
+        this.targetNanos = targetNanos;
+        this.threads = threads;
+    }
+
+    private static int clamp(double size) {
+        return (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size));
+    }
+
+    /**
+     * Records the time a work unit took to compute.
+     *
+     * @param numbers The number of numbers the work unit covered
+     * @param nanos The time taken, in nanoseconds
+     */
+    synchronized void recordChunk(long numbers, long nanos) {
+        if (numbers <= 0) {
+            return;
+        }
+        double cost = Math.max(1, nanos) / (double) numbers;
+        this.nanosPerNumber = Double.isNaN(this.nanosPerNumber) ? cost : this.nanosPerNumber + SMOOTHING * (cost - this.nanosPerNumber);
+        double ideal = this.targetNanos / this.nanosPerNumber;
+        this.size = clamp(Math.max(this.size / 2.0, Math.min(this.size * 2.0, ideal)));
+    }
+
+    /**
+     * Gets the size of the next work unit.
+     *
+     * @param remaining The numbers left in the range, or null if the run has
+     * no end
+     * @return The size, never more than what remains, and all of it if the
+     * rest would be smaller than {@link #MIN_CHUNK_SIZE}
+     */
+    synchronized long nextChunkSize(BigInteger remaining) {
+        if (remaining == null || remaining.bitLength() >= Long.SIZE - 1) {
+            return this.size;
+        }
+        long left = remaining.longValue();
+        long tail = (left + (long) this.threads * TAIL_UNITS_PER_THREAD - 1) / ((long) this.threads * TAIL_UNITS_PER_THREAD);
+        long size = Math.min(this.size, Math.max(MIN_CHUNK_SIZE, tail));
+        return left - size < MIN_CHUNK_SIZE ? left : size;
+    }
+
+    /**
+     * A getter for the smoothed cost per number.
+     *
+     * @return The cost in nanoseconds, or NaN before the first report
+     */
+    synchronized double getNanosPerNumber() {
+        return this.nanosPerNumber;
+    }
+}
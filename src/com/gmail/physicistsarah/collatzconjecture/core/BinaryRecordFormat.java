@@ -0,0 +1,114 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.math.BigInteger;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * The layout of {@link RecordFormat#BINARY} output files. All values are big
+ * endian.
+ * <p>
+ * The file starts with a {@value #HEADER_SIZE} byte header: the magic number
+ * {@code "CLTZ"}, a 16 bit version, 16 bits of flags, the 32 bit record size
+ * and 32 reserved bits. Each record then holds the 64 bit initial value, the
+ * 64 bit iteration count and, if {@link #FLAG_EXCURSIONS} is set, the 64 bit
+ * maximum excursion. A negative value field is an escape for a value past 64
+ * bits: its magnitude is the length of the
+ * {@link BigInteger#toByteArray() two's complement bytes} that follow the
+ * fixed part of the record, padded with zeros to a multiple of 8 bytes.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@Immutable
+public final class BinaryRecordFormat {
+
+    /**
+     * The magic number at the start of every file, {@code "CLTZ"}.
+     */
+    public static final int MAGIC = 0x434C545A;
+
+    /**
+     * The current version of the format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The size of the header, in bytes.
+     */
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * The flag set when every record holds the maximum excursion.
+     */
+    public static final int FLAG_EXCURSIONS = 1;
+
+    /**
+     * The alignment of escaped values, in bytes.
+     */
+    static final int ESCAPE_ALIGNMENT = 8;
+
+    private BinaryRecordFormat() {
+        throw new AssertionError("No instances");
+    }
+
+    /**
+     * Gets the size of the fixed part of each record.
+     *
+     * @param flags The header flags
+     * @return The record size, in bytes
+     */
+    public static int getRecordSize(int flags) {
+        return (flags & FLAG_EXCURSIONS) != 0 ? 24 : 16;
+    }
+
+    /**
+     * Encodes records in the binary format.
+     */
+    @NotThreadSafe
+    static final class Encoder implements RecordEncoder {
+
+        private final int flags;
+
+        Encoder(int flags) {
+            this.flags = flags;
+        }
+
+        @Override
+        public void encodeHeader(RecordBuffer buffer) {
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putShort(this.flags);
+            buffer.putInt(getRecordSize(this.flags));
+            buffer.putInt(0);
+        }
+
+        @Override
+        public void encode(ResultBatch batch, int index, RecordBuffer buffer) {
+            boolean excursions = (this.flags & FLAG_EXCURSIONS) != 0;
+            byte[] value = batch.isLong(index) ? null : batch.getBigValue(index).toByteArray();
+            byte[] peak = !excursions || batch.isPeakLong(index) ? null : batch.getBigPeak(index).toByteArray();
+            buffer.putLong(value == null ? batch.getValue(index) : -value.length);
+            buffer.putLong(batch.getIterations(index));
+            if (excursions) {
+                buffer.putLong(peak == null ? batch.getPeak(index) : -peak.length);
+            }
+            if (value != null) {
+                buffer.putBytes(value, 0, value.length);
+                buffer.pad(ESCAPE_ALIGNMENT);
+            }
+            if (peak != null) {
+                buffer.putBytes(peak, 0, peak.length);
+                buffer.pad(ESCAPE_ALIGNMENT);
+            }
+        }
+
+        @Override
+        public void encodeFooter(RecordBuffer buffer) {
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Reads the records of a {@link RecordFormat#BINARY} output file one at a
+ * time. Values that fit into a {@code long} are read without allocating.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@NotThreadSafe
+public final class BinaryRecordReader implements RecordReader {
+
+    private final DataInputStream stream;
+    private final int flags;
+    private final int recordSize;
+    private final boolean positioned;
+    private long remaining, offset;
+    private long value, iterations, maxExcursion;
+    private BigInteger bigValue, bigMaxExcursion;
+
+    /**
+     * Opens the specified file and reads its header.
+     *
+     * @param file The file
+     * @throws IOException If the file couldn't be read or isn't a binary
+     * output file
+     */
+    public BinaryRecordReader(@NotNull Path file) throws IOException {
+        this(file, 0, Long.MAX_VALUE, false);
+    }
+
+    /**
+     * Opens the specified file to read a run of records by their position.
+     * The position of a record is only known if no record before it has an
+     * escaped value, so reading a record with an escaped value fails.
+     *
+     * @param file The file
+     * @param firstRecord The index of the first record
+     * @param records The number of records to read at most
+     * @throws IOException If the file couldn't be read or isn't a binary
+     * output file
+     */
+    BinaryRecordReader(@NotNull Path file, long firstRecord, long records) throws IOException {
+        this(file, firstRecord, records, true);
+    }
+
+    private BinaryRecordReader(Path file, long firstRecord, long records, boolean positioned) throws IOException {
+        this.positioned = positioned;
+        this.remaining = records;
+        this.stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        try {
+            if (this.stream.readInt() != BinaryRecordFormat.MAGIC) {
+                throw new IOException(file + " is not a binary Collatz output file");
+            }
+            int version = this.stream.readUnsignedShort();
+            if (version > BinaryRecordFormat.VERSION) {
+                throw new IOException("Unsupported binary output version " + version);
+            }
+            this.flags = this.stream.readUnsignedShort();
+            this.recordSize = this.stream.readInt();
+            this.stream.readInt();
+            if (this.recordSize != BinaryRecordFormat.getRecordSize(this.flags)) {
+                throw new IOException("The record size " + this.recordSize + " doesn't match the flags " + this.flags);
+            }
+            for (long skip = firstRecord * this.recordSize; skip > 0;) {
+                long skipped = this.stream.skip(skip);
+                if (skipped <= 0) {
+                    throw new EOFException("The file ends before the record " + firstRecord);
+                }
+                skip -= skipped;
+            }
+            this.offset = BinaryRecordFormat.HEADER_SIZE + firstRecord * this.recordSize;
+        } catch (IOException ex) {
+            this.stream.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (this.remaining == 0) {
+            return false;
+        }
+        this.remaining--;
+        this.stream.mark(1);
+        if (this.stream.read() < 0) {
+            return false;
+        }
+        this.stream.reset();
+        try {
+            this.value = this.stream.readLong();
+            this.iterations = this.stream.readLong();
+            this.maxExcursion = hasExcursions() ? this.stream.readLong() : 0;
+            if (this.positioned && (this.value < 0 || this.maxExcursion < 0)) {
+                throw new EscapedValueException();
+            }
+            this.bigValue = this.value < 0 ? readEscape(this.value) : null;
+            this.bigMaxExcursion = this.maxExcursion < 0 ? readEscape(this.maxExcursion) : null;
+        } catch (EOFException ex) {
+            throw new MalformedRecordException(this.offset, "The file ends inside the record at " + this.offset);
+        }
+        this.offset += this.recordSize + escapeLength(this.value) + escapeLength(this.maxExcursion);
+        return true;
+    }
+
+    private static int escapeLength(long field) {
+        if (field >= 0) {
+            return 0;
+        }
+        int length = (int) -field;
+        return length + (-length & (BinaryRecordFormat.ESCAPE_ALIGNMENT - 1));
+    }
+
+    private BigInteger readEscape(long field) throws IOException {
+        byte[] bytes = new byte[(int) -field];
+        this.stream.readFully(bytes);
+        int padding = -bytes.length & (BinaryRecordFormat.ESCAPE_ALIGNMENT - 1);
+        if (this.stream.skipBytes(padding) < padding) {
+            throw new EOFException();
+        }
+        return new BigInteger(bytes);
+    }
+
+    @Override
+    public boolean hasExcursions() {
+        return (this.flags & BinaryRecordFormat.FLAG_EXCURSIONS) != 0;
+    }
+
+    @Override
+    public boolean isLong() {
+        return this.bigValue == null;
+    }
+
+    @Override
+    public long getValue() {
+        return this.value;
+    }
+
+    @Override
+    public BigInteger getInitialValue() {
+        return isLong() ? BigInteger.valueOf(this.value) : this.bigValue;
+    }
+
+    @Override
+    public long getIterations() {
+        return this.iterations;
+    }
+
+    @Override
+    public BigInteger getMaxExcursion() {
+        if (!hasExcursions()) {
+            throw new IllegalStateException("The file doesn't hold maximum excursions");
+        }
+        return this.bigMaxExcursion == null ? BigInteger.valueOf(this.maxExcursion) : this.bigMaxExcursion;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.stream.close();
+    }
+
+    /**
+     * Thrown when a reader that was opened at the position of a record reads
+     * a record with an escaped value, whose length makes the positions of the
+     * following records unknown.
+     */
+    static final class EscapedValueException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        EscapedValueException() {
+            super("A record with an escaped value can't be read by its position");
+        }
+    }
+}
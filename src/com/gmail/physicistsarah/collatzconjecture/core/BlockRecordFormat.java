@@ -0,0 +1,313 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * The layout of {@link RecordFormat#BLOCK} and
+ * {@link RecordFormat#DEFLATED_BLOCK} output files. Fixed width values are
+ * big endian, varints are unsigned with seven bits per byte, least
+ * significant first, and numbers are stored as a 16 bit length followed by
+ * their {@link BigInteger#toByteArray() two's complement bytes}.
+ * <p>
+ * The file starts with a {@value #HEADER_SIZE} byte header: the magic number
+ * {@code "CLTB"}, a 16 bit version, 16 bits of flags, the 32 bit maximum
+ * number of records per block and 32 reserved bits. The records follow in
+ * blocks of up to {@value #MAX_BLOCK_RECORDS} records, one or more per work
+ * unit. Each block holds
+ * <ul>
+ * <li>the 32 bit length of the rest of the block,</li>
+ * <li>the 32 bit number of records,</li>
+ * <li>8 bits of block flags,</li>
+ * <li>the initial value of its first record, the base of the block,</li>
+ * <li>if {@link #BLOCK_DEFLATED} is set, the 32 bit length of the inflated
+ * payload,</li>
+ * <li>the payload, deflated if {@link #BLOCK_DEFLATED} is set.</li>
+ * </ul>
+ * The payload holds, unless {@link #BLOCK_CONSECUTIVE} is set, a varint gap
+ * {@code n[i] - n[i - 1] - 1} for every record after the first, then for
+ * every record the zigzag encoded varint difference of its iteration count
+ * to the one of the record before, the first one to zero, and, if
+ * {@link #FLAG_EXCURSIONS} is set, the maximum excursion of every record as
+ * a varint. A maximum excursion past 64 bits is written as a zero varint,
+ * its varint byte length and its two's complement bytes.
+ * <p>
+ * A finished file ends with the index: for every block its 64 bit offset,
+ * its 32 bit number of records and its base, in the order of the blocks.
+ * The last {@value #TRAILER_SIZE} bytes hold the 64 bit offset of the index,
+ * the 32 bit number of blocks and the magic number {@code "CLTI"}. A file
+ * without a trailer was cut off, and can still be read block by block up to
+ * its last whole block.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@Immutable
+public final class BlockRecordFormat {
+
+    /**
+     * The magic number at the start of every file, {@code "CLTB"}.
+     */
+    public static final int MAGIC = 0x434C5442;
+
+    /**
+     * The magic number at the end of every finished file, {@code "CLTI"}.
+     */
+    public static final int INDEX_MAGIC = 0x434C5449;
+
+    /**
+     * The current version of the format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The size of the header, in bytes.
+     */
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * The size of the trailer, in bytes.
+     */
+    public static final int TRAILER_SIZE = 16;
+
+    /**
+     * The largest number of records in one block.
+     */
+    public static final int MAX_BLOCK_RECORDS = 8192;
+
+    /**
+     * The flag set when every record holds the maximum excursion.
+     */
+    public static final int FLAG_EXCURSIONS = 1;
+
+    /**
+     * The flag set when the payload of the blocks is deflated. Blocks that
+     * don't get smaller are still stored as they are.
+     */
+    public static final int FLAG_DEFLATE = 2;
+
+    /**
+     * The block flag set when the initial values of the block are
+     * consecutive, in which case the payload holds no gaps.
+     */
+    public static final int BLOCK_CONSECUTIVE = 1;
+
+    /**
+     * The block flag set when the payload is deflated.
+     */
+    public static final int BLOCK_DEFLATED = 2;
+
+    private BlockRecordFormat() {
+        throw new AssertionError("No instances");
+    }
+
+    /**
+     * Encodes records into blocks. The records of a block are gathered until
+     * the block is full, the work unit ends or the next initial value can't
+     * be written as a gap, and are then encoded in one go, so only the last
+     * record of a block produces any bytes. The encoder keeps the offset of
+     * every block for the index, so it can't be shared between output files.
+     */
+    @NotThreadSafe
+    static final class Encoder implements RecordEncoder {
+
+        private final int flags;
+        private final RecordBuffer gaps = new RecordBuffer(1 << 12);
+        private final RecordBuffer payload = new RecordBuffer(1 << 14);
+        private final RecordBuffer excursions = new RecordBuffer(1 << 12);
+        private final RecordBuffer index = new RecordBuffer(1 << 12);
+        private final Deflater deflater;
+        private byte[] deflated = new byte[1 << 14];
+        private long[] blockOffsets = new long[256];
+        private int blocks;
+        private long offset;
+        private int count;
+        private boolean consecutive;
+        private byte[] base;
+        private long previousValue, previousIterations;
+        private BigInteger previousBigValue;
+
+        Encoder(int flags) {
+            this.flags = flags;
+            this.deflater = (flags & FLAG_DEFLATE) != 0 ? new Deflater(Deflater.BEST_SPEED) : null;
+        }
+
+        @Override
+        public void encodeHeader(RecordBuffer buffer) {
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putShort(this.flags);
+            buffer.putInt(MAX_BLOCK_RECORDS);
+            buffer.putInt(0);
+            this.offset = HEADER_SIZE;
+        }
+
+        @Override
+        public void encode(ResultBatch batch, int index, RecordBuffer buffer) {
+            if (this.count > 0 && !appendGap(batch, index)) {
+                flushBlock(buffer);
+            }
+            if (this.count == 0) {
+                this.base = batch.isLong(index) ? BigInteger.valueOf(batch.getValue(index)).toByteArray()
+                        : batch.getBigValue(index).toByteArray();
+                this.consecutive = true;
+                this.previousIterations = 0;
+                this.gaps.clear();
+                this.payload.clear();
+                this.excursions.clear();
+            }
+            if (batch.isLong(index)) {
+                this.previousValue = batch.getValue(index);
+                this.previousBigValue = null;
+            } else {
+                this.previousBigValue = batch.getBigValue(index);
+            }
+            long iterations = batch.getIterations(index);
+            long difference = iterations - this.previousIterations;
+            this.payload.putVarLong((difference << 1) ^ (difference >> 63));
+            this.previousIterations = iterations;
+            if ((this.flags & FLAG_EXCURSIONS) != 0) {
+                if (batch.isPeakLong(index)) {
+                    this.excursions.putVarLong(batch.getPeak(index));
+                } else {
+                    byte[] peak = batch.getBigPeak(index).toByteArray();
+                    this.excursions.putVarLong(0);
+                    this.excursions.putVarLong(peak.length);
+                    this.excursions.putBytes(peak, 0, peak.length);
+                }
+            }
+            this.count++;
+            if (this.count == MAX_BLOCK_RECORDS || index == batch.size() - 1) {
+                flushBlock(buffer);
+            }
+        }
+
+        /**
+         * Appends the gap between the previous initial value and the one of
+         * the specified record, if it's a non-negative {@code long}.
+         *
+         * @param batch The batch holding the record
+         * @param index The index of the record in the batch
+         * @return Whether the gap was appended
+         */
+        private boolean appendGap(ResultBatch batch, int index) {
+            long gap;
+            if (this.previousBigValue == null && batch.isLong(index)) {
+                if (batch.getValue(index) <= this.previousValue) {
+                    return false;
+                }
+                gap = batch.getValue(index) - this.previousValue - 1;
+            } else {
+                BigInteger previous = this.previousBigValue == null ? BigInteger.valueOf(this.previousValue) : this.previousBigValue;
+                BigInteger value = batch.isLong(index) ? BigInteger.valueOf(batch.getValue(index)) : batch.getBigValue(index);
+                BigInteger difference = value.subtract(previous).subtract(BigInteger.ONE);
+                if (difference.signum() < 0 || difference.bitLength() >= Long.SIZE) {
+                    return false;
+                }
+                gap = difference.longValue();
+            }
+            this.gaps.putVarLong(gap);
+            this.consecutive &= gap == 0;
+            return true;
+        }
+
+        /**
+         * Encodes the gathered records as one block and adds it to the index.
+         *
+         * @param buffer The buffer to append to
+         */
+        private void flushBlock(RecordBuffer buffer) {
+            RecordBuffer raw = this.consecutive ? this.payload : this.gaps;
+            if (!this.consecutive) {
+                raw.putBuffer(this.payload);
+            }
+            raw.putBuffer(this.excursions);
+            int blockFlags = this.consecutive ? BLOCK_CONSECUTIVE : 0;
+            int deflatedLength = this.deflater == null ? -1 : deflate(raw);
+            if (deflatedLength >= 0 && deflatedLength < raw.position()) {
+                blockFlags |= BLOCK_DEFLATED;
+            }
+            int start = buffer.position();
+            buffer.putInt(0);
+            buffer.putInt(this.count);
+            buffer.putByte(blockFlags);
+            buffer.putShort(this.base.length);
+            buffer.putBytes(this.base, 0, this.base.length);
+            if ((blockFlags & BLOCK_DEFLATED) != 0) {
+                buffer.putInt(raw.position());
+                buffer.putBytes(this.deflated, 0, deflatedLength);
+            } else {
+                buffer.putBuffer(raw);
+            }
+            int length = buffer.position() - start;
+            byte[] array = buffer.array();
+            for (int i = 0; i < Integer.BYTES; i++) {
+                array[start + i] = (byte) ((length - Integer.BYTES) >>> (Byte.SIZE * (Integer.BYTES - 1 - i)));
+            }
+            if (this.blocks == this.blockOffsets.length) {
+                this.blockOffsets = Arrays.copyOf(this.blockOffsets, this.blocks * 2);
+            }
+            this.blockOffsets[this.blocks++] = this.offset;
+            this.index.putLong(this.offset);
+            this.index.putInt(this.count);
+            this.index.putShort(this.base.length);
+            this.index.putBytes(this.base, 0, this.base.length);
+            this.index.markRecord();
+            this.offset += length;
+            this.count = 0;
+        }
+
+        /**
+         * Deflates the specified payload into the scratch array.
+         *
+         * @param raw The payload
+         * @return The deflated length
+         */
+        private int deflate(RecordBuffer raw) {
+            this.deflater.reset();
+            this.deflater.setInput(raw.array(), 0, raw.position());
+            this.deflater.finish();
+            int length = 0;
+            while (!this.deflater.finished()) {
+                if (length == this.deflated.length) {
+                    this.deflated = Arrays.copyOf(this.deflated, this.deflated.length * 2);
+                }
+                length += this.deflater.deflate(this.deflated, length, this.deflated.length - length);
+            }
+            return length;
+        }
+
+        @Override
+        public void encodeFooter(RecordBuffer buffer) {
+            if (this.count > 0) {
+                flushBlock(buffer);
+            }
+            buffer.putBuffer(this.index);
+            buffer.putLong(this.offset);
+            buffer.putInt(this.blocks);
+            buffer.putInt(INDEX_MAGIC);
+            if (this.deflater != null) {
+                this.deflater.end();
+            }
+        }
+
+        @Override
+        public void truncated(long length) {
+            int kept = 0;
+            while (kept < this.blocks && this.blockOffsets[kept] < length) {
+                kept++;
+            }
+            this.blocks = kept;
+            this.index.truncateToRecords(kept);
+            this.offset = length;
+            this.count = 0;
+        }
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Reads the records of a {@link RecordFormat#BLOCK} or
+ * {@link RecordFormat#DEFLATED_BLOCK} output file. Records are decoded a
+ * block at a time, and {@link #seek(BigInteger)} uses the index at the end
+ * of the file to jump to the block holding an initial value. The index of a
+ * file that was cut off is rebuilt by reading the block headers. Such a file
+ * is read up to its last whole block, and the block that was cut off is
+ * reported by {@link #getTornOffset()}.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@NotThreadSafe
+public final class BlockRecordReader implements RecordReader {
+
+    /**
+     * The size of the fixed part of a block header: the length, the number of
+     * records, the block flags and the length of the base.
+     */
+    private static final int BLOCK_HEADER_SIZE = 2 * Integer.BYTES + 1 + Short.BYTES;
+
+    private final FileChannel channel;
+    private final int flags;
+    private final long blocksEnd, dataEnd;
+    private final boolean indexed;
+    private final Inflater inflater = new Inflater();
+    private long[] indexOffsets, indexBases;
+    private BigInteger[] bigIndexBases;
+    private long tornOffset = -1;
+    private byte[] block = new byte[1 << 16], raw = new byte[1 << 16];
+    private int cursor;
+    private long nextBlock;
+    private int count, position;
+    private long base;
+    private BigInteger bigBase;
+    private long[] offsets = new long[BlockRecordFormat.MAX_BLOCK_RECORDS];
+    private long[] iterations = new long[BlockRecordFormat.MAX_BLOCK_RECORDS];
+    private long[] peaks = new long[BlockRecordFormat.MAX_BLOCK_RECORDS];
+    private BigInteger[] bigPeaks;
+
+    /**
+     * Opens the specified file and reads its header and trailer.
+     *
+     * @param file The file
+     * @throws IOException If the file couldn't be read or isn't a block
+     * output file
+     */
+    public BlockRecordReader(@NotNull Path file) throws IOException {
+        this(file, BlockRecordFormat.HEADER_SIZE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens the specified file to read the blocks within a range of offsets.
+     * Seeking isn't limited to the range.
+     *
+     * @param file The file
+     * @param start The offset of the first block
+     * @param end The end of the last block
+     * @throws IOException If the file couldn't be read or isn't a block
+     * output file
+     */
+    BlockRecordReader(@NotNull Path file, long start, long end) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(0, BlockRecordFormat.HEADER_SIZE);
+            if (header.getInt() != BlockRecordFormat.MAGIC) {
+                throw new IOException(file + " is not a block Collatz output file");
+            }
+            int version = header.getShort() & 0xFFFF;
+            if (version > BlockRecordFormat.VERSION) {
+                throw new IOException("Unsupported block output version " + version);
+            }
+            this.flags = header.getShort() & 0xFFFF;
+            if (header.getInt() > BlockRecordFormat.MAX_BLOCK_RECORDS) {
+                throw new IOException("The blocks of " + file + " are larger than " + BlockRecordFormat.MAX_BLOCK_RECORDS + " records");
+            }
+            long size = this.channel.size();
+            long indexOffset = -1;
+            if (size >= BlockRecordFormat.HEADER_SIZE + BlockRecordFormat.TRAILER_SIZE) {
+                ByteBuffer trailer = read(size - BlockRecordFormat.TRAILER_SIZE, BlockRecordFormat.TRAILER_SIZE);
+                long offset = trailer.getLong();
+                trailer.getInt();
+                if (trailer.getInt() == BlockRecordFormat.INDEX_MAGIC && offset >= BlockRecordFormat.HEADER_SIZE
+                        && offset <= size - BlockRecordFormat.TRAILER_SIZE) {
+                    indexOffset = offset;
+                }
+            }
+            this.indexed = indexOffset >= 0;
+            this.blocksEnd = this.indexed ? indexOffset : size;
+            this.dataEnd = Math.min(end, this.blocksEnd);
+            this.nextBlock = Math.max(start, BlockRecordFormat.HEADER_SIZE);
+        } catch (IOException ex) {
+            this.channel.close();
+            throw ex;
+        }
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        if (this.block.length < length) {
+            this.block = new byte[Math.max(length, this.block.length * 2)];
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(this.block, 0, length);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("The file ends inside a block");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private long readVarLong(byte[] bytes) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte next = bytes[this.cursor++];
+            value |= (long) (next & 0x7F) << shift;
+            if (next >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("A varint is longer than 64 bits");
+    }
+
+    private static BigInteger readNumber(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new BigInteger(bytes);
+    }
+
+    /**
+     * Tests whether the block at the specified offset was cut off with the
+     * file. Only a file without an index can end in such a block. A file
+     * that was cut off inside its index has lost the trailer too, so the
+     * start of the index is torn as well, which its header shows.
+     *
+     * @param offset The offset of the block
+     * @return Whether the block doesn't fit into the file or its header isn't
+     * the header of a block
+     * @throws IOException If the file couldn't be read
+     */
+    private boolean isTorn(long offset) throws IOException {
+        if (this.indexed) {
+            return false;
+        } else if (offset + BLOCK_HEADER_SIZE > this.blocksEnd) {
+            return true;
+        }
+        ByteBuffer header = read(offset, 2 * Integer.BYTES);
+        int length = header.getInt(), records = header.getInt();
+        return length < BLOCK_HEADER_SIZE - Integer.BYTES || offset + Integer.BYTES + length > this.blocksEnd
+                || records <= 0 || records > BlockRecordFormat.MAX_BLOCK_RECORDS;
+    }
+
+    /**
+     * Reads and decodes the block at the specified offset.
+     *
+     * @param offset The offset of the block
+     * @throws IOException If the block couldn't be read or is corrupt
+     */
+    private void readBlock(long offset) throws IOException {
+        int length = read(offset, Integer.BYTES).getInt();
+        if (length < 0 || offset + Integer.BYTES + length > this.blocksEnd) {
+            throw new IOException("The file ends inside the block at " + offset);
+        }
+        ByteBuffer buffer = read(offset + Integer.BYTES, length);
+        this.nextBlock = offset + Integer.BYTES + length;
+        this.count = buffer.getInt();
+        int blockFlags = buffer.get();
+        BigInteger first = readNumber(buffer);
+        if (this.count <= 0 || this.count > BlockRecordFormat.MAX_BLOCK_RECORDS) {
+            throw new IOException("The block at " + offset + " holds " + this.count + " records");
+        }
+        byte[] payload = this.block;
+        this.cursor = buffer.position();
+        if ((blockFlags & BlockRecordFormat.BLOCK_DEFLATED) != 0) {
+            int rawLength = buffer.getInt();
+            if (this.raw.length < rawLength) {
+                this.raw = new byte[rawLength];
+            }
+            this.inflater.reset();
+            this.inflater.setInput(this.block, buffer.position(), buffer.remaining());
+            try {
+                if (this.inflater.inflate(this.raw, 0, rawLength) != rawLength) {
+                    throw new IOException("The block at " + offset + " is shorter than " + rawLength + " bytes");
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("The block at " + offset + " can't be inflated", ex);
+            }
+            payload = this.raw;
+            this.cursor = 0;
+        }
+        this.offsets[0] = 0;
+        for (int i = 1; i < this.count; i++) {
+            long gap = (blockFlags & BlockRecordFormat.BLOCK_CONSECUTIVE) != 0 ? 0 : readVarLong(payload);
+            this.offsets[i] = this.offsets[i - 1] + gap + 1;
+        }
+        long previous = 0;
+        for (int i = 0; i < this.count; i++) {
+            long zigzag = readVarLong(payload);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            this.iterations[i] = previous;
+        }
+        if (hasExcursions()) {
+            for (int i = 0; i < this.count; i++) {
+                this.peaks[i] = readVarLong(payload);
+                if (this.peaks[i] == 0) {
+                    byte[] bytes = new byte[(int) readVarLong(payload)];
+                    System.arraycopy(payload, this.cursor, bytes, 0, bytes.length);
+                    this.cursor += bytes.length;
+                    if (this.bigPeaks == null) {
+                        this.bigPeaks = new BigInteger[BlockRecordFormat.MAX_BLOCK_RECORDS];
+                    }
+                    this.bigPeaks[i] = new BigInteger(bytes);
+                }
+            }
+        }
+        long last = this.offsets[this.count - 1];
+        if (first.bitLength() < Long.SIZE - 1 && first.longValue() <= Long.MAX_VALUE - last) {
+            this.base = first.longValue();
+            this.bigBase = null;
+        } else {
+            this.bigBase = first;
+        }
+        this.position = -1;
+    }
+
+    /**
+     * Advances to the next record. A file that was cut off ends before the
+     * block that was cut off.
+     *
+     * @return Whether there was a next record
+     * @throws IOException If the file couldn't be read or is corrupt
+     */
+    @Override
+    public boolean next() throws IOException {
+        if (this.position + 1 < this.count) {
+            this.position++;
+            return true;
+        } else if (this.nextBlock >= this.dataEnd) {
+            return false;
+        } else if (isTorn(this.nextBlock)) {
+            this.tornOffset = this.nextBlock;
+            this.nextBlock = this.dataEnd;
+            return false;
+        }
+        readBlock(this.nextBlock);
+        this.position = 0;
+        return true;
+    }
+
+    /**
+     * Positions this reader so that {@link #next()} advances to the first
+     * record of the block covering the specified initial value whose initial
+     * value is at least the specified one. Afterwards the records are read
+     * in the order of the file again, which is only ascending if the file
+     * was written with an ordered output.
+     *
+     * @param value The initial value
+     * @return Whether the file holds a record for the value
+     * @throws IOException If the file couldn't be read
+     */
+    public boolean seek(@NotNull BigInteger value) throws IOException {
+        loadIndex();
+        if (this.indexOffsets.length == 0) {
+            this.count = 0;
+            this.position = 0;
+            this.nextBlock = this.dataEnd;
+            return false;
+        }
+        int low = 0, high = this.indexOffsets.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (compareBase(middle, value) <= 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        readBlock(this.indexOffsets[low]);
+        int index;
+        BigInteger difference = value.subtract(this.bigBase == null ? BigInteger.valueOf(this.base) : this.bigBase);
+        if (difference.signum() < 0) {
+            index = 0;
+        } else if (difference.bitLength() >= Long.SIZE) {
+            index = this.count;
+        } else {
+            index = Arrays.binarySearch(this.offsets, 0, this.count, difference.longValue());
+            if (index >= 0) {
+                this.position = index - 1;
+                return true;
+            }
+            index = -index - 1;
+        }
+        this.position = index - 1;
+        return false;
+    }
+
+    private int compareBase(int index, BigInteger value) {
+        if (this.bigIndexBases != null && this.bigIndexBases[index] != null) {
+            return this.bigIndexBases[index].compareTo(value);
+        } else if (value.bitLength() < Long.SIZE) {
+            return Long.compare(this.indexBases[index], value.longValue());
+        }
+        return -value.signum();
+    }
+
+    /**
+     * Loads the index of the blocks, sorted by their bases. Files without an
+     * index are indexed by reading the header of every whole block.
+     *
+     * @throws IOException If the file couldn't be read
+     */
+    private void loadIndex() throws IOException {
+        if (this.indexOffsets != null) {
+            return;
+        }
+        long[] blockOffsets = new long[64];
+        BigInteger[] bases = new BigInteger[64];
+        int blocks = 0;
+        if (this.indexed) {
+            long size = this.channel.size();
+            ByteBuffer index = read(this.blocksEnd, (int) (size - BlockRecordFormat.TRAILER_SIZE - this.blocksEnd));
+            while (index.hasRemaining()) {
+                if (blocks == blockOffsets.length) {
+                    blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+                    bases = Arrays.copyOf(bases, blocks * 2);
+                }
+                blockOffsets[blocks] = index.getLong();
+                index.getInt();
+                bases[blocks++] = readNumber(index);
+            }
+        } else {
+            for (long offset = BlockRecordFormat.HEADER_SIZE; offset < this.blocksEnd;) {
+                if (isTorn(offset)) {
+                    this.tornOffset = offset;
+                    break;
+                }
+                ByteBuffer header = read(offset, BLOCK_HEADER_SIZE);
+                int length = header.getInt();
+                header.getInt();
+                header.get();
+                int baseLength = header.getShort() & 0xFFFF;
+                if (blocks == blockOffsets.length) {
+                    blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+                    bases = Arrays.copyOf(bases, blocks * 2);
+                }
+                blockOffsets[blocks] = offset;
+                bases[blocks++] = new BigInteger(Arrays.copyOf(read(offset + header.position(), baseLength).array(), baseLength));
+                offset += Integer.BYTES + length;
+            }
+        }
+        Integer[] order = new Integer[blocks];
+        for (int i = 0; i < blocks; i++) {
+            order[i] = i;
+        }
+        final BigInteger[] sortedBases = bases;
+        Arrays.sort(order, (Integer first, Integer second) -> sortedBases[first].compareTo(sortedBases[second]));
+        this.indexOffsets = new long[blocks];
+        this.indexBases = new long[blocks];
+        for (int i = 0; i < blocks; i++) {
+            this.indexOffsets[i] = blockOffsets[order[i]];
+            BigInteger blockBase = bases[order[i]];
+            if (blockBase.bitLength() < Long.SIZE) {
+                this.indexBases[i] = blockBase.longValue();
+            } else {
+                if (this.bigIndexBases == null) {
+                    this.bigIndexBases = new BigInteger[blocks];
+                }
+                this.bigIndexBases[i] = blockBase;
+            }
+        }
+    }
+
+    /**
+     * Tests whether the file ends with its index, which it only lacks if it
+     * was cut off.
+     *
+     * @return Whether the file is indexed
+     */
+    public boolean isIndexed() {
+        return this.indexed;
+    }
+
+    /**
+     * Gets the offset of the block, or the index, that was cut off at the end
+     * of a file without an index. Its records can't be read, {@link #next()}
+     * ends before it and the index leaves it out.
+     *
+     * @return The offset, or -1 if the file ends with a whole block
+     * @throws IOException If the block headers couldn't be read
+     */
+    public long getTornOffset() throws IOException {
+        if (!this.indexed) {
+            loadIndex();
+        }
+        return this.tornOffset;
+    }
+
+    /**
+     * Gets the number of blocks in the file.
+     *
+     * @return The block count
+     * @throws IOException If the index couldn't be read
+     */
+    public int getBlockCount() throws IOException {
+        loadIndex();
+        return this.indexOffsets.length;
+    }
+
+    /**
+     * Gets the offset of a block, in the order of the bases.
+     *
+     * @param block The index of the block in the order of the bases
+     * @return The offset of the block in the file
+     * @throws IOException If the index couldn't be read
+     */
+    long getBlockOffset(int block) throws IOException {
+        loadIndex();
+        return this.indexOffsets[block];
+    }
+
+    /**
+     * Tests whether the base of a block fits into a {@code long}.
+     *
+     * @param block The index of the block in the order of the bases
+     * @return Whether {@link #getBlockBase(int)} can be used
+     * @throws IOException If the index couldn't be read
+     */
+    boolean isBlockBaseLong(int block) throws IOException {
+        loadIndex();
+        return this.bigIndexBases == null || this.bigIndexBases[block] == null;
+    }
+
+    /**
+     * Gets the base of a block, if it fits into a {@code long}.
+     *
+     * @param block The index of the block in the order of the bases
+     * @return The initial value of the first record of the block
+     * @throws IOException If the index couldn't be read
+     */
+    long getBlockBase(int block) throws IOException {
+        loadIndex();
+        return this.indexBases[block];
+    }
+
+    /**
+     * Gets the offset at which the blocks end, where the index starts in a
+     * finished file.
+     *
+     * @return The end of the blocks
+     */
+    long getBlocksEnd() {
+        return this.blocksEnd;
+    }
+
+    @Override
+    public boolean hasExcursions() {
+        return (this.flags & BlockRecordFormat.FLAG_EXCURSIONS) != 0;
+    }
+
+    @Override
+    public boolean isLong() {
+        return this.bigBase == null;
+    }
+
+    @Override
+    public long getValue() {
+        return this.base + this.offsets[this.position];
+    }
+
+    @Override
+    public BigInteger getInitialValue() {
+        return isLong() ? BigInteger.valueOf(getValue()) : this.bigBase.add(BigInteger.valueOf(this.offsets[this.position]));
+    }
+
+    @Override
+    public long getIterations() {
+        return this.iterations[this.position];
+    }
+
+    @Override
+    public BigInteger getMaxExcursion() {
+        if (!hasExcursions()) {
+            throw new IllegalStateException("The file doesn't hold maximum excursions");
+        }
+        long peak = this.peaks[this.position];
+        return peak == 0 ? this.bigPeaks[this.position] : BigInteger.valueOf(peak);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.inflater.end();
+        this.channel.close();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+import net.jcip.annotations.Immutable;
+
+/**
+ * An accelerated kernel that advances a trajectory k parity steps at once.
+ * Writing {@code n = a * 2^k + b}, the value after k steps of
+ * {@code n -> n / 2} and {@code n -> (3n + 1) / 2} is {@code a * 3^c + d},
+ * where {@code c} is the number of odd steps taken by {@code b} and {@code d}
+ * is the value {@code b} reaches after k steps. Both are looked up in a
+ * precomputed table, and every odd step is counted twice so the iteration
+ * counts match {@link CollatzSequencer#iterations(long)} exactly.
+ * <p>
+ * Tables are built once per JVM for each k and shared by all threads.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@Immutable
+public final class CollatzJumpTable {
+
+    /**
+     * The smallest supported number of steps per jump.
+     */
+    public static final int MIN_STEPS = 1;
+
+    /**
+     * The largest supported number of steps per jump. A table of this size
+     * occupies 128 MB.
+     */
+    public static final int MAX_STEPS = 24;
+
+    private static final Logger LOG = Logger.getLogger(CollatzJumpTable.class.getName());
+    private static final int ODD_STEP_SHIFT = 58;
+    private static final long VALUE_MASK = (1L << ODD_STEP_SHIFT) - 1;
+    private static final AtomicReferenceArray<CollatzJumpTable> TABLES = new AtomicReferenceArray<>(MAX_STEPS + 1);
+    private static final long[] POWERS_OF_THREE = new long[MAX_STEPS + 1];
+
+    static {
+        POWERS_OF_THREE[0] = 1;
+        for (int i = 1; i < POWERS_OF_THREE.length; i++) {
+            POWERS_OF_THREE[i] = POWERS_OF_THREE[i - 1] * 3;
+        }
+    }
+
+    /**
+     * Gets the shared table for the specified number of steps, building it if
+     * needed.
+     *
+     * @param steps The number of parity steps advanced by each jump
+     * @return The table
+     */
+    public static CollatzJumpTable forSteps(int steps) {
+        if (steps < MIN_STEPS || steps > MAX_STEPS) {
+            throw new IllegalArgumentException("The number of steps must be between " + MIN_STEPS + " and " + MAX_STEPS);
+        }
+        CollatzJumpTable table = TABLES.get(steps);
+        if (table == null) {
+            synchronized (TABLES) {
+                table = TABLES.get(steps);
+                if (table == null) {
+                    table = new CollatzJumpTable(steps);
+                    TABLES.set(steps, table);
+                }
+            }
+        }
+        return table;
+    }
+
+    private final int steps;
+    private final long mask;
+
+    /**
+     * The entries, each holding the odd step count in the top bits and the
+     * value reached in the low bits.
+     */
+    private final long[] entries;
+
+    /**
+     * The largest {@code a} that can be jumped without overflow, indexed by
+     * the odd step count.
+     */
+    private final long[] limits;
+
+    private CollatzJumpTable(int steps) {
+        long start = System.nanoTime();
+        this.steps = steps;
+        this.mask = (1L << steps) - 1;
+        this.entries = new long[1 << steps];
+        long maxValue = 0;
+        for (int residue = 0; residue < this.entries.length; residue++) {
+            long value = residue, oddSteps = 0;
+            for (int i = 0; i < steps; i++) {
+                if ((value & 1) == 0) {
+                    value >>>= 1;
+                } else {
+                    value = ((value * 3) + 1) >>> 1;
+                    oddSteps++;
+                }
+            }
+            this.entries[residue] = oddSteps << ODD_STEP_SHIFT | value;
+            maxValue = Math.max(maxValue, value);
+        }
+        this.limits = new long[steps + 1];
+        for (int oddSteps = 0; oddSteps <= steps; oddSteps++) {
+            this.limits[oddSteps] = (Long.MAX_VALUE - maxValue) / POWERS_OF_THREE[oddSteps];
+        }
+        LOG.fine("Built the " + steps + " step jump table in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * A getter for the number of parity steps advanced by each jump.
+     *
+     * @return The number of steps
+     */
+    public int getSteps() {
+        return this.steps;
+    }
+
+    /**
+     * Computes the number of iterations needed for the specified value to
+     * reach 1.
+     *
+     * @param number The starting value, a natural number
+     * @return The number of iterations needed to reach 1
+     */
+    public long iterations(long number) {
+        return iterations(number, null);
+    }
+
+    /**
+     * Computes the number of iterations needed for the specified value to
+     * reach 1, consulting and filling the cache if one is given.
+     *
+     * @param number The starting value, a natural number
+     * @param cache The shared cache, or null for none
+     * @return The number of iterations needed to reach 1
+     */
+    public long iterations(long number, StoppingTimeCache cache) {
+        if (number < 1) {
+            throw new IllegalArgumentException("The value passed must be a natural number.");
+        }
+        final long start = number;
+        long iterations = 0;
+        while (number > this.mask) {
+            long entry = this.entries[(int) (number & this.mask)];
+            int oddSteps = (int) (entry >>> ODD_STEP_SHIFT);
+            long high = number >>> this.steps;
+            if (high > this.limits[oddSteps]) {
+                break;
+            }
+            number = (high * POWERS_OF_THREE[oddSteps]) + (entry & VALUE_MASK);
+            iterations += this.steps + oddSteps;
+            if (cache != null && number < start) {
+                long known = cache.get(number);
+                if (known >= 0) {
+                    iterations += known;
+                    cache.put(start, iterations);
+                    return iterations;
+                }
+            }
+        }
+        iterations = CollatzSequencer.iterations(number, iterations);
+        if (cache != null) {
+            cache.put(start, iterations);
+        }
+        return iterations;
+    }
+}
@@ -5,14 +5,24 @@
  */
 package com.gmail.physicistsarah.collatzconjecture.core;
 
+import java.io.IOException;
 import static java.lang.Math.addExact;
 import static java.lang.Math.multiplyExact;
 import java.math.BigInteger;
 import static java.math.BigInteger.ONE;
 import static java.math.BigInteger.ZERO;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.logging.Logger;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.validation.constraints.NotNull;
 import net.jcip.annotations.Immutable;
 import net.jcip.annotations.NotThreadSafe;
 
@@ -27,91 +37,439 @@ public class CollatzSequencer {
 
     private static final Logger LOG = Logger.getLogger(CollatzSequencer.class.getName());
 
+    /**
+     * The largest value for which {@code (3 * n) + 1} still fits in a
+     * {@code long}. Odd values above this are handed over to the
+     * {@link BigInteger} path.
+     */
+    static final long MAX_LONG_ODD_STEP = (Long.MAX_VALUE - 1) / 3;
+
+    /**
+     * The largest high limb, as an unsigned value, for which
+     * {@code (3 * n) + 1} of a 128 bit value still fits in 128 bits. Odd
+     * values above this are handed over to the {@link BigInteger} path.
+     */
+    private static final long MAX_WIDE_ODD_STEP_HIGH = 0x5555_5555_5555_5554L;
+
+    /**
+     * Values shorter than this many bits are handed to the 128 bit path
+     * instead of the {@link LimbArrayKernel}.
+     */
+    private static final int WIDE_DEMOTION_BITS = (2 * Long.SIZE) - 2;
+
+    /**
+     * Computes the number of iterations needed for the specified value to
+     * reach 1. No objects are allocated unless the trajectory leaves the range
+     * of a {@code long}, in which case the live value is promoted to a
+     * {@link BigInteger} and the computation continues from that point.
+     *
+     * @param number The starting value, a natural number
+     * @return The number of iterations needed to reach 1
+     */
+    public static long iterations(long number) {
+        if (number < 1) {
+            throw new IllegalArgumentException("The value passed must be a natural number.");
+        }
+        return iterations(number, 0);
+    }
+
+    /**
+     * Computes the number of iterations needed for the specified value to
+     * reach 1, stopping as soon as the trajectory drops to a value whose
+     * iteration count is already in the cache. The result is recorded in the
+     * cache.
+     *
+     * @param number The starting value, a natural number
+     * @param cache The shared cache
+     * @return The number of iterations needed to reach 1
+     */
+    public static long iterations(long number, @NotNull StoppingTimeCache cache) {
+        if (number < 1) {
+            throw new IllegalArgumentException("The value passed must be a natural number.");
+        }
+        final long start = number;
+        long iterations = 0;
+        while (number != 1) {
+            if ((number & 1) == 0) {
+                int zeros = Long.numberOfTrailingZeros(number);
+                number >>>= zeros;
+                iterations += zeros;
+                if (number < start) {
+                    long known = cache.get(number);
+                    if (known >= 0) {
+                        iterations += known;
+                        break;
+                    }
+                }
+            } else if (number <= MAX_LONG_ODD_STEP) {
+                number = (number * 3) + 1;
+                iterations++;
+            } else {
+                iterations = wideIterations(0, number, iterations);
+                break;
+            }
+        }
+        cache.put(start, iterations);
+        return iterations;
+    }
+
+    /**
+     * Computes the number of iterations needed for the specified value to
+     * reach 1.
+     *
+     * @param number The starting value, a natural number
+     * @return The number of iterations needed to reach 1
+     */
+    public static long iterations(@NotNull BigInteger number) {
+        if (number.signum() < 1) {
+            throw new IllegalArgumentException("The value passed must be a natural number.");
+        }
+        return iterations(number, 0);
+    }
+
+    /**
+     * The primitive kernel. Runs of trailing zeros are stripped in one shift.
+     *
+     * @param number The current value
+     * @param iterations The iterations already performed
+     * @return The total number of iterations once 1 is reached
+     */
+    static long iterations(long number, long iterations) {
+        while (number != 1) {
+            if ((number & 1) == 0) {
+                int zeros = Long.numberOfTrailingZeros(number);
+                number >>>= zeros;
+                iterations += zeros;
+            } else if (number <= MAX_LONG_ODD_STEP) {
+                number = (number * 3) + 1;
+                iterations++;
+            } else {
+                return wideIterations(0, number, iterations);
+            }
+        }
+        return iterations;
+    }
+
+    /**
+     * The 128 bit kernel, keeping the value in two {@code long} limbs that are
+     * treated as unsigned. {@code (3 * n) + 1} is computed as a shift and two
+     * additions with carries, so nothing is allocated. At least one step is
+     * taken before the value is handed back to the primitive kernel, and it is
+     * only promoted to a {@link BigInteger} once it would overflow 128 bits.
+     *
+     * @param high The upper 64 bits of the current value
+     * @param low The lower 64 bits of the current value
+     * @param iterations The iterations already performed
+     * @return The total number of iterations once 1 is reached
+     */
+    static long wideIterations(long high, long low, long iterations) {
+        do {
+            if ((low & 1) == 0) {
+                if (low == 0) {
+                    int zeros = Long.numberOfTrailingZeros(high);
+                    low = high >>> zeros;
+                    high = 0;
+                    iterations += Long.SIZE + zeros;
+                } else {
+                    int zeros = Long.numberOfTrailingZeros(low);
+                    low = (low >>> zeros) | (high << (Long.SIZE - zeros));
+                    high >>>= zeros;
+                    iterations += zeros;
+                }
+            } else if (Long.compareUnsigned(high, MAX_WIDE_ODD_STEP_HIGH) <= 0) {
+                long sumLow = (low << 1) + low;
+                long sumHigh = (high << 1) + (low >>> (Long.SIZE - 1)) + high + (Long.compareUnsigned(sumLow, low) < 0 ? 1 : 0);
+                low = sumLow + 1;
+                high = low == 0 ? sumHigh + 1 : sumHigh;
+                iterations++;
+            } else {
+                return iterations(toBigInteger(high, low), iterations);
+            }
+        } while (high != 0 || low < 0);
+        return iterations(low, iterations);
+    }
+
+    /**
+     * Converts two unsigned limbs to a {@link BigInteger}.
+     *
+     * @param high The upper 64 bits
+     * @param low The lower 64 bits
+     * @return The value
+     */
+    private static BigInteger toBigInteger(long high, long low) {
+        byte[] bytes = new byte[2 * Long.BYTES];
+        for (int i = 0; i < Long.BYTES; i++) {
+            bytes[i] = (byte) (high >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+            bytes[i + Long.BYTES] = (byte) (low >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    /**
+     * The arbitrary precision entry point. Values that are too large for the
+     * 128 bit kernel are run by a {@link LimbArrayKernel}, which drops back to
+     * the 128 bit kernel as soon as the value is small enough.
+     *
+     * @param number The current value
+     * @param iterations The iterations already performed
+     * @return The total number of iterations once 1 is reached
+     */
+    private static long iterations(BigInteger number, long iterations) {
+        if (number.bitLength() >= WIDE_DEMOTION_BITS) {
+            return new LimbArrayKernel(number).iterations(iterations);
+        } else if (number.bitLength() < Long.SIZE) {
+            return iterations(number.longValue(), iterations);
+        }
+        return wideIterations(number.shiftRight(Long.SIZE).longValue(), number.longValue(), iterations);
+    }
+
+    /**
+     * Gets the trajectory of the specified value, from the value itself down
+     * to 1, as a lazy iterator. Each value is computed when it is requested.
+     *
+     * @param number The starting value, a natural number
+     * @return The iterator
+     */
+    public static PrimitiveIterator.OfLong trajectoryIterator(long number) {
+        if (number < 1) {
+            throw new IllegalArgumentException("The value passed must be a natural number.");
+        }
+        return new LongTrajectoryIterator(number);
+    }
+
+    /**
+     * Gets the trajectory of the specified value, from the value itself down
+     * to 1, as a lazy iterator. Each value is computed when it is requested.
+     *
+     * @param number The starting value, a natural number
+     * @return The iterator
+     */
+    public static Iterator<BigInteger> trajectoryIterator(@NotNull BigInteger number) {
+        if (number.signum() < 1) {
+            throw new IllegalArgumentException("The value passed must be a natural number.");
+        }
+        return new BigTrajectoryIterator(number);
+    }
+
+    /**
+     * Gets the trajectory of the specified value, from the value itself down
+     * to 1, as a lazy sequential stream. Nothing is buffered, so short
+     * circuiting operations stop the computation early.
+     *
+     * @param number The starting value, a natural number
+     * @return The stream
+     * @see #trajectory(BigInteger) For trajectories that leave the range of a
+     * {@code long}, on which this stream throws an {@link ArithmeticException}
+     */
+    public static LongStream trajectory(long number) {
+        return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(trajectoryIterator(number),
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+    }
+
+    /**
+     * Gets the trajectory of the specified value, from the value itself down
+     * to 1, as a lazy sequential stream. Nothing is buffered, so short
+     * circuiting operations stop the computation early.
+     *
+     * @param number The starting value, a natural number
+     * @return The stream
+     */
+    public static Stream<BigInteger> trajectory(@NotNull BigInteger number) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(trajectoryIterator(number),
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+    }
+
     private final boolean ultraLightweight;
+    private final StoppingTimeCache cache;
+    private final CollatzJumpTable jumpTable;
     private final BigInteger initialValue;
     private long iterationsLong;
-    private BigInteger iterationsBig;
     private String sequence;
 
     public CollatzSequencer(BigInteger currentValue, boolean ultraLightweight) {
+        this(currentValue, ultraLightweight, null);
+    }
+
+    /**
+     * Constructs a new {@link CollatzSequencer} that consults the specified
+     * cache when running in ultra lightweight mode.
+     *
+     * @param currentValue The starting value
+     * @param ultraLightweight Whether the sequence is omitted
+     * @param cache The shared cache, or null for none
+     */
+    public CollatzSequencer(BigInteger currentValue, boolean ultraLightweight, StoppingTimeCache cache) {
+        this(currentValue, ultraLightweight, cache, null);
+    }
+
+    /**
+     * Constructs a new {@link CollatzSequencer} that consults the specified
+     * cache and uses the specified jump table when running in ultra
+     * lightweight mode.
+     *
+     * @param currentValue The starting value
+     * @param ultraLightweight Whether the sequence is omitted
+     * @param cache The shared cache, or null for none
+     * @param jumpTable The jump table, or null to step one iteration at a time
+     */
+    public CollatzSequencer(BigInteger currentValue, boolean ultraLightweight, StoppingTimeCache cache,
+            CollatzJumpTable jumpTable) {
         if (currentValue == null) {
             throw new NullPointerException("Value passed can't be null");
-        } else if (currentValue.compareTo(new BigInteger("1")) < 0) {
+        } else if (currentValue.compareTo(ONE) < 0) {
             throw new NumberFormatException("The value passed to the constructor must be a natural number.");
         }
         this.iterationsLong = 0;
-        this.iterationsBig = ZERO;
         this.initialValue = currentValue;
         this.sequence = "";
         this.ultraLightweight = ultraLightweight;
+        this.cache = cache;
+        this.jumpTable = jumpTable;
     }
 
     public FinalSequencerReport<? extends Number> init() {
-        try {
-            return new FinalSequencerReport<>(this.ultraLightweight ? performCalculationLightweight(this.initialValue.longValueExact())
-                    : performCalculationLightweightWithSequence(this.initialValue.longValueExact()), this.iterationsLong,
-                    this.sequence, this.initialValue.longValueExact());
-        } catch (ArithmeticException e) {
+        this.iterationsLong = 0;
+        this.sequence = "";
+        if (this.initialValue.bitLength() < Long.SIZE) {
+            long value = this.initialValue.longValue();
+            return new FinalSequencerReport<>(this.ultraLightweight ? performCalculationLightweight(value)
+                    : performCalculationLightweightWithSequence(value), this.iterationsLong,
+                    this.sequence, value);
+        } else {
             return new FinalSequencerReport<>(this.ultraLightweight ? performCalculationHeavyweight(this.initialValue)
-                    : performCalculationHeavyweightWithSequence(this.initialValue), this.iterationsLong,
+                    : performCalculationHeavyweightWithSequence(this.initialValue), BigInteger.valueOf(this.iterationsLong),
                     this.sequence, this.initialValue);
         }
     }
 
     private BigInteger performCalculationHeavyweight(BigInteger number) {
-        if (number.equals(ONE)) {
-            return number;
-        } else if (number.and(ONE).equals(ZERO)) {
-            this.iterationsBig = this.iterationsBig.add(ONE);
-            return performCalculationHeavyweight(number.divide(new BigInteger("2")));
-        } else {
-            this.iterationsBig = this.iterationsBig.add(ONE);
-            return performCalculationHeavyweight(number.multiply(new BigInteger("3")).add(ONE));
-        }
+        this.iterationsLong = iterations(number, this.iterationsLong);
+        return ONE;
     }
 
     private BigInteger performCalculationHeavyweightWithSequence(BigInteger number) {
-        if (number.equals(ONE)) {
-            this.sequence += this.ultraLightweight ? "" : "= 1";
-            return number;
-        } else if (number.and(ONE).equals(ZERO)) {
-            this.sequence += this.ultraLightweight ? "" : number + " / 2 = " + number.divide(BigInteger.valueOf(2)) + " -> ";
-            this.iterationsBig = this.iterationsBig.add(ONE);
-            return performCalculationHeavyweightWithSequence(number.divide(new BigInteger("2")));
-        } else {
-            this.sequence += this.ultraLightweight ? "" : number + " * 3 + 1 = "
-                    + number.multiply(new BigInteger("3")).add(ONE) + " -> ";
-            this.iterationsBig = this.iterationsBig.add(ONE);
-            return performCalculationHeavyweightWithSequence(number.multiply(new BigInteger("3")).add(ONE));
+        StringBuilder builder = new StringBuilder();
+        try {
+            this.iterationsLong = appendSequence(number, builder);
+        } catch (IOException ex) {
+            throw new AssertionError("A StringBuilder doesn't throw IOExceptions", ex);
         }
+        this.sequence = builder.toString();
+        return ONE;
     }
 
     private long performCalculationLightweight(long number) {
-        if (number == 1) {
-            return number;
-        } else if ((number & 1) == 0) {
-            this.iterationsLong++;
-            return performCalculationLightweight(number / 2);
+        if (this.jumpTable != null) {
+            this.iterationsLong = this.jumpTable.iterations(number, this.cache);
         } else {
-            this.iterationsLong++;
-            return performCalculationLightweight((number * 3) + 1);
+            this.iterationsLong = this.cache == null ? iterations(number, this.iterationsLong) : iterations(number, this.cache);
         }
+        return 1;
     }
 
     private long performCalculationLightweightWithSequence(long number) {
-        if (number == 1) {
-            this.sequence += this.ultraLightweight ? "" : "= 1";
-            this.sequence = "Lightweight\n" + this.sequence;
-            return number;
-        } else if ((number & 1) == 0) {
-            this.iterationsLong++;
-            this.sequence += this.ultraLightweight ? "" : number + " / 2 = " + number / 2 + " -> ";
-            return performCalculationLightweightWithSequence(number / 2);
-        } else {
-            this.iterationsLong++;
-            this.sequence += this.ultraLightweight ? "" : number + " * 3 + 1 = " + ((number * 3) + 1) + " -> ";
-            return performCalculationLightweightWithSequence((number * 3) + 1);
+        StringBuilder builder = new StringBuilder();
+        try {
+            this.iterationsLong = appendSequence(number, builder);
+        } catch (IOException ex) {
+            throw new AssertionError("A StringBuilder doesn't throw IOExceptions", ex);
+        }
+        this.sequence = builder.toString();
+        return 1;
+    }
+
+    /**
+     * Writes the algebraic sequence of the initial value to the specified
+     * destination while it is computed, so that memory stays bounded however
+     * long the trajectory is. The text is the same as the sequence of the
+     * report of a sequencer that isn't ultra lightweight.
+     *
+     * @param out The destination, for example a buffered {@link java.io.Writer}
+     * @return The number of iterations needed to reach 1
+     * @throws IOException If the destination threw an IOException
+     */
+    public long writeSequence(@NotNull Appendable out) throws IOException {
+        return this.initialValue.bitLength() < Long.SIZE ? appendSequence(this.initialValue.longValue(), out)
+                : appendSequence(this.initialValue, out);
+    }
+
+    /**
+     * Writes the report of the initial value, including its algebraic
+     * sequence, to the specified destination while the sequence is computed.
+     * The text is the same as that of the report of a sequencer that isn't
+     * ultra lightweight. The iterations are counted with the primitive kernel
+     * first, since they precede the sequence.
+     *
+     * @param out The destination, for example a buffered {@link java.io.Writer}
+     * @throws IOException If the destination threw an IOException
+     */
+    public void writeReport(@NotNull Appendable out) throws IOException {
+        out.append("Initial Value: ").append(this.initialValue.toString()).append("\nFinal Value: 1\nIterations:  ")
+                .append(Long.toString(iterations(this.initialValue))).append("\nAlgebraic Sequence:\n\n");
+        writeSequence(out);
+    }
+
+    /**
+     * Appends the algebraic sequence of a value that fits into a {@code long}.
+     * The text of each value is only built once, although it appears in two
+     * steps.
+     *
+     * @param number The starting value
+     * @param out The destination
+     * @return The number of iterations needed to reach 1
+     * @throws IOException If the destination threw an IOException
+     */
+    private static long appendSequence(long number, Appendable out) throws IOException {
+        out.append("Lightweight\n");
+        long iterations = 0;
+        String text = Long.toString(number);
+        while (number != 1) {
+            if ((number & 1) == 0) {
+                number >>>= 1;
+                out.append(text).append(" / 2 = ");
+            } else if (number <= MAX_LONG_ODD_STEP) {
+                number = (number * 3) + 1;
+                out.append(text).append(" * 3 + 1 = ");
+            } else {
+                return iterations + appendSequence(BigInteger.valueOf(number), text, out);
+            }
+            text = Long.toString(number);
+            out.append(text).append(" -> ");
+            iterations++;
         }
+        out.append("= 1");
+        return iterations;
+    }
+
+    private static long appendSequence(BigInteger number, Appendable out) throws IOException {
+        return appendSequence(number, number.toString(), out);
+    }
+
+    /**
+     * Appends the algebraic sequence of an arbitrary value.
+     *
+     * @param number The starting value
+     * @param text The decimal text of the starting value
+     * @param out The destination
+     * @return The number of iterations needed to reach 1
+     * @throws IOException If the destination threw an IOException
+     */
+    private static long appendSequence(BigInteger number, String text, Appendable out) throws IOException {
+        long iterations = 0;
+        while (!number.equals(ONE)) {
+            if (number.testBit(0)) {
+                number = number.shiftLeft(1).add(number).add(ONE);
+                out.append(text).append(" * 3 + 1 = ");
+            } else {
+                number = number.shiftRight(1);
+                out.append(text).append(" / 2 = ");
+            }
+            text = number.toString();
+            out.append(text).append(" -> ");
+            iterations++;
+        }
+        out.append("= 1");
+        return iterations;
     }
 
     private SequencerReport<Long> performCalculationLightweight(SequencerReport<Long> report) {
@@ -146,12 +504,112 @@ public class CollatzSequencer {
         }
     }
 
+    /**
+     * Walks a trajectory that stays in the range of a {@code long}. The next
+     * value is only computed when it is requested.
+     */
+    @NotThreadSafe
+    private static final class LongTrajectoryIterator implements PrimitiveIterator.OfLong {
+
+        private long value;
+        private boolean started, finished;
+
+        LongTrajectoryIterator(long number) {
+            this.value = number;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.finished;
+        }
+
+        /**
+         * Gets the next value of the trajectory.
+         *
+         * @return The next value
+         * @throws ArithmeticException If the next value doesn't fit into a
+         * {@code long}
+         */
+        @Override
+        public long nextLong() {
+            if (this.finished) {
+                throw new NoSuchElementException("The trajectory has reached 1");
+            }
+            if (this.started) {
+                if ((this.value & 1) == 0) {
+                    this.value >>>= 1;
+                } else if (this.value <= MAX_LONG_ODD_STEP) {
+                    this.value = (this.value * 3) + 1;
+                } else {
+                    throw new ArithmeticException("The trajectory leaves the range of a long after " + this.value);
+                }
+            }
+            this.started = true;
+            this.finished = this.value == 1;
+            return this.value;
+        }
+    }
+
+    /**
+     * Walks a trajectory of arbitrary values. The next value is only computed
+     * when it is requested.
+     */
+    @NotThreadSafe
+    private static final class BigTrajectoryIterator implements Iterator<BigInteger> {
+
+        private BigInteger value;
+        private boolean started, finished;
+
+        BigTrajectoryIterator(BigInteger number) {
+            this.value = number;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.finished;
+        }
+
+        @Override
+        public BigInteger next() {
+            if (this.finished) {
+                throw new NoSuchElementException("The trajectory has reached 1");
+            }
+            if (this.started) {
+                this.value = this.value.testBit(0) ? this.value.shiftLeft(1).add(this.value).add(ONE) : this.value.shiftRight(1);
+            }
+            this.started = true;
+            this.finished = this.value.equals(ONE);
+            return this.value;
+        }
+    }
+
     @Immutable
     public static final class FinalSequencerReport<T extends Number> extends SequencerReport<T> implements Comparable<FinalSequencerReport<T>> {
 
         public static Comparator<? super FinalSequencerReport<? extends Number>> compareByInitialValue() {
-            return (FinalSequencerReport<? extends Number> o1, FinalSequencerReport<? extends Number> o2)
-                    -> new BigInteger(o1.getInitialValue().toString()).compareTo(new BigInteger(o2.getInitialValue().toString()));
+            return (FinalSequencerReport<? extends Number> o1, FinalSequencerReport<? extends Number> o2) -> {
+                Number first = o1.getInitialValue(), second = o2.getInitialValue();
+                if (first instanceof Long && second instanceof Long) {
+                    return Long.compare(first.longValue(), second.longValue());
+                }
+                return toBigInteger(first).compareTo(toBigInteger(second));
+            };
+        }
+
+        /**
+         * Converts an initial value without parsing its text, unless it is of
+         * an unknown type.
+         *
+         * @param value The initial value
+         * @return The value as a {@link BigInteger}
+         */
+        private static BigInteger toBigInteger(Number value) {
+            if (value instanceof BigInteger) {
+                return (BigInteger) value;
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                return BigInteger.valueOf(value.longValue());
+            }
+            return new BigInteger(value.toString());
         }
         private final T initialValue;
 
@@ -0,0 +1,286 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * The progress of a number range run, saved periodically so that the run can
+ * be resumed after a crash or restart. A checkpoint holds the low water mark
+ * below which every number has been computed and written, the completed
+ * ranges above it, and the length of the output file at the time it was
+ * saved. Records past that length belong to ranges the checkpoint doesn't
+ * know about, so a resumed run truncates them and computes those ranges
+ * again.
+ * <p>
+ * A checkpoint is confined to the storage writer thread once the hub has
+ * started.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@NotThreadSafe
+final class HubCheckpoint {
+
+    private static final int VERSION = 1;
+
+    /**
+     * Loads a saved checkpoint and checks that it belongs to a run with the
+     * same parameters.
+     *
+     * @param file The checkpoint file
+     * @param startingNumber The first number of the run
+     * @param endingNumber The last number of the run, exclusive
+     * @param format The output format of the run
+     * @param sieveBits The sieve bits of the run
+     * @param intervalMillis The time between checkpoints, in milliseconds
+     * @return The checkpoint
+     * @throws IOException If the file couldn't be read or doesn't match the
+     * run
+     */
+    static HubCheckpoint load(@NotNull Path file, @NotNull BigInteger startingNumber, @NotNull BigInteger endingNumber,
+            @NotNull RecordFormat format, int sieveBits, long intervalMillis) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream stream = Files.newInputStream(file)) {
+            properties.load(stream);
+        }
+        try {
+            if (Integer.parseInt(properties.getProperty("version")) != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + properties.getProperty("version"));
+            }
+            if (!startingNumber.equals(new BigInteger(properties.getProperty("startingNumber")))
+                    || !endingNumber.equals(new BigInteger(properties.getProperty("endingNumber")))
+                    || format != RecordFormat.valueOf(properties.getProperty("format"))
+                    || sieveBits != Integer.parseInt(properties.getProperty("sieveBits"))) {
+                throw new IOException("The checkpoint " + file + " belongs to a different run: " + properties);
+            }
+            HubCheckpoint checkpoint = new HubCheckpoint(file, startingNumber, endingNumber, format, sieveBits, intervalMillis);
+            checkpoint.resumed = true;
+            checkpoint.lowWaterMark = new BigInteger(properties.getProperty("lowWaterMark"));
+            checkpoint.outputBytes = Long.parseLong(properties.getProperty("outputBytes"));
+            String completed = properties.getProperty("completed", "").trim();
+            if (!completed.isEmpty()) {
+                for (String range : completed.split(" ")) {
+                    int separator = range.indexOf('-');
+                    checkpoint.completed.put(new BigInteger(range.substring(0, separator)), new BigInteger(range.substring(separator + 1)));
+                }
+            }
+            return checkpoint;
+        } catch (NullPointerException | IllegalArgumentException | StringIndexOutOfBoundsException ex) {
+            throw new IOException("The checkpoint " + file + " is corrupt", ex);
+        }
+    }
+
+    private final Path file;
+    private final BigInteger startingNumber, endingNumber;
+    private final RecordFormat format;
+    private final int sieveBits;
+    private final long intervalNanos;
+    private final NavigableMap<BigInteger, BigInteger> completed = new TreeMap<>();
+    private BigInteger lowWaterMark;
+    private long outputBytes;
+    private boolean resumed;
+    private long lastSaved = System.nanoTime();
+
+    /**
+     * Constructs a new {@link HubCheckpoint} for a run that hasn't computed
+     * anything yet.
+     *
+     * @param file The checkpoint file
+     * @param startingNumber The first number of the run
+     * @param endingNumber The last number of the run, exclusive
+     * @param format The output format of the run
+     * @param sieveBits The sieve bits of the run
+     * @param intervalMillis The time between checkpoints, in milliseconds
+     */
+    HubCheckpoint(@NotNull Path file, @NotNull BigInteger startingNumber, @NotNull BigInteger endingNumber,
+            @NotNull RecordFormat format, int sieveBits, long intervalMillis) {
+        this.file = file;
+        this.startingNumber = startingNumber;
+        this.endingNumber = endingNumber;
+        this.format = format;
+        this.sieveBits = sieveBits;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.lowWaterMark = startingNumber;
+    }
+
+    /**
+     * Records that every number in the specified range has been written.
+     *
+     * @param start The first number of the range
+     * @param end The last number of the range, exclusive
+     */
+    void markCompleted(@NotNull BigInteger start, @NotNull BigInteger end) {
+        if (start.equals(this.lowWaterMark)) {
+            this.lowWaterMark = end;
+            for (BigInteger next = this.completed.remove(end); next != null; next = this.completed.remove(this.lowWaterMark)) {
+                this.lowWaterMark = next;
+            }
+            return;
+        }
+        Map.Entry<BigInteger, BigInteger> previous = this.completed.lowerEntry(start);
+        BigInteger following = this.completed.remove(end);
+        if (previous != null && previous.getValue().equals(start)) {
+            this.completed.put(previous.getKey(), following == null ? end : following);
+        } else {
+            this.completed.put(start, following == null ? end : following);
+        }
+    }
+
+    /**
+     * Tests whether it is time to save this checkpoint again.
+     *
+     * @return Whether the interval has elapsed, always false if there is no
+     * interval
+     */
+    boolean isDue() {
+        return this.intervalNanos > 0 && System.nanoTime() - this.lastSaved >= this.intervalNanos;
+    }
+
+    /**
+     * Saves this checkpoint. The output file must already be flushed to the
+     * disk up to the specified length. The file is replaced atomically where
+     * the file system supports it.
+     *
+     * @param outputBytes The length of the output file
+     * @throws IOException If the checkpoint couldn't be written
+     */
+    void save(long outputBytes) throws IOException {
+        this.outputBytes = outputBytes;
+        Properties properties = new Properties();
+        properties.setProperty("version", Integer.toString(VERSION));
+        properties.setProperty("startingNumber", this.startingNumber.toString());
+        properties.setProperty("endingNumber", this.endingNumber.toString());
+        properties.setProperty("format", this.format.name());
+        properties.setProperty("sieveBits", Integer.toString(this.sieveBits));
+        properties.setProperty("lowWaterMark", this.lowWaterMark.toString());
+        properties.setProperty("outputBytes", Long.toString(outputBytes));
+        StringBuilder ranges = new StringBuilder();
+        for (Map.Entry<BigInteger, BigInteger> range : this.completed.entrySet()) {
+            ranges.append(ranges.length() == 0 ? "" : " ").append(range.getKey()).append('-').append(range.getValue());
+        }
+        properties.setProperty("completed", ranges.toString());
+        Path temporary = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temporary)) {
+            properties.store(stream, "Collatz Conjecture Program checkpoint");
+        }
+        try {
+            Files.move(temporary, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temporary, this.file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        this.lastSaved = System.nanoTime();
+    }
+
+    /**
+     * A getter for the number below which every number has been written.
+     *
+     * @return The low water mark
+     */
+    BigInteger getLowWaterMark() {
+        return this.lowWaterMark;
+    }
+
+    /**
+     * A getter for the length of the output file when this checkpoint was
+     * saved.
+     *
+     * @return The length in bytes
+     */
+    long getOutputBytes() {
+        return this.outputBytes;
+    }
+
+    /**
+     * Tests whether this checkpoint was loaded from a previous run.
+     *
+     * @return Whether the run is resumed
+     */
+    boolean isResumed() {
+        return this.resumed;
+    }
+
+    /**
+     * Copies the progress of this checkpoint, so that the copy can be read by
+     * another thread while the writer thread carries on with this one.
+     *
+     * @return The copy
+     */
+    HubCheckpoint snapshot() {
+        HubCheckpoint copy = new HubCheckpoint(this.file, this.startingNumber, this.endingNumber, this.format, this.sieveBits, 0);
+        copy.completed.putAll(this.completed);
+        copy.lowWaterMark = this.lowWaterMark;
+        copy.outputBytes = this.outputBytes;
+        copy.resumed = this.resumed;
+        return copy;
+    }
+
+    /**
+     * Gets the first number at or after the specified one that hasn't been
+     * written yet.
+     *
+     * @param number The number
+     * @return The number, or the end of the written range covering it
+     */
+    BigInteger skipCompleted(@NotNull BigInteger number) {
+        if (number.compareTo(this.lowWaterMark) < 0) {
+            return this.lowWaterMark;
+        }
+        Map.Entry<BigInteger, BigInteger> covering = this.completed.floorEntry(number);
+        return covering != null && covering.getValue().compareTo(number) > 0 ? covering.getValue() : number;
+    }
+
+    /**
+     * Gets the parts of the specified range that haven't been written yet.
+     *
+     * @param start The first number of the range
+     * @param end The last number of the range, exclusive
+     * @return The missing ranges, each as a start and an exclusive end
+     */
+    List<BigInteger[]> getMissingRanges(@NotNull BigInteger start, @NotNull BigInteger end) {
+        if (start.compareTo(this.lowWaterMark) < 0) {
+            start = this.lowWaterMark.min(end);
+        }
+        if (this.completed.isEmpty()) {
+            return start.compareTo(end) < 0 ? Collections.singletonList(new BigInteger[]{start, end}) : Collections.emptyList();
+        }
+        List<BigInteger[]> missing = new ArrayList<>();
+        Map.Entry<BigInteger, BigInteger> covering = this.completed.floorEntry(start);
+        BigInteger position = covering != null && covering.getValue().compareTo(start) > 0 ? covering.getValue() : start;
+        for (Map.Entry<BigInteger, BigInteger> range : this.completed.subMap(start, true, end, false).entrySet()) {
+            if (range.getKey().compareTo(position) > 0) {
+                missing.add(new BigInteger[]{position, range.getKey()});
+            }
+            position = position.max(range.getValue());
+        }
+        if (position.compareTo(end) < 0) {
+            missing.add(new BigInteger[]{position, end});
+        }
+        return missing;
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint: every number below " + this.lowWaterMark + " and " + this.completed.size()
+                + " ranges above it, " + this.outputBytes + " bytes of output";
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * The headless entry point of batch runs. It parses the command line into a
+ * {@link HubConfiguration}, runs a {@link ProcessingHub} over a number range
+ * or until the output file reaches a size, and exits. Nothing on this path
+ * touches Swing or JavaFX, so it runs on servers without a display.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@NotThreadSafe
+public final class HubCommandLine {
+
+    private static final Logger LOG = Logger.getLogger(HubCommandLine.class.getName());
+
+    private static final String USAGE = "Usage: HubCommandLine (--range <first> <last> | --size <bytes>) [options]\n"
+            + "  --output <directory>      The output directory (default: " + HubConfiguration.DEFAULT_OUTPUT_DIRECTORY + ")\n"
+            + "  --threads <count>         The number of worker threads (default: the number of processors)\n"
+            + "  --chunk-size <numbers>    The numbers in each work unit (default: " + HubConfiguration.DEFAULT_CHUNK_SIZE + ")\n"
+            + "  --chunk-target <millis>   Sizes the work units to take this long, starting at the chunk size\n"
+            + "  --buffer-size <bytes>     The writer buffer size (default: " + HubConfiguration.DEFAULT_WRITER_BUFFER_SIZE + ")\n"
+            + "  --format <format>         TEXT, BINARY, BLOCK or DEFLATED_BLOCK (default: TEXT)\n"
+            + "  --mode <mode>             REPORTS, RECORDS or STATISTICS (default: REPORTS)\n"
+            + "  --cache <entries>         The stopping time cache capacity, 0 disables it\n"
+            + "  --jump <steps>            The parity steps per jump, 0 steps one at a time\n"
+            + "  --sieve <bits>            The residue sieve bits, 0 computes every number\n"
+            + "  --ordered <work units>    Writes the records in order, holding at most this many work units\n"
+            + "  --mapped                  Writes straight into a memory mapped output file\n"
+            + "  --checkpoint <millis>     The time between checkpoints\n"
+            + "  --resume                  Continues from the saved checkpoint\n"
+            + "  --wait <strategy>         How the writer thread waits (default: BLOCKING)\n"
+            + "  --metrics <millis>        The time between the metrics log lines\n"
+            + "Sizes in bytes take an optional K, M or G suffix.";
+
+    /**
+     * Runs a processing hub as the command line specifies. The exit status is
+     * 2 if the command line is invalid and 1 if the run failed, including a
+     * work unit or a write that failed while the hub was running.
+     *
+     * @param args The command line arguments
+     */
+    public static void main(String[] args) {
+        HubCommandLine commandLine;
+        try {
+            commandLine = parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        try {
+            commandLine.createHub().hubInit();
+        } catch (IOException | RuntimeException ex) {
+            LOG.log(Level.SEVERE, "The run failed", ex);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parses a command line.
+     *
+     * @param args The command line arguments
+     * @return The parsed command line
+     * @throws IllegalArgumentException If the command line is invalid
+     */
+    public static HubCommandLine parse(@NotNull String... args) {
+        HubConfiguration.Builder builder = new HubConfiguration.Builder();
+        BigInteger first = null, last = null;
+        long bytes = 0;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            switch (option) {
+                case "--range":
+                    first = parseNumber(option, argument(args, ++i, option));
+                    last = parseNumber(option, argument(args, ++i, option));
+                    break;
+                case "--size":
+                    bytes = parseBytes(option, argument(args, ++i, option), Long.MAX_VALUE);
+                    break;
+                case "--output":
+                    builder.outputDirectory(Paths.get(argument(args, ++i, option)));
+                    break;
+                case "--threads":
+                    builder.workerThreads(parseInt(option, argument(args, ++i, option)));
+                    break;
+                case "--chunk-size":
+                    builder.chunkSize(parseInt(option, argument(args, ++i, option)));
+                    break;
+                case "--chunk-target":
+                    builder.targetChunkMillis(parseLong(option, argument(args, ++i, option)));
+                    break;
+                case "--buffer-size":
+                    builder.writerBufferSize((int) parseBytes(option, argument(args, ++i, option), Integer.MAX_VALUE));
+                    break;
+                case "--format":
+                    builder.outputFormat(parseEnum(RecordFormat.class, option, argument(args, ++i, option)));
+                    break;
+                case "--mode":
+                    builder.mode(parseEnum(HubMode.class, option, argument(args, ++i, option)));
+                    break;
+                case "--cache":
+                    builder.cacheCapacity(parseInt(option, argument(args, ++i, option)));
+                    break;
+                case "--jump":
+                    builder.jumpSteps(parseInt(option, argument(args, ++i, option)));
+                    break;
+                case "--sieve":
+                    builder.sieveBits(parseInt(option, argument(args, ++i, option)));
+                    break;
+                case "--ordered":
+                    builder.reorderWindow(parseInt(option, argument(args, ++i, option)));
+                    break;
+                case "--mapped":
+                    builder.mappedOutput(true);
+                    break;
+                case "--checkpoint":
+                    builder.checkpointInterval(parseLong(option, argument(args, ++i, option)));
+                    break;
+                case "--resume":
+                    builder.resume(true);
+                    break;
+                case "--wait":
+                    builder.writerWaitStrategy(parseEnum(WaitStrategy.class, option, argument(args, ++i, option)));
+                    break;
+                case "--metrics":
+                    builder.metricsLogInterval(parseLong(option, argument(args, ++i, option)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if ((first == null) == (bytes == 0)) {
+            throw new IllegalArgumentException("Exactly one of --range and --size must be given");
+        } else if (first != null && first.signum() < 1) {
+            throw new IllegalArgumentException("The first number of --range is less than one: " + first);
+        } else if (first != null && first.compareTo(last) >= 0) {
+            throw new IllegalArgumentException("The first number of --range isn't less than the last: " + first + " " + last);
+        }
+        return new HubCommandLine(builder.build(), first, last, bytes);
+    }
+
+    private static String argument(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("The option " + option + " is missing its argument");
+        }
+        return args[index];
+    }
+
+    private static BigInteger parseNumber(String option, String argument) {
+        try {
+            return new BigInteger(argument);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("The argument of " + option + " isn't an integer: " + argument, ex);
+        }
+    }
+
+    private static int parseInt(String option, String argument) {
+        try {
+            return Integer.parseInt(argument);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("The argument of " + option + " isn't an int: " + argument, ex);
+        }
+    }
+
+    private static long parseLong(String option, String argument) {
+        try {
+            return Long.parseLong(argument);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("The argument of " + option + " isn't a long: " + argument, ex);
+        }
+    }
+
+    /**
+     * Parses a size in bytes, with an optional binary K, M or G suffix.
+     *
+     * @param option The option the size belongs to
+     * @param argument The size
+     * @param maxBytes The largest size the option takes
+     * @return The number of bytes
+     */
+    private static long parseBytes(String option, String argument, long maxBytes) {
+        int shift = 0;
+        switch (argument.isEmpty() ? ' ' : Character.toUpperCase(argument.charAt(argument.length() - 1))) {
+            case 'K':
+                shift = 10;
+                break;
+            case 'M':
+                shift = 20;
+                break;
+            case 'G':
+                shift = 30;
+                break;
+        }
+        long bytes = parseLong(option, shift == 0 ? argument : argument.substring(0, argument.length() - 1));
+        if (bytes <= 0 || Long.numberOfLeadingZeros(bytes) <= shift) {
+            throw new IllegalArgumentException("The argument of " + option + " isn't a positive size: " + argument);
+        } else if (bytes > maxBytes >> shift) {
+            throw new IllegalArgumentException("The argument of " + option + " is larger than " + maxBytes + " bytes: " + argument);
+        }
+        return bytes << shift;
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String option, String argument) {
+        try {
+            return Enum.valueOf(type, argument.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Unknown argument of " + option + ": " + argument, ex);
+        }
+    }
+
+    private final HubConfiguration configuration;
+    private final BigInteger first, last;
+    private final long bytes;
+
+    private HubCommandLine(HubConfiguration configuration, BigInteger first, BigInteger last, long bytes) {
+        this.configuration = configuration;
+        this.first = first;
+        this.last = last;
+        this.bytes = bytes;
+    }
+
+    /**
+     * A getter for the configuration of the run.
+     *
+     * @return The configuration
+     */
+    public HubConfiguration getConfiguration() {
+        return this.configuration;
+    }
+
+    /**
+     * Creates the hub of the run, which can be started with
+     * {@link ProcessingHub#hubInit()}.
+     *
+     * @return The hub
+     * @throws IOException If the output directory or file couldn't be
+     * created
+     */
+    public ProcessingHub createHub() throws IOException {
+        if (this.first == null) {
+            return new ProcessingHub(this.bytes, this.configuration);
+        }
+        return new ProcessingHub(this.first, this.last, this.configuration);
+    }
+}
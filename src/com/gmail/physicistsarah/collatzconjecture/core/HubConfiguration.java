@@ -0,0 +1,590 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * The tuning options of a {@link ProcessingHub}. Instances are created with a
+ * {@link HubConfiguration.Builder}.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@Immutable
+public final class HubConfiguration {
+
+    /**
+     * The default number of entries in the shared stopping time cache.
+     * Currently this value is 2^22.
+     */
+    public static final int DEFAULT_CACHE_CAPACITY = 1 << 22;
+
+    /**
+     * The default directory of the output files, in the working directory.
+     */
+    public static final Path DEFAULT_OUTPUT_DIRECTORY = Paths.get("Conjecture Program");
+
+    /**
+     * The default number of numbers in each work unit of a number range run.
+     * Currently this value is 10,000.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+
+    /**
+     * The largest number of numbers in a work unit. The results of a work
+     * unit are held in memory until they are written.
+     */
+    public static final int MAX_CHUNK_SIZE = 1 << 24;
+
+    /**
+     * The default size of the buffer the records are encoded into before they
+     * are written. Currently this value is 64 KiB.
+     */
+    public static final int DEFAULT_WRITER_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The smallest size of the writer buffer.
+     */
+    public static final int MIN_WRITER_BUFFER_SIZE = 1 << 9;
+
+    /**
+     * Gets a configuration with every option set to its default.
+     *
+     * @return The default configuration
+     */
+    public static HubConfiguration defaults() {
+        return new Builder().build();
+    }
+
+    private final int cacheCapacity;
+    private final int jumpSteps;
+    private final int sieveBits;
+    private final RecordFormat outputFormat;
+    private final boolean mappedOutput;
+    private final long checkpointInterval;
+    private final boolean resume;
+    private final HubMode mode;
+    private final Path outputDirectory;
+    private final long metricsLogInterval;
+    private final WaitStrategy writerWaitStrategy;
+    private final int reorderWindow;
+    private final int workerThreads;
+    private final int chunkSize;
+    private final int writerBufferSize;
+    private final long targetChunkMillis;
+
+    private HubConfiguration(Builder builder) {
+        this.cacheCapacity = builder.cacheCapacity;
+        this.jumpSteps = builder.jumpSteps;
+        this.sieveBits = builder.sieveBits;
+        this.outputFormat = builder.outputFormat;
+        this.mappedOutput = builder.mappedOutput;
+        this.checkpointInterval = builder.checkpointInterval;
+        this.resume = builder.resume;
+        this.mode = builder.mode;
+        this.outputDirectory = builder.outputDirectory;
+        this.metricsLogInterval = builder.metricsLogInterval;
+        this.writerWaitStrategy = builder.writerWaitStrategy;
+        this.reorderWindow = builder.reorderWindow;
+        this.workerThreads = builder.workerThreads;
+        this.chunkSize = builder.chunkSize;
+        this.writerBufferSize = builder.writerBufferSize;
+        this.targetChunkMillis = builder.targetChunkMillis;
+    }
+
+    /**
+     * A getter for the number of entries in the shared stopping time cache. A
+     * capacity of zero disables the cache.
+     *
+     * @return The cache capacity
+     */
+    public int getCacheCapacity() {
+        return this.cacheCapacity;
+    }
+
+    /**
+     * A getter for the number of parity steps taken by each jump of the
+     * {@link CollatzJumpTable} kernel. Zero means the step by step kernel is
+     * used.
+     *
+     * @return The number of steps per jump
+     */
+    public int getJumpSteps() {
+        return this.jumpSteps;
+    }
+
+    /**
+     * A getter for the modulus exponent of the {@link ResidueSieve} used by
+     * number range runs. Zero means every number is computed.
+     *
+     * @return The number of sieve bits
+     */
+    public int getSieveBits() {
+        return this.sieveBits;
+    }
+
+    /**
+     * A getter for the format of the output file.
+     *
+     * @return The output format
+     */
+    public RecordFormat getOutputFormat() {
+        return this.outputFormat;
+    }
+
+    /**
+     * Tests whether the workers write their results straight into a memory
+     * mapped output file, instead of handing them to a writer thread.
+     *
+     * @return Whether the output is memory mapped
+     */
+    public boolean isMappedOutput() {
+        return this.mappedOutput;
+    }
+
+    /**
+     * A getter for the time between the checkpoints of number range runs.
+     * Zero means no checkpoints are saved while the run is going, although a
+     * resumed run still saves one when it finishes.
+     *
+     * @return The checkpoint interval, in milliseconds
+     */
+    public long getCheckpointInterval() {
+        return this.checkpointInterval;
+    }
+
+    /**
+     * Tests whether a number range run continues from the saved checkpoint
+     * instead of starting over.
+     *
+     * @return Whether the run is resumed
+     */
+    public boolean isResume() {
+        return this.resume;
+    }
+
+    /**
+     * A getter for what the hub writes for the numbers it computes.
+     *
+     * @return The mode
+     */
+    public HubMode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * A getter for the directory of the output files. It is created if it
+     * doesn't exist.
+     *
+     * @return The output directory
+     */
+    public Path getOutputDirectory() {
+        return this.outputDirectory;
+    }
+
+    /**
+     * A getter for the time between the log lines summarizing the
+     * {@link HubMetrics} of a running hub. Zero means no such lines are
+     * logged, the metrics are still published through JMX.
+     *
+     * @return The interval, in milliseconds
+     */
+    public long getMetricsLogInterval() {
+        return this.metricsLogInterval;
+    }
+
+    /**
+     * A getter for how the writer thread and the workers wait on each other.
+     * The memory mapped output has no writer thread, so it ignores this.
+     *
+     * @return The wait strategy
+     */
+    public WaitStrategy getWriterWaitStrategy() {
+        return this.writerWaitStrategy;
+    }
+
+    /**
+     * A getter for the number of work units the {@link ReorderBuffer} of an
+     * ordered output may hold. Zero means the records are written in the
+     * order the work units finish.
+     *
+     * @return The reorder window, in work units
+     */
+    public int getReorderWindow() {
+        return this.reorderWindow;
+    }
+
+    /**
+     * A getter for the number of threads that compute the work units.
+     *
+     * @return The number of worker threads
+     */
+    public int getWorkerThreads() {
+        return this.workerThreads;
+    }
+
+    /**
+     * A getter for the number of numbers in each work unit. Ranges too small
+     * to give every worker thread a full work unit are split into smaller
+     * ones. With a target chunk duration this is only the size of the first
+     * work units.
+     *
+     * @return The chunk size
+     */
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * A getter for the initial size of the buffers the records are encoded
+     * into, and of the stream the writer thread writes through. The encode
+     * buffers grow when a batch doesn't fit.
+     *
+     * @return The writer buffer size, in bytes
+     */
+    public int getWriterBufferSize() {
+        return this.writerBufferSize;
+    }
+
+    /**
+     * A getter for the time each work unit should take to compute. The hub
+     * measures the work units as they finish and sizes the next ones to take
+     * about this long, shrinking them near the end of a range so that the
+     * workers finish together. Zero means every work unit has the chunk size.
+     *
+     * @return The target chunk duration, in milliseconds
+     */
+    public long getTargetChunkMillis() {
+        return this.targetChunkMillis;
+    }
+
+    /**
+     * Tests whether number range runs keep a checkpoint.
+     *
+     * @return Whether checkpoints are kept
+     */
+    boolean isCheckpointed() {
+        return this.checkpointInterval > 0 || this.resume;
+    }
+
+    /**
+     * A builder for {@link HubConfiguration} instances.
+     */
+    @NotThreadSafe
+    public static final class Builder {
+
+        private int cacheCapacity = DEFAULT_CACHE_CAPACITY;
+        private int jumpSteps;
+        private int sieveBits;
+        private RecordFormat outputFormat = RecordFormat.TEXT;
+        private boolean mappedOutput;
+        private long checkpointInterval;
+        private boolean resume;
+        private HubMode mode = HubMode.REPORTS;
+        private Path outputDirectory = DEFAULT_OUTPUT_DIRECTORY;
+        private long metricsLogInterval;
+        private WaitStrategy writerWaitStrategy = WaitStrategy.BLOCKING;
+        private int reorderWindow;
+        private int workerThreads = Runtime.getRuntime().availableProcessors();
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+        private int writerBufferSize = DEFAULT_WRITER_BUFFER_SIZE;
+        private long targetChunkMillis;
+
+        /**
+         * Constructs a new {@link Builder} with every option set to its
+         * default.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Constructs a new {@link Builder} with every option set like in the
+         * specified configuration.
+         *
+         * @param configuration The configuration to copy
+         */
+        public Builder(@NotNull HubConfiguration configuration) {
+            this.cacheCapacity = configuration.cacheCapacity;
+            this.jumpSteps = configuration.jumpSteps;
+            this.sieveBits = configuration.sieveBits;
+            this.outputFormat = configuration.outputFormat;
+            this.mappedOutput = configuration.mappedOutput;
+            this.checkpointInterval = configuration.checkpointInterval;
+            this.resume = configuration.resume;
+            this.mode = configuration.mode;
+            this.outputDirectory = configuration.outputDirectory;
+            this.metricsLogInterval = configuration.metricsLogInterval;
+            this.writerWaitStrategy = configuration.writerWaitStrategy;
+            this.reorderWindow = configuration.reorderWindow;
+            this.workerThreads = configuration.workerThreads;
+            this.chunkSize = configuration.chunkSize;
+            this.writerBufferSize = configuration.writerBufferSize;
+            this.targetChunkMillis = configuration.targetChunkMillis;
+        }
+
+        /**
+         * Sets the number of entries in the shared stopping time cache.
+         *
+         * @param capacity The capacity, or zero to disable the cache
+         * @return This builder
+         */
+        public Builder cacheCapacity(int capacity) {
+            if (capacity < 0) {
+                throw new IllegalArgumentException("The cache capacity is less than zero");
+            }
+            this.cacheCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Sets the number of parity steps taken by each jump of the
+         * {@link CollatzJumpTable} kernel.
+         *
+         * @param steps The number of steps, or zero for the step by step
+         * kernel
+         * @return This builder
+         */
+        public Builder jumpSteps(int steps) {
+            if (steps != 0 && (steps < CollatzJumpTable.MIN_STEPS || steps > CollatzJumpTable.MAX_STEPS)) {
+                throw new IllegalArgumentException("The number of jump steps must be zero or between "
+                        + CollatzJumpTable.MIN_STEPS + " and " + CollatzJumpTable.MAX_STEPS);
+            }
+            this.jumpSteps = steps;
+            return this;
+        }
+
+        /**
+         * Sets the modulus exponent of the {@link ResidueSieve} used by number
+         * range runs. Only use this for runs that start at 1, or whose smaller
+         * numbers are already known to reach 1.
+         *
+         * @param bits The number of sieve bits, or zero to compute every number
+         * @return This builder
+         */
+        public Builder sieveBits(int bits) {
+            if (bits != 0 && (bits < ResidueSieve.MIN_BITS || bits > ResidueSieve.MAX_BITS)) {
+                throw new IllegalArgumentException("The number of sieve bits must be zero or between "
+                        + ResidueSieve.MIN_BITS + " and " + ResidueSieve.MAX_BITS);
+            }
+            this.sieveBits = bits;
+            return this;
+        }
+
+        /**
+         * Sets the format of the output file.
+         *
+         * @param format The output format
+         * @return This builder
+         */
+        public Builder outputFormat(@NotNull RecordFormat format) {
+            this.outputFormat = Objects.requireNonNull(format, "The output format can't be null");
+            return this;
+        }
+
+        /**
+         * Sets whether the workers write their results straight into a memory
+         * mapped output file, instead of handing them to a writer thread.
+         *
+         * @param mapped Whether the output is memory mapped
+         * @return This builder
+         */
+        public Builder mappedOutput(boolean mapped) {
+            this.mappedOutput = mapped;
+            return this;
+        }
+
+        /**
+         * Sets the time between the checkpoints of number range runs. The
+         * checkpoints are saved by the writer thread, so a few seconds is
+         * cheap enough.
+         *
+         * @param millis The interval in milliseconds, or zero to disable
+         * checkpoints
+         * @return This builder
+         */
+        public Builder checkpointInterval(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("The checkpoint interval is less than zero");
+            }
+            this.checkpointInterval = millis;
+            return this;
+        }
+
+        /**
+         * Sets whether a number range run continues from the saved checkpoint
+         * instead of starting over. The run must have the same bounds, output
+         * format and sieve as the one that saved the checkpoint.
+         *
+         * @param resume Whether the run is resumed
+         * @return This builder
+         */
+        public Builder resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        /**
+         * Sets what the hub writes for the numbers it computes.
+         *
+         * @param mode The mode
+         * @return This builder
+         */
+        public Builder mode(@NotNull HubMode mode) {
+            this.mode = Objects.requireNonNull(mode, "The mode can't be null");
+            return this;
+        }
+
+        /**
+         * Sets the directory of the output files.
+         *
+         * @param directory The output directory
+         * @return This builder
+         */
+        public Builder outputDirectory(@NotNull Path directory) {
+            this.outputDirectory = Objects.requireNonNull(directory, "The output directory can't be null");
+            return this;
+        }
+
+        /**
+         * Sets the time between the log lines summarizing the metrics of a
+         * running hub.
+         *
+         * @param millis The interval in milliseconds, or zero to disable the
+         * log lines
+         * @return This builder
+         */
+        public Builder metricsLogInterval(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("The metrics log interval is less than zero");
+            }
+            this.metricsLogInterval = millis;
+            return this;
+        }
+
+        /**
+         * Sets how the writer thread and the workers wait on each other.
+         *
+         * @param strategy The wait strategy
+         * @return This builder
+         */
+        public Builder writerWaitStrategy(@NotNull WaitStrategy strategy) {
+            this.writerWaitStrategy = Objects.requireNonNull(strategy, "The wait strategy can't be null");
+            return this;
+        }
+
+        /**
+         * Sets whether the records are written in increasing order of their
+         * initial values, and how many work units may be held back to order
+         * them. A few times the number of processors is enough to keep every
+         * worker busy, each unit held costs the memory of its results.
+         *
+         * @param workUnits The reorder window, or zero to write the records in
+         * the order the work units finish
+         * @return This builder
+         */
+        public Builder reorderWindow(int workUnits) {
+            if (workUnits < 0) {
+                throw new IllegalArgumentException("The reorder window is less than zero");
+            }
+            this.reorderWindow = workUnits;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads that compute the work units. The default
+         * is the number of available processors.
+         *
+         * @param threads The number of worker threads
+         * @return This builder
+         */
+        public Builder workerThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("At least one worker thread is needed");
+            }
+            this.workerThreads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the number of numbers in each work unit. Larger units spend
+         * less time handing results over, smaller ones keep the workers
+         * evenly busy near the end of a run.
+         *
+         * @param numbers The chunk size
+         * @return This builder
+         */
+        public Builder chunkSize(int numbers) {
+            if (numbers < 1 || numbers > MAX_CHUNK_SIZE) {
+                throw new IllegalArgumentException("The chunk size must be between 1 and " + MAX_CHUNK_SIZE);
+            }
+            this.chunkSize = numbers;
+            return this;
+        }
+
+        /**
+         * Sets the initial size of the buffers the records are encoded into,
+         * and of the stream the writer thread writes through.
+         *
+         * @param bytes The writer buffer size, in bytes
+         * @return This builder
+         */
+        public Builder writerBufferSize(int bytes) {
+            if (bytes < MIN_WRITER_BUFFER_SIZE) {
+                throw new IllegalArgumentException("The writer buffer must be at least " + MIN_WRITER_BUFFER_SIZE + " bytes");
+            }
+            this.writerBufferSize = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the time each work unit should take to compute. A few tens of
+         * milliseconds make the hand over of the results negligible while
+         * keeping the work units small enough to balance.
+         *
+         * @param millis The target chunk duration in milliseconds, or zero to
+         * give every work unit the chunk size
+         * @return This builder
+         */
+        public Builder targetChunkMillis(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("The target chunk duration is less than zero");
+            }
+            this.targetChunkMillis = millis;
+            return this;
+        }
+
+        /**
+         * Builds the configuration.
+         *
+         * @return The configuration
+         * @throws IllegalArgumentException If checkpoints are combined with
+         * the memory mapped output or a mode other than the report mode, or
+         * the sieve or the ordered output is combined with such a mode
+         */
+        public HubConfiguration build() {
+            if (this.mappedOutput && (this.checkpointInterval > 0 || this.resume)) {
+                throw new IllegalArgumentException("Checkpoints aren't supported with the memory mapped output");
+            } else if (this.outputFormat.isIndexed() && (this.mappedOutput || this.checkpointInterval > 0 || this.resume)) {
+                throw new IllegalArgumentException("The " + this.outputFormat + " output keeps an index of the whole file, it can't be"
+                        + " memory mapped or resumed");
+            } else if (this.mode != HubMode.REPORTS && (this.checkpointInterval > 0 || this.resume)) {
+                throw new IllegalArgumentException("Checkpoints aren't supported in the " + this.mode + " mode");
+            } else if (this.mode == HubMode.RECORDS && this.sieveBits != 0) {
+                throw new IllegalArgumentException("The sieve skips numbers that can be records");
+            } else if (this.mode == HubMode.STATISTICS && this.sieveBits != 0) {
+                throw new IllegalArgumentException("The sieve would leave numbers out of the statistics");
+            } else if (this.mode != HubMode.REPORTS && this.reorderWindow != 0) {
+                throw new IllegalArgumentException("The ordered output only applies to the " + HubMode.REPORTS + " mode");
+            }
+            return new HubConfiguration(this);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.math.BigInteger;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * The metrics of a {@link ProcessingHub}. Counters are striped
+ * {@link LongAdder}s and every worker counts into its own adder, so recording
+ * costs the workers no contention. Recording happens once per work unit or
+ * batch, never per number. Gauges are read from the hub when they are
+ * queried.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@ThreadSafe
+public final class HubMetrics implements HubMetricsMXBean {
+
+    /**
+     * The number of buckets of the write latency histogram. The last bucket
+     * also counts every slower write.
+     */
+    static final int LATENCY_BUCKETS = 32;
+
+    private final LongAdder numbersComputed = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> workerNumbers = new ConcurrentHashMap<>();
+    private final ThreadLocal<LongAdder> localWorkerNumbers = ThreadLocal.withInitial(()
+            -> this.workerNumbers.computeIfAbsent(Thread.currentThread().getName(), name -> new LongAdder()));
+    private final LongAdder blockedPuts = new LongAdder();
+    private final LongAdder putBlockedNanos = new LongAdder();
+    private final LongAdder batchesWritten = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder[] writeLatency = new LongAdder[LATENCY_BUCKETS];
+    private final LongAdder chunksComputed = new LongAdder();
+    private final LongAdder chunkNanos = new LongAdder();
+    /*
+     * The work unit sizes are only written by the thread dispatching the
+     * work units.
+     */
+    private volatile long workUnitsDispatched;
+    private volatile long chunkSizeSum;
+    private volatile long lastChunkSize;
+    private volatile long minChunkSize;
+    private volatile long maxChunkSize;
+    private volatile long startNanos = System.nanoTime();
+    private volatile BigInteger frontier = BigInteger.ZERO;
+    private volatile IntSupplier workUnitsInFlight = () -> 0;
+    private volatile IntSupplier queueDepth = () -> 0;
+
+    /**
+     * Constructs a new {@link HubMetrics} with every counter at zero.
+     */
+    HubMetrics() {
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            this.writeLatency[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Restarts the clock of the rate, when the hub starts computing.
+     */
+    void markStarted() {
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Counts numbers computed by the calling worker.
+     *
+     * @param count The number of numbers
+     */
+    void recordComputed(long count) {
+        this.numbersComputed.add(count);
+        this.localWorkerNumbers.get().add(count);
+    }
+
+    /**
+     * Records the dispatch of a work unit. Only called from the dispatching
+     * thread.
+     *
+     * @param startNumber The first number of the work unit
+     * @param size The number of numbers in the work unit
+     */
+    void recordDispatched(@NotNull BigInteger startNumber, long size) {
+        this.frontier = startNumber;
+        this.minChunkSize = this.workUnitsDispatched == 0 ? size : Math.min(this.minChunkSize, size);
+        this.maxChunkSize = Math.max(this.maxChunkSize, size);
+        this.lastChunkSize = size;
+        this.chunkSizeSum += size;
+        this.workUnitsDispatched++;
+    }
+
+    /**
+     * Records the time a work unit took to compute.
+     *
+     * @param nanos The time taken, in nanoseconds
+     */
+    void recordChunk(long nanos) {
+        this.chunksComputed.increment();
+        this.chunkNanos.add(nanos);
+    }
+
+    /**
+     * Records a worker waiting on the full writer queue.
+     *
+     * @param nanos The time waited, in nanoseconds
+     */
+    void recordPutBlocked(long nanos) {
+        this.blockedPuts.increment();
+        this.putBlockedNanos.add(nanos);
+    }
+
+    /**
+     * Records a write of one or more batches to the output.
+     *
+     * @param batches The number of batches written
+     * @param nanos The time taken to encode and write them, in nanoseconds
+     * @param bytes The number of bytes written
+     */
+    void recordWrite(int batches, long nanos, long bytes) {
+        this.batchesWritten.add(batches);
+        this.writes.increment();
+        this.bytesWritten.add(bytes);
+        this.writeNanos.add(nanos);
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        this.writeLatency[Math.min(LATENCY_BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(micros))].increment();
+    }
+
+    /**
+     * Sets the gauge of the work units in flight.
+     *
+     * @param gauge Reads the number of work units in flight
+     */
+    void setWorkUnitsInFlightGauge(@NotNull IntSupplier gauge) {
+        this.workUnitsInFlight = gauge;
+    }
+
+    /**
+     * Sets the gauge of the writer queue depth.
+     *
+     * @param gauge Reads the number of batches in the queue
+     */
+    void setQueueDepthGauge(@NotNull IntSupplier gauge) {
+        this.queueDepth = gauge;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startNanos);
+    }
+
+    @Override
+    public long getNumbersComputed() {
+        return this.numbersComputed.sum();
+    }
+
+    @Override
+    public double getNumbersPerSecond() {
+        long nanos = System.nanoTime() - this.startNanos;
+        return nanos <= 0 ? 0 : getNumbersComputed() * 1e9 / nanos;
+    }
+
+    @Override
+    public Map<String, Long> getWorkerNumbersComputed() {
+        Map<String, Long> counts = new TreeMap<>();
+        this.workerNumbers.forEach((name, count) -> counts.put(name, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public BigInteger getFrontier() {
+        return this.frontier;
+    }
+
+    @Override
+    public int getWorkUnitsInFlight() {
+        return this.workUnitsInFlight.getAsInt();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return this.queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getBlockedPuts() {
+        return this.blockedPuts.sum();
+    }
+
+    @Override
+    public long getPutBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.putBlockedNanos.sum());
+    }
+
+    @Override
+    public long getBatchesWritten() {
+        return this.batchesWritten.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return this.bytesWritten.sum();
+    }
+
+    @Override
+    public long getWrites() {
+        return this.writes.sum();
+    }
+
+    @Override
+    public double getMeanWriteLatencyMicros() {
+        long count = getWrites();
+        return count == 0 ? 0 : this.writeNanos.sum() / 1e3 / count;
+    }
+
+    @Override
+    public long[] getWriteLatencyHistogram() {
+        long[] counts = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            counts[i] = this.writeLatency[i].sum();
+        }
+        return counts;
+    }
+
+    @Override
+    public long getWorkUnitsDispatched() {
+        return this.workUnitsDispatched;
+    }
+
+    @Override
+    public long getLastChunkSize() {
+        return this.lastChunkSize;
+    }
+
+    @Override
+    public long getMinChunkSize() {
+        return this.minChunkSize;
+    }
+
+    @Override
+    public long getMaxChunkSize() {
+        return this.maxChunkSize;
+    }
+
+    @Override
+    public double getMeanChunkSize() {
+        long count = this.workUnitsDispatched;
+        return count == 0 ? 0 : (double) this.chunkSizeSum / count;
+    }
+
+    @Override
+    public double getMeanChunkMillis() {
+        long count = this.chunksComputed.sum();
+        return count == 0 ? 0 : this.chunkNanos.sum() / 1e6 / count;
+    }
+
+    /**
+     * Gets a one line summary of the metrics, as logged periodically.
+     *
+     * @return The summary
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "Computed %d numbers (%.0f/s), frontier %s, %d work units in flight, queue depth %d, "
+                + "blocked %d ms on %d puts, wrote %d bytes of %d batches in %d writes (mean %.1f us), "
+                + "work units of %d to %d numbers (last %d, mean %.0f numbers in %.1f ms)",
+                getNumbersComputed(), getNumbersPerSecond(), getFrontier(), getWorkUnitsInFlight(), getQueueDepth(),
+                getPutBlockedMillis(), getBlockedPuts(), getBytesWritten(), getBatchesWritten(), getWrites(),
+                getMeanWriteLatencyMicros(), getMinChunkSize(), getMaxChunkSize(), getLastChunkSize(), getMeanChunkSize(),
+                getMeanChunkMillis());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+/**
+ * The live counters and gauges of a running {@link ProcessingHub}, published
+ * through JMX under
+ * {@code com.gmail.physicistsarah.collatzconjecture:type=ProcessingHub}.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public interface HubMetricsMXBean {
+
+    /**
+     * A getter for the time since the hub was started.
+     *
+     * @return The elapsed time, in milliseconds
+     */
+    public long getElapsedMillis();
+
+    /**
+     * A getter for the number of numbers computed so far.
+     *
+     * @return The count
+     */
+    public long getNumbersComputed();
+
+    /**
+     * A getter for the average rate of the run so far.
+     *
+     * @return The numbers computed per second
+     */
+    public double getNumbersPerSecond();
+
+    /**
+     * A getter for the numbers computed by each worker thread so far.
+     *
+     * @return The counts, keyed by thread name
+     */
+    public Map<String, Long> getWorkerNumbersComputed();
+
+    /**
+     * A getter for the first number of the most recently dispatched work
+     * unit.
+     *
+     * @return The frontier, or zero before the first work unit
+     */
+    public BigInteger getFrontier();
+
+    /**
+     * A getter for the number of work units dispatched but not yet handed to
+     * the storage.
+     *
+     * @return The number of work units
+     */
+    public int getWorkUnitsInFlight();
+
+    /**
+     * A getter for the number of batches waiting for the writer thread.
+     *
+     * @return The queue depth, zero if the storage has no queue
+     */
+    public int getQueueDepth();
+
+    /**
+     * A getter for the number of times a worker found the writer queue full,
+     * and had to wait.
+     *
+     * @return The count
+     */
+    public long getBlockedPuts();
+
+    /**
+     * A getter for the total time workers spent waiting on the full writer
+     * queue.
+     *
+     * @return The time, in milliseconds
+     */
+    public long getPutBlockedMillis();
+
+    /**
+     * A getter for the number of batches written.
+     *
+     * @return The count
+     */
+    public long getBatchesWritten();
+
+    /**
+     * A getter for the number of writes. The writer thread writes every
+     * batch waiting for it at once, so a write may hold several batches.
+     *
+     * @return The count
+     */
+    public long getWrites();
+
+    /**
+     * A getter for the number of bytes written, excluding the header and the
+     * footer.
+     *
+     * @return The size in bytes
+     */
+    public long getBytesWritten();
+
+    /**
+     * A getter for the mean time taken by a write, including the encoding.
+     *
+     * @return The mean latency, in microseconds
+     */
+    public double getMeanWriteLatencyMicros();
+
+    /**
+     * A getter for the distribution of the write latencies. The count at index
+     * {@code i} is of the writes that took less than {@code 2^i}
+     * microseconds, but at least {@code 2^(i - 1)}.
+     *
+     * @return The counts of each power of two bucket
+     */
+    public long[] getWriteLatencyHistogram();
+
+    /**
+     * A getter for the number of work units dispatched so far.
+     *
+     * @return The count
+     */
+    public long getWorkUnitsDispatched();
+
+    /**
+     * A getter for the size of the most recently dispatched work unit.
+     *
+     * @return The number of numbers, or zero before the first work unit
+     */
+    public long getLastChunkSize();
+
+    /**
+     * A getter for the size of the smallest work unit dispatched so far.
+     *
+     * @return The number of numbers, or zero before the first work unit
+     */
+    public long getMinChunkSize();
+
+    /**
+     * A getter for the size of the largest work unit dispatched so far.
+     *
+     * @return The number of numbers, or zero before the first work unit
+     */
+    public long getMaxChunkSize();
+
+    /**
+     * A getter for the mean size of the work units dispatched so far.
+     *
+     * @return The mean number of numbers
+     */
+    public double getMeanChunkSize();
+
+    /**
+     * A getter for the mean time a work unit took to compute, excluding the
+     * hand over to the storage.
+     *
+     * @return The mean duration, in milliseconds
+     */
+    public double getMeanChunkMillis();
+}
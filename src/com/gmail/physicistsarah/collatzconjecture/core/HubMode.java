@@ -0,0 +1,33 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+/**
+ * What a {@link ProcessingHub} writes for the numbers it computes.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public enum HubMode {
+
+    /**
+     * A record for every number computed.
+     */
+    REPORTS,
+    /**
+     * Only the delay records and path records of a number range run, in
+     * increasing order, each with the peak of its trajectory. A delay record
+     * takes more iterations than every smaller number, a path record reaches
+     * a higher peak than every smaller number.
+     */
+    RECORDS,
+    /**
+     * No records, only a summary of the distributions of the stopping times
+     * and peaks of a number range run: the count of every stopping time and
+     * of every peak bit length, the mean and the percentiles. The output
+     * format doesn't apply.
+     */
+    STATISTICS
+}
@@ -8,8 +8,6 @@ package com.gmail.physicistsarah.collatzconjecture.core;
 import java.awt.Dimension;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import javafx.application.Platform;
 import javafx.stage.Stage;
 import javax.swing.JOptionPane;
@@ -27,24 +25,16 @@ import org.controlsfx.dialog.Dialogs;
 public class Init {
 
     /**
+     * Batch runs are started through {@link HubCommandLine}, which doesn't
+     * need a display.
+     *
      * @param args the command line arguments
      */
     public static void main(String[] args) throws IOException, InterruptedException {
         //initThreadsSingleProcessing();
         //initNumberChooser();
         //Application.launch(Init.class);
-        initProcessingHub();
-    }
-
-    private static void initProcessingHub() {
-        try {
-            //ProcessingHub hub = new ProcessingHub(BigInteger.ONE, new BigInteger("600000"));
-            ProcessingHub hub = new ProcessingHub(50L * 1024 * 1024);
-            hub.hubInit();
-            //initNumberChooser();
-        } catch (IOException ex) {
-            Logger.getLogger(Init.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        HubCommandLine.main(args);
     }
 
     private static void initNumberChooser() {
@@ -0,0 +1,151 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * The kernel for values past 128 bits. The value lives in a mutable array of
+ * 32 bit limbs, least significant first, and every step works on it in place,
+ * so nothing is allocated during the run except when the value outgrows the
+ * array. Each odd step computes {@code (3 * n) + 1} and shifts out the
+ * trailing zeros of the result in the same pass over the limbs. Once the
+ * value fits into three limbs it is handed to the 128 bit kernel of
+ * {@link CollatzSequencer}.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@NotThreadSafe
+final class LimbArrayKernel {
+
+    private static final long MASK = 0xFFFF_FFFFL;
+
+    /**
+     * The value is handed to the 128 bit kernel once it has this many limbs or
+     * fewer.
+     */
+    private static final int WIDE_LIMBS = 3;
+
+    private int[] limbs;
+    private int length;
+
+    /**
+     * Constructs a new {@link LimbArrayKernel} holding the specified value.
+     *
+     * @param number The value, a natural number
+     */
+    LimbArrayKernel(@NotNull BigInteger number) {
+        byte[] bytes = number.toByteArray();
+        this.length = (number.bitLength() + Integer.SIZE - 1) / Integer.SIZE;
+        this.limbs = new int[this.length + (this.length >>> 3) + 2];
+        for (int i = 0; i < bytes.length && i / Integer.BYTES < this.length; i++) {
+            this.limbs[i / Integer.BYTES] |= (bytes[bytes.length - 1 - i] & 0xFF) << (Byte.SIZE * (i % Integer.BYTES));
+        }
+    }
+
+    /**
+     * Runs the value down to 1. The value is left in an unspecified state.
+     *
+     * @param iterations The iterations already performed
+     * @return The total number of iterations once 1 is reached
+     */
+    long iterations(long iterations) {
+        iterations += stripTrailingZeros();
+        while (this.length > WIDE_LIMBS) {
+            iterations += oddStep();
+        }
+        long low = this.limbs[0] & MASK;
+        if (this.length > 1) {
+            low |= (long) this.limbs[1] << Integer.SIZE;
+        }
+        long high = this.length > 2 ? this.limbs[2] & MASK : 0;
+        if (high == 0 && low > 0) {
+            return CollatzSequencer.iterations(low, iterations);
+        }
+        return CollatzSequencer.wideIterations(high, low, iterations);
+    }
+
+    /**
+     * Takes an odd step and strips the trailing zeros of its result. The
+     * lowest limb of the result is computed first, and unless it is zero its
+     * trailing zeros are shifted out while the higher limbs are computed.
+     *
+     * @return The number of iterations taken
+     */
+    private int oddStep() {
+        if (this.length == this.limbs.length) {
+            this.limbs = Arrays.copyOf(this.limbs, this.length * 2);
+        }
+        long product = (this.limbs[0] & MASK) * 3 + 1;
+        int previous = (int) product;
+        long carry = product >>> Integer.SIZE;
+        if (previous == 0) {
+            this.limbs[0] = 0;
+            for (int i = 1; i < this.length; i++) {
+                product = (this.limbs[i] & MASK) * 3 + carry;
+                this.limbs[i] = (int) product;
+                carry = product >>> Integer.SIZE;
+            }
+            appendCarry((int) carry);
+            return 1 + stripTrailingZeros();
+        }
+        int zeros = Integer.numberOfTrailingZeros(previous);
+        for (int i = 1; i < this.length; i++) {
+            product = (this.limbs[i] & MASK) * 3 + carry;
+            int current = (int) product;
+            carry = product >>> Integer.SIZE;
+            this.limbs[i - 1] = (previous >>> zeros) | (current << (Integer.SIZE - zeros));
+            previous = current;
+        }
+        int top = (int) carry;
+        this.limbs[this.length - 1] = (previous >>> zeros) | (top << (Integer.SIZE - zeros));
+        appendCarry(top >>> zeros);
+        trim();
+        return 1 + zeros;
+    }
+
+    private void appendCarry(int carry) {
+        if (carry != 0) {
+            this.limbs[this.length++] = carry;
+        }
+    }
+
+    private void trim() {
+        while (this.length > 1 && this.limbs[this.length - 1] == 0) {
+            this.length--;
+        }
+    }
+
+    /**
+     * Shifts out every trailing zero of the value in one pass.
+     *
+     * @return The number of zeros shifted out
+     */
+    private int stripTrailingZeros() {
+        int words = 0;
+        while (this.limbs[words] == 0) {
+            words++;
+        }
+        int zeros = Integer.numberOfTrailingZeros(this.limbs[words]);
+        if (words == 0 && zeros == 0) {
+            return 0;
+        }
+        int remaining = this.length - words;
+        for (int i = 0; i < remaining; i++) {
+            int value = this.limbs[i + words] >>> zeros;
+            if (zeros != 0 && i + 1 < remaining) {
+                value |= this.limbs[i + words + 1] << (Integer.SIZE - zeros);
+            }
+            this.limbs[i] = value;
+        }
+        this.length = remaining;
+        trim();
+        return (words * Integer.SIZE) + zeros;
+    }
+}
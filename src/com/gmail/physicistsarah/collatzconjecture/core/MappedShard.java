@@ -0,0 +1,487 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A memory mapped output file that answers stopping time lookups for
+ * initial values that fit into a {@code long}. The records are read from the
+ * mapping in place, so lookups don't copy the file onto the heap. Files
+ * larger than a {@link MappedByteBuffer} are mapped in segments of up to
+ * {@value #SEGMENT_BYTES} bytes.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@ThreadSafe
+abstract class MappedShard {
+
+    /**
+     * The largest number of bytes mapped by one segment.
+     */
+    static final int SEGMENT_BYTES = 1 << 30;
+
+    private static final Logger LOG = Logger.getLogger(MappedShard.class.getName());
+
+    /**
+     * Maps the specified output file, choosing the layout by the magic number
+     * at the start of the file.
+     *
+     * @param file The file
+     * @return The shard
+     * @throws IOException If the file couldn't be mapped or is neither a
+     * {@link RecordFormat#BINARY} nor a {@link RecordFormat#BLOCK} file
+     */
+    static MappedShard open(@NotNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(magic, 0);
+            if (magic.position() == Integer.BYTES && magic.getInt(0) == BinaryRecordFormat.MAGIC) {
+                return new BinaryShard(file, channel);
+            }
+        }
+        return new BlockShard(file);
+    }
+
+    /**
+     * Looks up the stopping time of a number.
+     *
+     * @param number The initial value
+     * @return The number of iterations, or -1 if the shard doesn't hold the
+     * number
+     */
+    abstract long lookup(long number);
+
+    /**
+     * Looks up the stopping times of a range of numbers. The stopping time
+     * of the number {@code from + i} is stored at {@code offset + i}, and
+     * the entries of numbers the shard doesn't hold are left as they are.
+     *
+     * @param from The first number
+     * @param to The last number, inclusive
+     * @param iterations The array the stopping times are stored in
+     * @param offset The index of the first number in the array
+     * @return The number of stopping times found
+     */
+    abstract int lookup(long from, long to, long[] iterations, int offset);
+
+    /**
+     * Maps a region of a file.
+     *
+     * @param channel The file
+     * @param offset The start of the region
+     * @param length The length of the region, at most {@value #SEGMENT_BYTES}
+     * @return The mapping
+     * @throws IOException If the region couldn't be mapped
+     */
+    static MappedByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    /**
+     * A {@link RecordFormat#BINARY} file. The record of a number is first
+     * looked for at the slot it has in an ordered run without gaps, in
+     * constant time, and then by a binary search over the records, so numbers
+     * are only found in files written with an ordered output. The file is
+     * scanned once when it is opened. If no record escapes a value past 64
+     * bits, every record has the fixed size and is found by its index alone.
+     * Otherwise the offset of every record is kept, so that the escaped bytes
+     * don't shift the records after them. Escaped initial values are larger
+     * than any {@code long}, so they sort after every number looked up.
+     */
+    @Immutable
+    static final class BinaryShard extends MappedShard {
+
+        /**
+         * The largest number of records of a file with escaped values, whose
+         * record offsets are kept on the heap.
+         */
+        static final int MAX_ESCAPED_RECORDS = 1 << 27;
+
+        private final MappedByteBuffer[] segments;
+        private final int recordSize;
+        private final boolean excursions;
+        private final long records, firstValue;
+        private final long[] offsets;
+
+        BinaryShard(@NotNull Path file, @NotNull FileChannel channel) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(BinaryRecordFormat.HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            }
+            if (header.hasRemaining()) {
+                throw new IOException(file + " ends inside its header");
+            }
+            int version = header.getShort(Integer.BYTES) & 0xFFFF;
+            if (version > BinaryRecordFormat.VERSION) {
+                throw new IOException("Unsupported binary output version " + version);
+            }
+            int flags = header.getShort(Integer.BYTES + Short.BYTES) & 0xFFFF;
+            this.recordSize = BinaryRecordFormat.getRecordSize(flags);
+            this.excursions = (flags & BinaryRecordFormat.FLAG_EXCURSIONS) != 0;
+            long size = channel.size();
+            /*
+             * The segments overlap by a fixed part, so the fixed part of every
+             * record lies within the segment its offset falls into.
+             */
+            this.segments = new MappedByteBuffer[(int) ((size - BinaryRecordFormat.HEADER_SIZE + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            for (int i = 0; i < this.segments.length; i++) {
+                long offset = BinaryRecordFormat.HEADER_SIZE + (long) i * SEGMENT_BYTES;
+                this.segments[i] = map(channel, offset, Math.min(SEGMENT_BYTES + this.recordSize, size - offset));
+            }
+            long escaped = -1, count = 0;
+            for (long offset = BinaryRecordFormat.HEADER_SIZE; offset + this.recordSize <= size; count++) {
+                long next = nextRecord(offset);
+                if (escaped < 0 && next != offset + this.recordSize) {
+                    escaped = count;
+                }
+                if (next > size) {
+                    break;
+                }
+                offset = next;
+            }
+            this.records = count;
+            if (escaped < 0) {
+                this.offsets = null;
+            } else if (count > MAX_ESCAPED_RECORDS) {
+                throw new IOException(file + " escapes values past 64 bits and holds more than " + MAX_ESCAPED_RECORDS
+                        + " records, convert it to the " + RecordFormat.BLOCK + " format to look it up");
+            } else {
+                this.offsets = new long[(int) count];
+                long offset = BinaryRecordFormat.HEADER_SIZE;
+                for (int i = 0; i < this.offsets.length; i++) {
+                    this.offsets[i] = offset;
+                    offset = nextRecord(offset);
+                }
+                LOG.info(file + " escapes values past 64 bits from record " + escaped + " on, keeping the offsets of its "
+                        + count + " records");
+            }
+            this.firstValue = this.records == 0 ? 0 : value(0);
+        }
+
+        private long field(long offset, int field) {
+            long relative = offset - BinaryRecordFormat.HEADER_SIZE;
+            return this.segments[(int) (relative / SEGMENT_BYTES)].getLong((int) (relative % SEGMENT_BYTES) + field * Long.BYTES);
+        }
+
+        /**
+         * Gets the offset of the record after the one at the specified
+         * offset, skipping its escaped bytes.
+         *
+         * @param offset The offset of a record
+         * @return The offset of the next record
+         */
+        private long nextRecord(long offset) {
+            long next = offset + this.recordSize;
+            long value = field(offset, 0);
+            if (value < 0) {
+                next += padded(-value);
+            }
+            if (this.excursions) {
+                long peak = field(offset, 2);
+                if (peak < 0) {
+                    next += padded(-peak);
+                }
+            }
+            return next;
+        }
+
+        private static long padded(long length) {
+            return (length + BinaryRecordFormat.ESCAPE_ALIGNMENT - 1) / BinaryRecordFormat.ESCAPE_ALIGNMENT
+                    * BinaryRecordFormat.ESCAPE_ALIGNMENT;
+        }
+
+        private long offset(long record) {
+            return this.offsets == null ? BinaryRecordFormat.HEADER_SIZE + record * this.recordSize : this.offsets[(int) record];
+        }
+
+        /**
+         * Gets the initial value field of a record.
+         *
+         * @param record The index of the record
+         * @return The initial value, or a negative escape for a value past
+         * 64 bits
+         */
+        private long value(long record) {
+            return field(offset(record), 0);
+        }
+
+        private long iterations(long record) {
+            return field(offset(record), 1);
+        }
+
+        /**
+         * Finds the record of a number.
+         *
+         * @param number The initial value
+         * @return The index of the record, or -1 if there is none
+         */
+        private long find(long number) {
+            if (this.records == 0) {
+                return -1;
+            }
+            long slot = number - this.firstValue;
+            if (this.firstValue > 0 && slot >= 0 && slot < this.records && value(slot) == number) {
+                return slot;
+            }
+            long low = 0, high = this.records - 1;
+            while (low <= high) {
+                long middle = (low + high) >>> 1;
+                long value = value(middle);
+                if (value >= 0 && value < number) {
+                    low = middle + 1;
+                } else if (value < 0 || value > number) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        long lookup(long number) {
+            long record = find(number);
+            return record < 0 ? -1 : iterations(record);
+        }
+
+        @Override
+        int lookup(long from, long to, long[] iterations, int offset) {
+            int found = 0;
+            long record = -1;
+            for (long number = from; number <= to && number >= from; number++) {
+                record = record >= 0 && record + 1 < this.records && value(record + 1) == number ? record + 1 : find(number);
+                if (record >= 0) {
+                    iterations[offset + (int) (number - from)] = iterations(record);
+                    found++;
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * A {@link RecordFormat#BLOCK} or {@link RecordFormat#DEFLATED_BLOCK}
+     * file. The block of a number is found by a binary search over the bases
+     * of the index, and only that block is decoded. Deflated blocks are
+     * inflated into a buffer of the looking up thread, the others are decoded
+     * straight from the mapping. Blocks whose base is past 64 bits are left
+     * out.
+     */
+    @Immutable
+    static final class BlockShard extends MappedShard {
+
+        private static final ThreadLocal<Cursor> CURSOR = ThreadLocal.withInitial(Cursor::new);
+        private final MappedByteBuffer[] segments;
+        private final long[] bases;
+        private final int[] segmentOf, positionOf;
+
+        BlockShard(@NotNull Path file) throws IOException {
+            try (BlockRecordReader reader = new BlockRecordReader(file);
+                    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                int blocks = 0;
+                for (int i = 0; i < reader.getBlockCount(); i++) {
+                    if (reader.isBlockBaseLong(i)) {
+                        blocks++;
+                    }
+                }
+                this.bases = new long[blocks];
+                long[] offsets = new long[blocks];
+                for (int i = 0, block = 0; i < reader.getBlockCount(); i++) {
+                    if (reader.isBlockBaseLong(i)) {
+                        this.bases[block] = reader.getBlockBase(i);
+                        offsets[block++] = reader.getBlockOffset(i);
+                    }
+                }
+                long[] starts = segmentStarts(offsets, reader.getBlocksEnd());
+                this.segments = new MappedByteBuffer[starts.length];
+                for (int i = 0; i < starts.length; i++) {
+                    long end = i + 1 < starts.length ? starts[i + 1] : reader.getBlocksEnd();
+                    this.segments[i] = map(channel, starts[i], end - starts[i]);
+                }
+                this.segmentOf = new int[blocks];
+                this.positionOf = new int[blocks];
+                for (int i = 0; i < blocks; i++) {
+                    int segment = Arrays.binarySearch(starts, offsets[i]);
+                    segment = segment >= 0 ? segment : -segment - 2;
+                    this.segmentOf[i] = segment;
+                    this.positionOf[i] = (int) (offsets[i] - starts[segment]);
+                }
+            }
+        }
+
+        /**
+         * Splits the blocks into segments that start at a block and hold whole
+         * blocks.
+         *
+         * @param offsets The offsets of the blocks, in any order
+         * @param end The end of the last block
+         * @return The start of every segment, ascending
+         */
+        private static long[] segmentStarts(long[] offsets, long end) {
+            long[] sorted = offsets.clone();
+            Arrays.sort(sorted);
+            long[] starts = new long[1];
+            int segments = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                long blockEnd = i + 1 < sorted.length ? sorted[i + 1] : end;
+                if (segments == 0 || blockEnd - starts[segments - 1] > SEGMENT_BYTES) {
+                    if (segments == starts.length) {
+                        starts = Arrays.copyOf(starts, segments * 2);
+                    }
+                    starts[segments++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf(starts, segments);
+        }
+
+        /**
+         * Finds the block that would hold a number.
+         *
+         * @param number The initial value
+         * @return The block with the largest base not above the number, or -1
+         */
+        private int find(long number) {
+            int block = Arrays.binarySearch(this.bases, number);
+            return block >= 0 ? block : -block - 2;
+        }
+
+        @Override
+        long lookup(long number) {
+            int block = find(number);
+            if (block < 0) {
+                return -1;
+            }
+            long[] single = CURSOR.get().single;
+            single[0] = -1;
+            scan(block, number, number, single, 0);
+            return single[0];
+        }
+
+        @Override
+        int lookup(long from, long to, long[] iterations, int offset) {
+            int found = 0;
+            for (int block = Math.max(0, find(from)); block < this.bases.length && this.bases[block] <= to; block++) {
+                found += scan(block, from, to, iterations, offset);
+            }
+            return found;
+        }
+
+        /**
+         * Decodes a block and stores the stopping times of its numbers in the
+         * specified range.
+         *
+         * @param block The block
+         * @param from The first number
+         * @param to The last number, inclusive
+         * @param iterations The array the stopping times are stored in
+         * @param offset The index of the first number in the array
+         * @return The number of stopping times found
+         */
+        private int scan(int block, long from, long to, long[] iterations, int offset) {
+            Cursor cursor = CURSOR.get();
+            MappedByteBuffer segment = this.segments[this.segmentOf[block]];
+            int position = this.positionOf[block];
+            int count = segment.getInt(position + Integer.BYTES);
+            int blockFlags = segment.get(position + 2 * Integer.BYTES);
+            int payload = position + 2 * Integer.BYTES + 1 + Short.BYTES + (segment.getShort(position + 2 * Integer.BYTES + 1) & 0xFFFF);
+            long base = this.bases[block];
+            boolean consecutive = (blockFlags & BlockRecordFormat.BLOCK_CONSECUTIVE) != 0;
+            if (consecutive && (from - base >= count || to < base)) {
+                return 0;
+            }
+            if ((blockFlags & BlockRecordFormat.BLOCK_DEFLATED) != 0) {
+                int end = position + Integer.BYTES + segment.getInt(position);
+                cursor.inflate(segment, payload + Integer.BYTES, end, segment.getInt(payload));
+            } else {
+                cursor.buffer = segment;
+                cursor.position = payload;
+            }
+            long[] gaps = cursor.offsets;
+            if (!consecutive) {
+                gaps[0] = 0;
+                for (int i = 1; i < count; i++) {
+                    gaps[i] = gaps[i - 1] + cursor.readVarLong() + 1;
+                }
+            }
+            int found = 0;
+            long previous = 0;
+            for (int i = 0; i < count; i++) {
+                long zigzag = cursor.readVarLong();
+                previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                long number = base + (consecutive ? i : gaps[i]);
+                if (number > to) {
+                    break;
+                } else if (number >= from) {
+                    iterations[offset + (int) (number - from)] = previous;
+                    found++;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * The decoding state of one thread.
+         */
+        @NotThreadSafe
+        private static final class Cursor {
+
+            private final long[] single = new long[1];
+            private final long[] offsets = new long[BlockRecordFormat.MAX_BLOCK_RECORDS];
+            private final Inflater inflater = new Inflater();
+            private byte[] compressed = new byte[1 << 16];
+            private byte[] raw = new byte[1 << 16];
+            private ByteBuffer rawBuffer = ByteBuffer.wrap(this.raw);
+            private ByteBuffer buffer;
+            private int position;
+
+            long readVarLong() {
+                long value = 0;
+                for (int shift = 0;; shift += 7) {
+                    byte next = this.buffer.get(this.position++);
+                    value |= (long) (next & 0x7F) << shift;
+                    if (next >= 0) {
+                        return value;
+                    }
+                }
+            }
+
+            void inflate(ByteBuffer segment, int start, int end, int rawLength) {
+                if (this.compressed.length < end - start) {
+                    this.compressed = new byte[end - start];
+                }
+                if (this.raw.length < rawLength) {
+                    this.raw = new byte[rawLength];
+                    this.rawBuffer = ByteBuffer.wrap(this.raw);
+                }
+                for (int i = start; i < end; i++) {
+                    this.compressed[i - start] = segment.get(i);
+                }
+                this.inflater.reset();
+                this.inflater.setInput(this.compressed, 0, end - start);
+                try {
+                    this.inflater.inflate(this.raw, 0, rawLength);
+                } catch (DataFormatException ex) {
+                    throw new IllegalStateException("A block can't be inflated", ex);
+                }
+                this.buffer = this.rawBuffer;
+                this.position = 0;
+            }
+        }
+    }
+}
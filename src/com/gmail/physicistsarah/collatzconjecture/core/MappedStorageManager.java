@@ -0,0 +1,202 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A {@link ResultStorage} that lets every worker write its own records
+ * straight into a memory mapped output file. Each worker encodes a batch into
+ * a thread local buffer, claims a region of the file by advancing an atomic
+ * cursor and copies the bytes into the mapping, so there is no queue and no
+ * writer thread. The file is mapped in segments of {@value #SEGMENT_SIZE}
+ * bytes as it grows, and truncated to the bytes actually written on shutdown.
+ * <p>
+ * Records land in the file in the order their regions were claimed. The
+ * format's encoder is shared between the workers, so it must not keep state
+ * between records.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@ThreadSafe
+final class MappedStorageManager implements ResultStorage {
+
+    /**
+     * The size of each mapped segment of the file. Currently this value is 64
+     * MB.
+     */
+    static final int SEGMENT_SIZE = 1 << 26;
+
+    private static final Logger LOG = Logger.getLogger(MappedStorageManager.class.getName());
+
+    private final FileChannel channel;
+    private final RecordEncoder encoder;
+    private final long byteLimit;
+    private final long headerSize;
+    private final HubMetrics metrics;
+    private final AtomicLong cursor = new AtomicLong();
+    private volatile boolean full;
+    private final ThreadLocal<RecordBuffer> buffers;
+    @GuardedBy("this")
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /**
+     * Constructs a new {@link MappedStorageManager}, truncating the file if it
+     * already exists.
+     *
+     * @param file The output file
+     * @param encoder The encoder of the output format
+     * @param byteLimit The maximum number of bytes, excluding the footer
+     * @param metrics The metrics the writes are recorded into
+     * @param bufferSize The initial size of the encode buffer of each worker,
+     * in bytes
+     * @throws IOException If an IOException occurred
+     */
+    MappedStorageManager(@NotNull Path file, @NotNull RecordEncoder encoder, long byteLimit, @NotNull HubMetrics metrics,
+            int bufferSize) throws IOException {
+        this.buffers = ThreadLocal.withInitial(() -> new RecordBuffer(bufferSize));
+        this.channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        this.encoder = encoder;
+        this.byteLimit = byteLimit;
+        this.metrics = metrics;
+        RecordBuffer buffer = this.buffers.get();
+        buffer.clear();
+        this.encoder.encodeHeader(buffer);
+        write(buffer, this.cursor.getAndAdd(buffer.position()));
+        this.headerSize = buffer.position();
+    }
+
+    /**
+     * Encodes the batch, claims a region for as many of its records as fit
+     * into the byte limit and copies them into the mapping.
+     *
+     * @param batch The results to save
+     * @throws IOException If a segment couldn't be mapped
+     */
+    @Override
+    public void saveBatch(ResultBatch batch) throws IOException {
+        if (this.full) {
+            return;
+        }
+        long started = System.nanoTime();
+        RecordBuffer buffer = this.buffers.get();
+        buffer.clear();
+        for (int i = 0; i < batch.size(); i++) {
+            this.encoder.encode(batch, i, buffer);
+            buffer.markRecord();
+        }
+        long offset;
+        int records;
+        do {
+            offset = this.cursor.get();
+            records = buffer.fittingRecords(this.byteLimit - offset, offset == this.headerSize);
+        } while (!this.cursor.compareAndSet(offset, offset + buffer.lengthOf(records)));
+        if (records < buffer.records()) {
+            this.full = true;
+        }
+        buffer.truncateToRecords(records);
+        write(buffer, offset);
+        this.metrics.recordWrite(1, System.nanoTime() - started, buffer.position());
+    }
+
+    /**
+     * Copies the contents of the buffer into the mapping at the specified
+     * offset.
+     *
+     * @param buffer The encoded bytes
+     * @param offset The offset of the claimed region
+     * @throws IOException If a segment couldn't be mapped
+     */
+    private void write(RecordBuffer buffer, long offset) throws IOException {
+        int length = buffer.position();
+        for (int written = 0; written < length;) {
+            long position = offset + written;
+            ByteBuffer view = segment((int) (position / SEGMENT_SIZE)).duplicate();
+            view.position((int) (position % SEGMENT_SIZE));
+            int chunk = Math.min(length - written, view.remaining());
+            view.put(buffer.array(), written, chunk);
+            written += chunk;
+        }
+    }
+
+    /**
+     * Gets the mapping of the specified segment, mapping it and growing the
+     * file if needed.
+     *
+     * @param index The index of the segment
+     * @return The mapping
+     * @throws IOException If the segment couldn't be mapped
+     */
+    private MappedByteBuffer segment(int index) throws IOException {
+        MappedByteBuffer[] current = this.segments;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        synchronized (this) {
+            current = this.segments;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+            }
+            if (current[index] == null) {
+                current[index] = this.channel.map(FileChannel.MapMode.READ_WRITE, (long) index * SEGMENT_SIZE, SEGMENT_SIZE);
+            }
+            this.segments = current;
+            return current[index];
+        }
+    }
+
+    /**
+     * Writes the footer, flushes the mappings and truncates the file to the
+     * bytes actually written. Must only be called once every worker has
+     * finished.
+     *
+     * @throws IOException If an IOException occurred
+     */
+    @Override
+    public void shutdown() throws IOException {
+        RecordBuffer buffer = this.buffers.get();
+        buffer.clear();
+        this.encoder.encodeFooter(buffer);
+        write(buffer, this.cursor.getAndAdd(buffer.position()));
+        synchronized (this) {
+            for (MappedByteBuffer segment : this.segments) {
+                if (segment != null) {
+                    segment.force();
+                }
+            }
+            this.segments = new MappedByteBuffer[0];
+        }
+        try {
+            this.channel.truncate(this.cursor.get());
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, "The output file couldn't be truncated to " + this.cursor.get() + " bytes", ex);
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    @Override
+    public long bytesCommitted() {
+        return this.cursor.get();
+    }
+
+    @Override
+    public boolean isFull() {
+        return this.full;
+    }
+}
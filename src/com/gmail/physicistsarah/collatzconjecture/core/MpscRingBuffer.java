@@ -0,0 +1,188 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A bounded, lock free ring buffer for many producers and a single consumer.
+ * Producers claim a slot by advancing the tail with a compare and set, then
+ * publish their element into it. The consumer takes every published element
+ * in one pass and frees the slots by advancing the head once.
+ * <p>
+ * Instead of a poison element the buffer is closed: closing freezes the tail,
+ * so no element can be claimed afterwards, and the consumer keeps draining
+ * until it has taken every element claimed before. No element offered
+ * successfully is ever lost.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ * @param <E> The type of the elements
+ */
+@ThreadSafe
+final class MpscRingBuffer<E> {
+
+    /**
+     * The bit of the tail marking the buffer as closed.
+     */
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    /**
+     * The number of slots ever claimed, and the {@link #CLOSED} bit.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * The number of elements ever taken. Only written by the consumer.
+     */
+    private volatile long head;
+    private volatile Thread parkedConsumer;
+
+    /**
+     * Constructs a new {@link MpscRingBuffer}.
+     *
+     * @param capacity The number of slots, rounded up to a power of two
+     * @param waitStrategy How the producers and the consumer wait
+     */
+    MpscRingBuffer(int capacity, @NotNull WaitStrategy waitStrategy) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("The capacity must be between 1 and 2^30");
+        }
+        int slotCount = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        this.mask = slotCount - 1;
+        this.waitStrategy = Objects.requireNonNull(waitStrategy, "The wait strategy can't be null");
+    }
+
+    /**
+     * Publishes an element if a slot is free.
+     *
+     * @param element The element
+     * @return Whether the element was published
+     * @throws IllegalStateException If the buffer is closed
+     */
+    boolean offer(@NotNull E element) {
+        Objects.requireNonNull(element, "The element can't be null");
+        while (true) {
+            long claimed = this.tail.get();
+            if ((claimed & CLOSED) != 0) {
+                throw new IllegalStateException("The ring buffer is closed");
+            } else if (claimed - this.head > this.mask) {
+                return false;
+            } else if (this.tail.compareAndSet(claimed, claimed + 1)) {
+                this.slots.set((int) claimed & this.mask, element);
+                Thread consumer = this.parkedConsumer;
+                if (consumer != null) {
+                    LockSupport.unpark(consumer);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Publishes an element, waiting for a free slot.
+     *
+     * @param element The element
+     * @throws InterruptedException If interrupted while waiting
+     * @throws IllegalStateException If the buffer is closed
+     */
+    void put(@NotNull E element) throws InterruptedException {
+        for (int round = 0; !offer(element); round++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            this.waitStrategy.idle(round);
+        }
+    }
+
+    /**
+     * Waits until an element can be taken, or the buffer is closed and every
+     * element has been taken. Only called by the consumer.
+     *
+     * @return Whether an element can be taken, false once the buffer is
+     * closed and drained
+     * @throws InterruptedException If interrupted while waiting
+     */
+    boolean awaitAvailable() throws InterruptedException {
+        for (int round = 0;; round++) {
+            long taken = this.head;
+            if (this.slots.get((int) taken & this.mask) != null) {
+                return true;
+            }
+            long claimed = this.tail.get();
+            if ((claimed & CLOSED) != 0 && (claimed & ~CLOSED) == taken) {
+                return false;
+            } else if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (this.waitStrategy.parksConsumer()) {
+                // The check is repeated after announcing the park, so that a
+                // producer publishing in between either is seen or unparks us.
+                this.parkedConsumer = Thread.currentThread();
+                if (this.slots.get((int) taken & this.mask) == null && this.tail.get() == claimed) {
+                    LockSupport.park(this);
+                }
+                this.parkedConsumer = null;
+            } else {
+                this.waitStrategy.idle(round);
+            }
+        }
+    }
+
+    /**
+     * Takes every published element, in the order the slots were claimed.
+     * Only called by the consumer.
+     *
+     * @param sink The collection the elements are added to
+     * @return The number of elements taken
+     */
+    int drainTo(@NotNull Collection<? super E> sink) {
+        long taken = this.head;
+        int count = 0;
+        for (E element = this.slots.get((int) taken & this.mask); element != null;
+                element = this.slots.get((int) taken & this.mask)) {
+            this.slots.lazySet((int) taken & this.mask, null);
+            sink.add(element);
+            taken++;
+            count++;
+        }
+        this.head = taken;
+        return count;
+    }
+
+    /**
+     * Closes the buffer. Later offers fail, and the consumer stops once it has
+     * taken every element published before.
+     */
+    void close() {
+        long claimed;
+        do {
+            claimed = this.tail.get();
+        } while ((claimed & CLOSED) == 0 && !this.tail.compareAndSet(claimed, claimed | CLOSED));
+        Thread consumer = this.parkedConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * A getter for the number of claimed slots that haven't been taken.
+     *
+     * @return The number of elements in the buffer
+     */
+    int size() {
+        long claimed = this.tail.get() & ~CLOSED;
+        return (int) Math.max(0, claimed - this.head);
+    }
+}
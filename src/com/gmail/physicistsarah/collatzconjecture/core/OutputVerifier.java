@@ -0,0 +1,627 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Verifies an existing output file of any {@link RecordFormat} without
+ * running the sweep again. The file is split into chunks of about
+ * {@link #DEFAULT_CHUNK_BYTES} bytes that are read by the worker threads in
+ * parallel, and every record is computed again. Records whose iteration
+ * count, or maximum excursion, differs are reported as mismatches, initial
+ * values found more than once as duplicates, numbers missing between
+ * the first and the last initial value as gaps, and records that were cut
+ * off with the file or can't be parsed as malformed. A malformed record
+ * ends its chunk, but not the verification.
+ * <p>
+ * Only a bounded number of chunks is read at a time, and the initial values
+ * seen so far are kept as disjoint ranges, so the memory doesn't grow with
+ * the file but with the number of gaps. Output of record finding runs or
+ * sieved runs has gaps by design.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@Immutable
+public final class OutputVerifier {
+
+    private static final Logger LOG = Logger.getLogger(OutputVerifier.class.getName());
+
+    /**
+     * The size of the chunks read by the worker threads, in bytes.
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 24;
+
+    /**
+     * The largest number of mismatches and gaps listed in a report. All of
+     * them are counted.
+     */
+    public static final int MAX_LISTED_PROBLEMS = 20;
+
+    /**
+     * Verifies an output file and prints the report. The exit status is 1 if
+     * any problem was found.
+     *
+     * @param args The output file and, optionally, the number of threads
+     * @throws IOException If the file couldn't be read
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: OutputVerifier <output file> [threads]");
+            System.exit(2);
+        }
+        Report report = new OutputVerifier(args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors(),
+                DEFAULT_CHUNK_BYTES).verify(Paths.get(args[0]));
+        System.out.println(report);
+        System.exit(report.isClean() ? 0 : 1);
+    }
+
+    private final int threads;
+    private final int chunkBytes;
+
+    /**
+     * Constructs a new {@link OutputVerifier}.
+     *
+     * @param threads The number of worker threads
+     * @param chunkBytes The size of the chunks, in bytes
+     */
+    public OutputVerifier(int threads, int chunkBytes) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed");
+        } else if (chunkBytes < 1 << 10) {
+            throw new IllegalArgumentException("The chunks must be at least a KiB");
+        }
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Verifies an output file.
+     *
+     * @param file The file
+     * @return The report
+     * @throws IOException If the file couldn't be read
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public Report verify(@NotNull Path file) throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        Report report;
+        try (ChunkPlan chunks = planChunks(file)) {
+            report = verify(chunks);
+        } catch (BinaryRecordReader.EscapedValueException ex) {
+            LOG.info(file + " holds escaped values, verifying it in one chunk");
+            report = verify(Collections.<Callable<ChunkResult>>singletonList(() -> verifyChunk(new BinaryRecordReader(file), 0)).iterator());
+        }
+        report.finish(System.nanoTime() - started);
+        LOG.info("Verified " + file + ": " + report.getRecords() + " records in " + report.getElapsedMillis() + " ms");
+        return report;
+    }
+
+    /**
+     * Verifies the specified chunks, with a bounded number of them in flight.
+     *
+     * @param chunks The chunks
+     * @return The unfinished report
+     * @throws IOException If a chunk couldn't be read
+     * @throws InterruptedException If interrupted while waiting
+     */
+    private Report verify(Iterator<Callable<ChunkResult>> chunks) throws IOException, InterruptedException {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads, (Runnable r) -> {
+            Thread thread = new Thread(r, "Output Verifier Thread " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Report report = new Report();
+        try {
+            CompletionService<ChunkResult> completion = new ExecutorCompletionService<>(executor);
+            int inFlight = 0;
+            while (chunks.hasNext() || inFlight > 0) {
+                while (chunks.hasNext() && inFlight < 2 * this.threads) {
+                    completion.submit(chunks.next());
+                    inFlight++;
+                }
+                report.merge(completion.take().get());
+                inFlight--;
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IllegalStateException("A chunk couldn't be verified", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return report;
+    }
+
+    /**
+     * The chunks of a file, planned lazily so that a huge file doesn't need a
+     * huge plan. A plan may hold the file open, so it is closed once the
+     * verification ends, whether or not every chunk was planned.
+     */
+    private static interface ChunkPlan extends Iterator<Callable<ChunkResult>>, Closeable {
+
+        @Override
+        public default void close() throws IOException {
+        }
+    }
+
+    /**
+     * Splits a file into chunks.
+     *
+     * @param file The file
+     * @return The chunks
+     * @throws IOException If the file couldn't be read
+     */
+    private ChunkPlan planChunks(Path file) throws IOException {
+        long size = Files.size(file);
+        if (size < Integer.BYTES) {
+            if (size > 0) {
+                throw new IOException(file + " is too short to be an output file");
+            }
+            return new ChunkPlan() {
+                @Override
+                public boolean hasNext() {
+                    return false;
+                }
+
+                @Override
+                public Callable<ChunkResult> next() {
+                    throw new NoSuchElementException();
+                }
+            };
+        }
+        int magic;
+        try (DataInputStream stream = new DataInputStream(Files.newInputStream(file))) {
+            magic = stream.readInt();
+        }
+        if (magic == BinaryRecordFormat.MAGIC) {
+            return planBinaryChunks(file, size);
+        } else if (magic == BlockRecordFormat.MAGIC) {
+            return planBlockChunks(file);
+        }
+        return new ChunkPlan() {
+            private long start;
+
+            @Override
+            public boolean hasNext() {
+                return this.start < size;
+            }
+
+            @Override
+            public Callable<ChunkResult> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long from = this.start, to = Math.min(size, from + chunkBytes);
+                this.start = to;
+                return () -> verifyChunk(new TextRecordReader(file, from, to), from);
+            }
+        };
+    }
+
+    private ChunkPlan planBinaryChunks(Path file, long size) throws IOException {
+        int recordSize;
+        try (DataInputStream stream = new DataInputStream(Files.newInputStream(file))) {
+            stream.skipBytes(Integer.BYTES + Short.BYTES);
+            recordSize = BinaryRecordFormat.getRecordSize(stream.readUnsignedShort());
+        }
+        long records = (size - BinaryRecordFormat.HEADER_SIZE + recordSize - 1) / recordSize;
+        long recordsPerChunk = Math.max(1, this.chunkBytes / recordSize);
+        return new ChunkPlan() {
+            private long first;
+
+            @Override
+            public boolean hasNext() {
+                return this.first < records;
+            }
+
+            @Override
+            public Callable<ChunkResult> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long from = this.first;
+                this.first += recordsPerChunk;
+                return () -> verifyChunk(new BinaryRecordReader(file, from, recordsPerChunk), from * recordSize);
+            }
+        };
+    }
+
+    private ChunkPlan planBlockChunks(Path file) throws IOException {
+        long end, tornOffset;
+        try (BlockRecordReader reader = new BlockRecordReader(file)) {
+            tornOffset = reader.getTornOffset();
+            end = tornOffset >= 0 ? tornOffset : reader.getBlocksEnd();
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        return new ChunkPlan() {
+            private long start = BlockRecordFormat.HEADER_SIZE;
+            private boolean tornReported = tornOffset < 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.start < end || !this.tornReported;
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+
+            @Override
+            public Callable<ChunkResult> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                } else if (this.start >= end) {
+                    this.tornReported = true;
+                    return () -> {
+                        ChunkResult result = new ChunkResult();
+                        result.malformed(tornOffset, "The file ends inside the block or the index at " + tornOffset);
+                        return result;
+                    };
+                }
+                long from = this.start, to = from;
+                try {
+                    while (to < end && to - from < chunkBytes) {
+                        length.clear();
+                        while (length.hasRemaining() && channel.read(length, to + length.position()) >= 0) {
+                        }
+                        if (length.hasRemaining()) {
+                            break;
+                        }
+                        to += Integer.BYTES + length.getInt(0);
+                    }
+                } catch (IOException ex) {
+                    to = end;
+                }
+                long chunkEnd = Math.min(Math.max(to, from + 1), end);
+                this.start = to > from ? to : end;
+                return () -> verifyChunk(new BlockRecordReader(file, from, chunkEnd), from);
+            }
+        };
+    }
+
+    /**
+     * Verifies every record of a chunk, up to the first record that was cut
+     * off or can't be parsed. Called by the worker threads.
+     *
+     * @param reader The reader of the chunk
+     * @param offset The offset of the chunk, for the report
+     * @return The result
+     * @throws IOException If the chunk couldn't be read
+     */
+    private static ChunkResult verifyChunk(RecordReader reader, long offset) throws IOException {
+        ChunkResult result = new ChunkResult();
+        TrajectoryStatistics trajectory = new TrajectoryStatistics();
+        try (RecordReader records = reader) {
+            while (records.next()) {
+                long expected;
+                BigInteger expectedPeak = null;
+                if (records.hasExcursions()) {
+                    if (records.isLong()) {
+                        trajectory.compute(records.getValue());
+                    } else {
+                        trajectory.compute(records.getInitialValue());
+                    }
+                    expected = trajectory.getIterations();
+                    expectedPeak = trajectory.isPeakLong() ? BigInteger.valueOf(trajectory.getPeak()) : trajectory.getBigPeak();
+                } else {
+                    expected = records.isLong() ? CollatzSequencer.iterations(records.getValue())
+                            : CollatzSequencer.iterations(records.getInitialValue());
+                }
+                if (expected != records.getIterations()) {
+                    result.mismatch(records.getInitialValue() + " has " + records.getIterations() + " iterations instead of " + expected);
+                } else if (expectedPeak != null && !expectedPeak.equals(records.getMaxExcursion())) {
+                    result.mismatch(records.getInitialValue() + " peaks at " + records.getMaxExcursion() + " instead of " + expectedPeak);
+                }
+                if (records.isLong()) {
+                    result.add(records.getValue());
+                } else {
+                    result.add(records.getInitialValue());
+                }
+            }
+        } catch (RecordReader.MalformedRecordException ex) {
+            result.malformed(ex.getOffset(), ex.getMessage());
+        } catch (BinaryRecordReader.EscapedValueException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new IOException("The chunk at " + offset + " couldn't be read: " + ex.getMessage(), ex);
+        }
+        result.closeRun();
+        return result;
+    }
+
+    /**
+     * The outcome of verifying one chunk: the mismatches, the runs of
+     * consecutive initial values, in the order of the file, and the record
+     * the chunk ended at if it was malformed.
+     */
+    @NotThreadSafe
+    private static final class ChunkResult {
+
+        private final List<String> mismatches = new ArrayList<>();
+        private final List<BigInteger[]> runs = new ArrayList<>();
+        private String malformed;
+        private long mismatchCount, records;
+        private boolean runOpen;
+        private long runStart, runLast;
+        private BigInteger bigRunStart, bigRunLast;
+
+        void mismatch(String description) {
+            this.mismatchCount++;
+            if (this.mismatches.size() < MAX_LISTED_PROBLEMS) {
+                this.mismatches.add(description);
+            }
+        }
+
+        void malformed(long offset, String description) {
+            this.malformed = offset + ": " + description;
+        }
+
+        void add(long value) {
+            this.records++;
+            if (this.runOpen && this.bigRunLast == null && this.runLast != Long.MAX_VALUE && value == this.runLast + 1) {
+                this.runLast = value;
+                return;
+            }
+            closeRun();
+            this.runOpen = true;
+            this.runStart = value;
+            this.runLast = value;
+        }
+
+        void add(BigInteger value) {
+            this.records++;
+            BigInteger last = !this.runOpen ? null : this.bigRunLast == null ? BigInteger.valueOf(this.runLast) : this.bigRunLast;
+            if (last != null && value.equals(last.add(BigInteger.ONE))) {
+                if (this.bigRunLast == null) {
+                    this.bigRunStart = BigInteger.valueOf(this.runStart);
+                }
+                this.bigRunLast = value;
+                return;
+            }
+            closeRun();
+            this.runOpen = true;
+            this.bigRunStart = value;
+            this.bigRunLast = value;
+        }
+
+        void closeRun() {
+            if (!this.runOpen) {
+                return;
+            }
+            this.runs.add(this.bigRunLast == null
+                    ? new BigInteger[]{BigInteger.valueOf(this.runStart), BigInteger.valueOf(this.runLast).add(BigInteger.ONE)}
+                    : new BigInteger[]{this.bigRunStart, this.bigRunLast.add(BigInteger.ONE)});
+            this.runOpen = false;
+            this.bigRunStart = null;
+            this.bigRunLast = null;
+        }
+    }
+
+    /**
+     * The outcome of verifying a file.
+     */
+    @NotThreadSafe
+    public static final class Report {
+
+        private final TreeMap<BigInteger, BigInteger> covered = new TreeMap<>();
+        private final List<String> mismatches = new ArrayList<>();
+        private final List<String> gaps = new ArrayList<>();
+        private final List<String> malformed = new ArrayList<>();
+        private long records, mismatchCount, gapCount, malformedCount, elapsedNanos;
+        private BigInteger duplicates = BigInteger.ZERO, missing = BigInteger.ZERO;
+
+        private Report() {
+        }
+
+        void merge(ChunkResult result) {
+            this.records += result.records;
+            this.mismatchCount += result.mismatchCount;
+            for (String mismatch : result.mismatches) {
+                if (this.mismatches.size() < MAX_LISTED_PROBLEMS) {
+                    this.mismatches.add(mismatch);
+                }
+            }
+            for (BigInteger[] run : result.runs) {
+                cover(run[0], run[1]);
+            }
+            if (result.malformed != null) {
+                this.malformedCount++;
+                if (this.malformed.size() < MAX_LISTED_PROBLEMS) {
+                    this.malformed.add(result.malformed);
+                }
+            }
+        }
+
+        /**
+         * Adds a range of initial values to the covered ranges, counting the
+         * values that were already covered as duplicates.
+         *
+         * @param start The first value
+         * @param end The end of the range, exclusive
+         */
+        private void cover(BigInteger start, BigInteger end) {
+            BigInteger mergedStart = start, mergedEnd = end;
+            Map.Entry<BigInteger, BigInteger> before = this.covered.floorEntry(start);
+            if (before != null && before.getValue().compareTo(start) >= 0) {
+                this.duplicates = this.duplicates.add(before.getValue().min(end).subtract(start).max(BigInteger.ZERO));
+                mergedStart = before.getKey();
+                mergedEnd = end.max(before.getValue());
+                this.covered.remove(before.getKey());
+            }
+            for (Map.Entry<BigInteger, BigInteger> after = this.covered.ceilingEntry(start);
+                    after != null && after.getKey().compareTo(mergedEnd) <= 0; after = this.covered.ceilingEntry(start)) {
+                this.duplicates = this.duplicates.add(after.getValue().min(end).subtract(after.getKey()).max(BigInteger.ZERO));
+                mergedEnd = mergedEnd.max(after.getValue());
+                this.covered.remove(after.getKey());
+            }
+            this.covered.put(mergedStart, mergedEnd);
+        }
+
+        void finish(long nanos) {
+            this.elapsedNanos = nanos;
+            BigInteger previousEnd = null;
+            for (Map.Entry<BigInteger, BigInteger> range : this.covered.entrySet()) {
+                if (previousEnd != null) {
+                    this.gapCount++;
+                    this.missing = this.missing.add(range.getKey().subtract(previousEnd));
+                    if (this.gaps.size() < MAX_LISTED_PROBLEMS) {
+                        this.gaps.add(previousEnd + "-" + range.getKey().subtract(BigInteger.ONE));
+                    }
+                }
+                previousEnd = range.getValue();
+            }
+        }
+
+        /**
+         * A getter for the number of records verified.
+         *
+         * @return The record count
+         */
+        public long getRecords() {
+            return this.records;
+        }
+
+        /**
+         * A getter for the number of records whose stored results are wrong.
+         *
+         * @return The mismatch count
+         */
+        public long getMismatches() {
+            return this.mismatchCount;
+        }
+
+        /**
+         * A getter for the number of records whose initial value was already
+         * seen.
+         *
+         * @return The duplicate count
+         */
+        public BigInteger getDuplicates() {
+            return this.duplicates;
+        }
+
+        /**
+         * A getter for the number of records that were cut off or couldn't be
+         * parsed. Each of them ends the chunk it was found in, so the records
+         * after it in the chunk are counted as missing.
+         *
+         * @return The malformed record count
+         */
+        public long getMalformed() {
+            return this.malformedCount;
+        }
+
+        /**
+         * A getter for the number of ranges of missing initial values.
+         *
+         * @return The gap count
+         */
+        public long getGaps() {
+            return this.gapCount;
+        }
+
+        /**
+         * A getter for the number of initial values missing between the
+         * first and the last.
+         *
+         * @return The missing count
+         */
+        public BigInteger getMissing() {
+            return this.missing;
+        }
+
+        /**
+         * A getter for the smallest initial value.
+         *
+         * @return The smallest value, or null if there were no records
+         */
+        public BigInteger getFirst() {
+            return this.covered.isEmpty() ? null : this.covered.firstKey();
+        }
+
+        /**
+         * A getter for the largest initial value.
+         *
+         * @return The largest value, or null if there were no records
+         */
+        public BigInteger getLast() {
+            return this.covered.isEmpty() ? null : this.covered.lastEntry().getValue().subtract(BigInteger.ONE);
+        }
+
+        /**
+         * A getter for the time the verification took.
+         *
+         * @return The elapsed time, in milliseconds
+         */
+        public long getElapsedMillis() {
+            return this.elapsedNanos / 1_000_000;
+        }
+
+        /**
+         * Tests whether the file has no mismatches, duplicates, gaps or
+         * malformed records.
+         *
+         * @return Whether the file is clean
+         */
+        public boolean isClean() {
+            return this.mismatchCount == 0 && this.duplicates.signum() == 0 && this.gapCount == 0 && this.malformedCount == 0;
+        }
+
+        /**
+         * Lists the counts, the first mismatches, the first gaps and the
+         * first malformed records, one per line.
+         *
+         * @return The report
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("Verified ").append(this.records).append(" records from ").append(getFirst()).append(" to ").append(getLast())
+                    .append(" in ").append(getElapsedMillis()).append(" ms\n");
+            builder.append("Mismatches: ").append(this.mismatchCount).append('\n');
+            this.mismatches.forEach(mismatch -> builder.append("  ").append(mismatch).append('\n'));
+            builder.append("Duplicates: ").append(this.duplicates).append('\n');
+            builder.append("Gaps: ").append(this.gapCount).append(", missing ").append(this.missing).append(" numbers\n");
+            this.gaps.forEach(gap -> builder.append("  ").append(gap).append('\n'));
+            builder.append("Malformed records: ").append(this.malformedCount).append('\n');
+            this.malformed.forEach(record -> builder.append("  ").append(record).append('\n'));
+            return builder.toString();
+        }
+    }
+}
@@ -8,26 +8,37 @@ package com.gmail.physicistsarah.collatzconjecture.core;
 import java.io.BufferedOutputStream;
 import static java.nio.file.StandardOpenOption.*;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.validation.constraints.NotNull;
 import net.jcip.annotations.NotThreadSafe;
 
@@ -41,35 +52,88 @@ public final class ProcessingHub {
 
     private static final int AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
     private static final Logger LOG = Logger.getLogger(ProcessingHub.class.getName());
+    private static final AtomicInteger HUB_COUNT = new AtomicInteger();
 
-    private final ExecutorService service = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS, new ThreadFactory() {
-        private BigInteger count = BigInteger.ZERO;
+    private final ForkJoinPool service;
 
-        @Override
-        public Thread newThread(Runnable r) {
-            count = count.add(BigInteger.ONE);
-            return new Thread(r, "Collatz Sequencer Thread: " + count);
-        }
-    });
+    /**
+     * Bounds the number of work units waiting in the pool, so that huge ranges
+     * aren't queued all at once. Four per worker thread keep every worker
+     * busy.
+     */
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final int workerThreads;
+    private final BigInteger chunkSize;
+    private final AdaptiveChunkSizer chunkSizer;
+    private final HubMetrics metrics = new HubMetrics();
+
+    /**
+     * The first failure of a work unit or the dispatcher. Once it is set no
+     * more work units are dispatched, and {@link #hubInit()} rethrows it.
+     */
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
     private final HubControlState controlState;
-    private final HubStorageManager storageManager;
+    /**
+     * The destination of the records, null in the statistics mode, which
+     * counts into {@link #statistics} instead.
+     */
+    private final ResultStorage storageManager;
+    private final StatisticsStorage statistics;
+    private final ReorderBuffer reorderBuffer;
+    private final StoppingTimeCache cache;
+    private final CollatzJumpTable jumpTable;
+    private final HubMode mode;
+    private final long metricsLogInterval;
 
     /**
      * Constructs a new {@link ProcessingHub} with the specified maximum disk
-     * storage space. NOTE: Will be slower than the number range mode due to the
-     * need to be certain as to the size of the file on the disk.If the file
-     * size is lower than one {@link BigInteger} at least one {@link BigInteger}
-     * will be written.
+     * storage space. Every record that fits into the space is written, in the
+     * order the records are committed. If the file size is lower than one
+     * {@link BigInteger} at least one {@link BigInteger} will be written.
      *
      * @param bytes The amount of storage space, in bytes
      * @throws IOException If an IOException occurred
      */
     public ProcessingHub(long bytes) throws IOException {
+        this(bytes, HubConfiguration.defaults());
+    }
+
+    /**
+     * Constructs a new {@link ProcessingHub} with the specified maximum disk
+     * storage space and configuration.
+     *
+     * @param bytes The amount of storage space, in bytes
+     * @param configuration The configuration
+     * @throws IOException If an IOException occurred
+     */
+    public ProcessingHub(long bytes, @NotNull HubConfiguration configuration) throws IOException {
         if (bytes <= 0) {
             throw new IllegalArgumentException("The number of bytes is less than or equal to zero");
+        } else if (configuration.isResume()) {
+            throw new IllegalArgumentException("Only number range runs can be resumed");
+        } else if (configuration.getMode() != HubMode.REPORTS) {
+            throw new IllegalArgumentException("Only number range runs support the " + configuration.getMode() + " mode");
         }
+        Files.createDirectories(configuration.getOutputDirectory());
+        this.workerThreads = configuration.getWorkerThreads();
+        this.chunkSize = BigInteger.valueOf(configuration.getChunkSize());
+        this.chunkSizer = configuration.getTargetChunkMillis() == 0 ? null : new AdaptiveChunkSizer(configuration.getChunkSize(),
+                TimeUnit.MILLISECONDS.toNanos(configuration.getTargetChunkMillis()), this.workerThreads);
+        this.service = createPool(this.workerThreads);
+        this.maxInFlight = this.workerThreads * 4;
+        this.inFlight = new Semaphore(this.maxInFlight);
+        this.mode = configuration.getMode();
+        this.metricsLogInterval = configuration.getMetricsLogInterval();
+        this.cache = createCache(configuration);
+        this.jumpTable = configuration.getJumpSteps() == 0 ? null : CollatzJumpTable.forSteps(configuration.getJumpSteps());
         this.controlState = new WriteUntilSize(bytes);
-        this.storageManager = new HubStorageManager();
+        ResultStorage storage = createStorage(configuration, bytes, null, this.metrics);
+        this.reorderBuffer = configuration.getReorderWindow() == 0 ? null
+                : new ReorderBuffer(storage, BigInteger.ONE, configuration.getReorderWindow(), null);
+        this.storageManager = this.reorderBuffer == null ? storage : this.reorderBuffer;
+        this.statistics = null;
+        this.metrics.setWorkUnitsInFlightGauge(() -> this.maxInFlight - this.inFlight.availablePermits());
     }
 
     /**
@@ -80,40 +144,392 @@ public final class ProcessingHub {
      * @throws IOException If an IOExceptio occurred
      */
     public ProcessingHub(@NotNull BigInteger startingNumber, @NotNull BigInteger endingNumber) throws IOException {
+        this(startingNumber, endingNumber, HubConfiguration.defaults());
+    }
+
+    /**
+     * Constructs a new {@link ProcessingHub} with the specified bounds and
+     * configuration. If the configuration resumes the run, the numbers that
+     * the saved checkpoint already covers are skipped and the output file is
+     * appended to.
+     *
+     * @param startingNumber The starting number
+     * @param endingNumber The ending number
+     * @param configuration The configuration
+     * @throws IOException If an IOException occurred, or the checkpoint
+     * couldn't be loaded
+     */
+    public ProcessingHub(@NotNull BigInteger startingNumber, @NotNull BigInteger endingNumber,
+            @NotNull HubConfiguration configuration) throws IOException {
         if (startingNumber.compareTo(endingNumber) > 0) {
             throw new IllegalArgumentException("Starting number is larger than ending number");
         } else if (startingNumber.equals(endingNumber)) {
             throw new IllegalArgumentException("Starting number is equal to ending number");
+        } else if (startingNumber.signum() < 1) {
+            throw new IllegalArgumentException("Starting number is less than one");
+        }
+        Files.createDirectories(configuration.getOutputDirectory());
+        this.workerThreads = configuration.getWorkerThreads();
+        this.chunkSize = BigInteger.valueOf(configuration.getChunkSize());
+        this.chunkSizer = configuration.getTargetChunkMillis() == 0 ? null : new AdaptiveChunkSizer(configuration.getChunkSize(),
+                TimeUnit.MILLISECONDS.toNanos(configuration.getTargetChunkMillis()), this.workerThreads);
+        this.service = createPool(this.workerThreads);
+        this.maxInFlight = this.workerThreads * 4;
+        this.inFlight = new Semaphore(this.maxInFlight);
+        this.mode = configuration.getMode();
+        this.metricsLogInterval = configuration.getMetricsLogInterval();
+        this.cache = createCache(configuration);
+        this.jumpTable = configuration.getJumpSteps() == 0 ? null : CollatzJumpTable.forSteps(configuration.getJumpSteps());
+        HubCheckpoint checkpoint = createCheckpoint(configuration, startingNumber, endingNumber.add(BigInteger.ONE));
+        HubCheckpoint resumedFrom = checkpoint == null || !checkpoint.isResumed() ? null : checkpoint.snapshot();
+        this.controlState = new NumberRangeState(startingNumber, endingNumber,
+                configuration.getSieveBits() == 0 ? null : ResidueSieve.forBits(configuration.getSieveBits()), resumedFrom,
+                HubNumericalHelper.getChunkSize(startingNumber, endingNumber.add(BigInteger.ONE), this.chunkSize, this.workerThreads));
+        this.statistics = this.mode != HubMode.STATISTICS ? null
+                : new StatisticsStorage(configuration.getOutputDirectory().resolve(HubStorageManager.STATISTICS_FILE_NAME),
+                        startingNumber, endingNumber);
+        if (this.mode == HubMode.STATISTICS) {
+            this.reorderBuffer = null;
+            this.storageManager = null;
+        } else if (this.mode == HubMode.RECORDS) {
+            this.reorderBuffer = null;
+            this.storageManager = new RecordFinder(createStorage(configuration, Long.MAX_VALUE, checkpoint, this.metrics), startingNumber);
+        } else if (configuration.getReorderWindow() != 0) {
+            this.reorderBuffer = new ReorderBuffer(createStorage(configuration, Long.MAX_VALUE, checkpoint, this.metrics), startingNumber,
+                    configuration.getReorderWindow(), resumedFrom);
+            this.storageManager = this.reorderBuffer;
+        } else {
+            this.reorderBuffer = null;
+            this.storageManager = createStorage(configuration, Long.MAX_VALUE, checkpoint, this.metrics);
+        }
+        this.metrics.setWorkUnitsInFlightGauge(() -> this.maxInFlight - this.inFlight.availablePermits());
+    }
+
+    /**
+     * Creates the pool of the worker threads.
+     *
+     * @param threads The number of worker threads
+     * @return The pool
+     */
+    private static ForkJoinPool createPool(int threads) {
+        return new ForkJoinPool(threads, (ForkJoinPool pool) -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("Collatz Sequencer Thread: " + (thread.getPoolIndex() + 1));
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Creates the storage for the specified configuration.
+     *
+     * @param configuration The configuration
+     * @param byteLimit The maximum number of bytes to store
+     * @param checkpoint The checkpoint kept by the writer thread, or null
+     * @param metrics The metrics the storage records its writes into
+     * @return The storage
+     * @throws IOException If the output file couldn't be created
+     */
+    private static ResultStorage createStorage(HubConfiguration configuration, long byteLimit, HubCheckpoint checkpoint,
+            HubMetrics metrics) throws IOException {
+        RecordEncoder encoder = configuration.getOutputFormat().newEncoder(configuration.getMode() == HubMode.RECORDS);
+        Path outputFile = getOutputFile(configuration);
+        if (configuration.isMappedOutput()) {
+            return new MappedStorageManager(outputFile, encoder, byteLimit, metrics, configuration.getWriterBufferSize());
         }
-        this.controlState = new NumberRangeState(startingNumber, endingNumber);
-        this.storageManager = new HubStorageManager();
+        return new HubStorageManager(outputFile, encoder, byteLimit, checkpoint, metrics, configuration.getWriterWaitStrategy(),
+                configuration.getWriterBufferSize());
+    }
+
+    /**
+     * Gets the output file written by a hub with the specified configuration
+     * in the report mode.
+     *
+     * @param configuration The configuration
+     * @return The output file
+     */
+    static Path getOutputFile(@NotNull HubConfiguration configuration) {
+        return getOutputFile(configuration.getOutputDirectory());
+    }
+
+    /**
+     * Gets the output file written by a hub into the specified output
+     * directory in the report mode.
+     *
+     * @param outputDirectory The output directory
+     * @return The output file
+     */
+    static Path getOutputFile(@NotNull Path outputDirectory) {
+        return outputDirectory.resolve(HubStorageManager.OUTPUT_FILE_NAME);
     }
 
     /**
-     * Creates and launches tasks for each number between the number range
-     * specified.
+     * Creates or loads the checkpoint of a number range run.
+     *
+     * @param configuration The configuration
+     * @param startingNumber The first number of the run
+     * @param endingNumber The last number of the run, exclusive
+     * @return The checkpoint, or null if checkpoints are disabled
+     * @throws IOException If the saved checkpoint couldn't be loaded
+     */
+    private static HubCheckpoint createCheckpoint(HubConfiguration configuration, BigInteger startingNumber,
+            BigInteger endingNumber) throws IOException {
+        Path file = configuration.getOutputDirectory().resolve(HubStorageManager.CHECKPOINT_FILE_NAME);
+        if (!configuration.isCheckpointed()) {
+            return null;
+        } else if (configuration.isResume()) {
+            return HubCheckpoint.load(file, startingNumber, endingNumber,
+                    configuration.getOutputFormat(), configuration.getSieveBits(), configuration.getCheckpointInterval());
+        }
+        return new HubCheckpoint(file, startingNumber, endingNumber,
+                configuration.getOutputFormat(), configuration.getSieveBits(), configuration.getCheckpointInterval());
+    }
+
+    /**
+     * Creates the shared stopping time cache for the specified configuration.
+     *
+     * @param configuration The configuration
+     * @return The cache, or null if it is disabled or the mode has no use for
+     * it
+     */
+    private static StoppingTimeCache createCache(HubConfiguration configuration) {
+        if (configuration.getCacheCapacity() == 0 || configuration.getMode() != HubMode.REPORTS) {
+            return null;
+        }
+        return new StoppingTimeCache(configuration.getCacheCapacity());
+    }
+
+    /**
+     * Creates and launches a work unit for the numbers between the number
+     * range specified.
      *
      * @param startNumber The first number
-     * @param finishNumber The final number
+     * @param finishNumber The final number, exclusive
      */
     private void createTask(@NotNull BigInteger startNumber, @NotNull BigInteger finishNumber) {
+        createTask(startNumber, finishNumber, null);
+    }
+
+    /**
+     * Creates and launches a work unit for the numbers between the number
+     * range specified that survive the sieve. Blocks while too many work
+     * units are waiting, or the reorder window of an ordered output is full.
+     *
+     * @param startNumber The first number
+     * @param finishNumber The final number, exclusive
+     * @param sieve The sieve, or null to compute every number
+     */
+    private void createTask(@NotNull BigInteger startNumber, @NotNull BigInteger finishNumber, ResidueSieve sieve) {
         if (finishNumber.subtract(startNumber).compareTo(BigInteger.ZERO) < 0) {
             throw new IllegalArgumentException("The starting number is larger than the final number.");
-        } else if (startNumber.compareTo(BigInteger.ZERO) < 0) {
-            throw new IllegalArgumentException("The starting number is less than zero");
+        } else if (startNumber.compareTo(BigInteger.ZERO) <= 0) {
+            throw new IllegalArgumentException("The starting number is less than one");
         }
-        for (BigInteger i = startNumber; i.compareTo(finishNumber) < 0; i = i.add(BigInteger.ONE)) {
-            final BigInteger copy = i;
-            this.service.submit(() -> {
-                try {
-                    this.storageManager.saveValue(new CollatzSequencer(copy, true).init());
-                } catch (IOException ex) {
-                    Logger.getLogger(ProcessingHub.class.getName()).log(Level.SEVERE, null, ex);
-                } catch (InterruptedException ex) {
-                    Logger.getLogger(ProcessingHub.class.getName()).log(Level.SEVERE, null, ex);
+        try {
+            if (this.reorderBuffer != null) {
+                this.reorderBuffer.awaitWindow();
+            }
+            this.inFlight.acquire();
+        } catch (InterruptedException ex) {
+            fail(ex);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long size = finishNumber.subtract(startNumber).longValue();
+        this.metrics.recordDispatched(startNumber, size);
+        this.service.execute(() -> {
+            try {
+                long started = System.nanoTime();
+                ResultBatch batch = null;
+                switch (this.mode) {
+                    case STATISTICS:
+                        computeStatistics(startNumber, finishNumber);
+                        break;
+                    case RECORDS:
+                        batch = computeRecordCandidates(startNumber, finishNumber);
+                        break;
+                    default:
+                        batch = computeRange(startNumber, finishNumber, sieve);
                 }
-            });
+                long nanos = System.nanoTime() - started;
+                this.metrics.recordChunk(nanos);
+                if (this.chunkSizer != null) {
+                    this.chunkSizer.recordChunk(size, nanos);
+                }
+                if (batch != null) {
+                    this.storageManager.saveBatch(batch);
+                }
+            } catch (InterruptedException ex) {
+                fail(ex);
+                Thread.currentThread().interrupt();
+            } catch (Throwable ex) {
+                fail(ex);
+            } finally {
+                this.inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Records the failure of a work unit or the dispatcher. The batch of a
+     * failed work unit never arrives, so the reorder window is aborted to let
+     * the dispatcher see the failure and stop.
+     *
+     * @param ex The failure
+     */
+    private void fail(Throwable ex) {
+        if (this.failure.compareAndSet(null, ex)) {
+            LOG.log(Level.SEVERE, "The run failed, no more work units are dispatched", ex);
+        } else {
+            LOG.log(Level.FINE, "Another work unit failed", ex);
+        }
+        if (this.reorderBuffer != null) {
+            this.reorderBuffer.abort();
+        }
+    }
+
+    /**
+     * Tests whether a work unit or the dispatcher has failed.
+     *
+     * @return Whether the run has failed
+     */
+    private boolean isFailed() {
+        return this.failure.get() != null;
+    }
+
+    /**
+     * Rethrows the failure of the run, if there was one.
+     *
+     * @throws IOException If the run failed with a checked exception, which
+     * is its cause
+     */
+    private void rethrowFailure() throws IOException {
+        Throwable ex = this.failure.get();
+        if (ex == null) {
+            return;
+        } else if (ex instanceof RuntimeException) {
+            throw (RuntimeException) ex;
+        } else if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        throw new IOException("The run failed", ex);
+    }
+
+    /**
+     * Gets the size of the next work unit, chosen by the adaptive chunk sizer
+     * if the hub has one.
+     *
+     * @param fixedSize The size used without an adaptive chunk sizer
+     * @param remaining The numbers left in the range, or null if the run has
+     * no end
+     * @return The size of the next work unit
+     */
+    private BigInteger nextChunkSize(BigInteger fixedSize, BigInteger remaining) {
+        return this.chunkSizer == null ? fixedSize : BigInteger.valueOf(this.chunkSizer.nextChunkSize(remaining));
+    }
+
+    /**
+     * Computes every number in the specified range that survives the sieve.
+     * Ranges that fit into a {@code long} are computed with primitives only.
+     *
+     * @param startNumber The first number
+     * @param finishNumber The final number, exclusive
+     * @param sieve The sieve, or null to compute every number
+     * @return The results
+     */
+    private ResultBatch computeRange(BigInteger startNumber, BigInteger finishNumber, ResidueSieve sieve) {
+        ResultBatch batch = new ResultBatch(finishNumber.subtract(startNumber).intValueExact(), startNumber, finishNumber);
+        if (finishNumber.bitLength() < Long.SIZE) {
+            for (long number = startNumber.longValue(), end = finishNumber.longValue(); number < end; number++) {
+                if (sieve == null || sieve.mustCompute(number)) {
+                    batch.add(number, iterations(number));
+                }
+            }
+        } else {
+            for (BigInteger number = startNumber; number.compareTo(finishNumber) < 0; number = number.add(BigInteger.ONE)) {
+                if (sieve == null || sieve.mustCompute(number)) {
+                    batch.add(number, CollatzSequencer.iterations(number));
+                }
+            }
+        }
+        this.metrics.recordComputed(batch.size());
+        return batch;
+    }
+
+    /**
+     * Computes every number in the specified range and keeps those that set a
+     * delay record or a path record within the range, with their peaks.
+     *
+     * @param startNumber The first number
+     * @param finishNumber The final number, exclusive
+     * @return The candidates for the records of the whole run
+     */
+    private ResultBatch computeRecordCandidates(BigInteger startNumber, BigInteger finishNumber) {
+        ResultBatch batch = new ResultBatch(finishNumber.subtract(startNumber).intValueExact(), startNumber, finishNumber, true);
+        TrajectoryStatistics trajectory = new TrajectoryStatistics();
+        RecordTracker records = new RecordTracker();
+        if (finishNumber.bitLength() < Long.SIZE) {
+            for (long number = startNumber.longValue(), end = finishNumber.longValue(); number < end; number++) {
+                trajectory.compute(number);
+                if (records.offer(trajectory.getIterations(), trajectory.getPeak(), trajectory.isPeakLong() ? null : trajectory.getBigPeak())) {
+                    batch.add(number, trajectory);
+                }
+            }
+        } else {
+            for (BigInteger number = startNumber; number.compareTo(finishNumber) < 0; number = number.add(BigInteger.ONE)) {
+                trajectory.compute(number);
+                if (records.offer(trajectory.getIterations(), trajectory.getPeak(), trajectory.isPeakLong() ? null : trajectory.getBigPeak())) {
+                    batch.add(number, trajectory);
+                }
+            }
+        }
+        this.metrics.recordComputed(finishNumber.subtract(startNumber).longValue());
+        return batch;
+    }
+
+    /**
+     * Computes every number in the specified range and counts it into the
+     * histogram of the calling worker.
+     *
+     * @param startNumber The first number
+     * @param finishNumber The final number, exclusive
+     */
+    private void computeStatistics(BigInteger startNumber, BigInteger finishNumber) {
+        TrajectoryHistogram histogram = this.statistics.histogram();
+        TrajectoryStatistics trajectory = new TrajectoryStatistics();
+        if (finishNumber.bitLength() < Long.SIZE) {
+            for (long number = startNumber.longValue(), end = finishNumber.longValue(); number < end; number++) {
+                histogram.add(trajectory.compute(number));
+            }
+        } else {
+            for (BigInteger number = startNumber; number.compareTo(finishNumber) < 0; number = number.add(BigInteger.ONE)) {
+                histogram.add(trajectory.compute(number));
+            }
+        }
+        this.metrics.recordComputed(finishNumber.subtract(startNumber).longValue());
+    }
+
+    /**
+     * Computes the number of iterations for the specified number with the
+     * configured kernel.
+     *
+     * @param number The number
+     * @return The number of iterations needed to reach 1
+     */
+    private long iterations(long number) {
+        if (this.jumpTable != null) {
+            return this.jumpTable.iterations(number, this.cache);
         }
+        return this.cache == null ? CollatzSequencer.iterations(number) : CollatzSequencer.iterations(number, this.cache);
+    }
+
+    /**
+     * A getter for the live metrics of this hub. They are also published
+     * through JMX while the hub is running.
+     *
+     * @return The metrics
+     */
+    public HubMetricsMXBean getMetrics() {
+        return this.metrics;
     }
 
     /**
@@ -126,34 +542,101 @@ public final class ProcessingHub {
         try {
             this.service.shutdown();
             this.service.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-            this.storageManager.shutdown();
+            if (this.statistics != null) {
+                this.statistics.shutdown();
+            } else {
+                this.storageManager.shutdown();
+            }
+            LOG.info(this.metrics.toString());
+            if (this.cache != null) {
+                LOG.info(this.cache.toString());
+            }
         } catch (InterruptedException ex) {
-            Logger.getLogger(ProcessingHub.class.getName()).log(Level.SEVERE, null, ex);
+            fail(ex);
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
      * Initiates the {@code ProcessingHub} in whatever mode the
-     * {@link ProcessingHub} is configured in.
+     * {@link ProcessingHub} is configured in. If a work unit fails, no more
+     * work units are dispatched, and the failure is rethrown once the hub has
+     * shut down.
      *
-     * @throws java.io.IOException If there was an error with creating the file
+     * @throws java.io.IOException If there was an error with creating the
+     * file, or a work unit failed with a checked exception
+     * @throws RuntimeException If a work unit failed with one
      */
     public void hubInit() throws IOException {
-        this.controlState.onHubInit();
-        shutdownHub();
+        ObjectName name = registerMetrics();
+        ScheduledExecutorService reporter = null;
+        if (this.metricsLogInterval > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+                Thread thread = new Thread(r, "Processing Hub Metrics Thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> LOG.info(this.metrics.toString()),
+                    this.metricsLogInterval, this.metricsLogInterval, TimeUnit.MILLISECONDS);
+        }
+        this.metrics.markStarted();
+        try {
+            this.controlState.onHubInit();
+            shutdownHub();
+            rethrowFailure();
+        } finally {
+            if (reporter != null) {
+                reporter.shutdownNow();
+            }
+            unregisterMetrics(name);
+        }
+    }
+
+    /**
+     * Registers the metrics of this hub with the platform MBean server. A hub
+     * that can't be registered still runs, it just isn't visible through JMX.
+     *
+     * @return The name the metrics were registered under, or null
+     */
+    private ObjectName registerMetrics() {
+        try {
+            ObjectName name = new ObjectName("com.gmail.physicistsarah.collatzconjecture:type=ProcessingHub,name=Hub "
+                    + HUB_COUNT.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this.metrics, name);
+            return name;
+        } catch (JMException ex) {
+            LOG.log(Level.WARNING, "The hub metrics couldn't be registered", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Unregisters the metrics of this hub from the platform MBean server.
+     *
+     * @param name The name the metrics were registered under, or null
+     */
+    private static void unregisterMetrics(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException ex) {
+            LOG.log(Level.WARNING, "The hub metrics couldn't be unregistered", ex);
+        }
     }
 
     /**
      * A class to track the number on the interval.
      */
     @NotThreadSafe
-    private static final class HubNumericalHelper implements Iterable<BigInteger> {
+    static final class HubNumericalHelper implements Iterable<BigInteger> {
 
         /**
          * The value incremented when {@link HubNumericalHelper#increment()} is
          * called. Currently this value is 10,000.
          */
-        public static final BigInteger DEFAULT_INCREMENT_VALUE = new BigInteger("10000");
+        public static final BigInteger DEFAULT_INCREMENT_VALUE = BigInteger.valueOf(HubConfiguration.DEFAULT_CHUNK_SIZE);
 
         /**
          * Gets the number of tasks per thread.
@@ -163,9 +646,49 @@ public final class ProcessingHub {
          * @return The number of tasks per thread
          */
         public static BigInteger getTasksPerThread(BigInteger startingNumber, BigInteger finalNumber) {
+            return getTasksPerThread(startingNumber, finalNumber, AVAILABLE_PROCESSORS);
+        }
+
+        /**
+         * Gets the number of tasks per thread for the specified number of
+         * threads.
+         *
+         * @param startingNumber The starting number
+         * @param finalNumber THe ending number
+         * @param threads The number of threads
+         * @return The number of tasks per thread
+         */
+        public static BigInteger getTasksPerThread(BigInteger startingNumber, BigInteger finalNumber, int threads) {
             return new BigDecimal(finalNumber.subtract(startingNumber))
-                    .divide(new BigDecimal(Runtime.getRuntime().availableProcessors()))
-                    .setScale(0, RoundingMode.UP).toBigIntegerExact();
+                    .divide(new BigDecimal(threads), 0, RoundingMode.UP).toBigIntegerExact();
+        }
+
+        /**
+         * Gets the size of the work units for the specified interval. This is
+         * the default increment value, unless the interval is too small to
+         * give every thread a full work unit.
+         *
+         * @param startingNumber The starting number
+         * @param finalNumber The ending number, exclusive
+         * @return The size of each work unit
+         */
+        public static BigInteger getChunkSize(BigInteger startingNumber, BigInteger finalNumber) {
+            return getChunkSize(startingNumber, finalNumber, DEFAULT_INCREMENT_VALUE, AVAILABLE_PROCESSORS);
+        }
+
+        /**
+         * Gets the size of the work units for the specified interval. This is
+         * the specified chunk size, unless the interval is too small to give
+         * every thread a full work unit.
+         *
+         * @param startingNumber The starting number
+         * @param finalNumber The ending number, exclusive
+         * @param chunkSize The largest size of a work unit
+         * @param threads The number of worker threads
+         * @return The size of each work unit
+         */
+        public static BigInteger getChunkSize(BigInteger startingNumber, BigInteger finalNumber, BigInteger chunkSize, int threads) {
+            return chunkSize.min(getTasksPerThread(startingNumber, finalNumber, threads).max(BigInteger.ONE));
         }
 
         /**
@@ -347,94 +870,259 @@ public final class ProcessingHub {
 
     /**
      * The storage manager for any processing hub. Stores the numbers associated
-     * with the hub.
+     * with the hub, and keeps the checkpoint of number range runs, since it is
+     * the only place that knows which work units have reached the disk. The
+     * workers hand their batches over through an {@link MpscRingBuffer}, and
+     * the writer thread encodes and writes every batch waiting in it at once.
      */
     @NotThreadSafe
-    private static final class HubStorageManager {
+    private static final class HubStorageManager implements ResultStorage {
 
-        public static final Path CONJECTURE_FOLDER_PATH = Paths.get("M://", "Conjecture Program");
-        public static final Path CONJECTURE_OUTPUT_FILE = Paths.get(CONJECTURE_FOLDER_PATH.toString(), "Conjecture Output.Dat");
-        public static final String POISON = "Initiate Queue Shutdown";
+        public static final String OUTPUT_FILE_NAME = "Conjecture Output.Dat";
+        public static final String STATISTICS_FILE_NAME = "Conjecture Statistics.txt";
+        public static final String CHECKPOINT_FILE_NAME = "Conjecture Checkpoint.properties";
+
+        /**
+         * The number of batches the workers can hand over before they have to
+         * wait for the writer thread.
+         */
+        private static final int RING_CAPACITY = 16;
         private final ExecutorService executor;
+        private final FileChannel channel;
         private final BufferedOutputStream stream;
-        private final BlockingQueue<String> queue;
+        private final MpscRingBuffer<ResultBatch> ring;
+        private final List<ResultBatch> drained = new ArrayList<>();
+        private final RecordEncoder encoder;
+        private final RecordBuffer buffer;
+        private final long byteLimit;
+        private final AtomicLong bytesCommitted = new AtomicLong();
+        private final HubCheckpoint checkpoint;
+        private final HubMetrics metrics;
+        private long recordsCommitted;
+        private volatile boolean full;
+
+        /**
+         * The first failure of the writer thread. Part of a failed write may
+         * have reached the file, so nothing is written and no checkpoint is
+         * saved after it.
+         */
+        private volatile IOException failure;
 
         /**
          * Constructs a new {@link HubStorageManager}, responsible for all IO
-         * operations in the {@link ProcessingHub}.
+         * operations in the {@link ProcessingHub}. A resumed checkpoint makes
+         * it append to the existing output file, after truncating whatever was
+         * written after the checkpoint was saved.
          *
+         * @param outputFile The output file
+         * @param encoder The encoder of the output format
+         * @param byteLimit The maximum number of bytes, excluding the footer
+         * @param checkpoint The checkpoint to keep, or null
+         * @param metrics The metrics the writes are recorded into
+         * @param waitStrategy How the writer thread and the workers wait on
+         * each other
+         * @param bufferSize The initial size of the encode buffer and the
+         * size of the output stream buffer, in bytes
          * @throws IOException If an IOException occurred
          */
-        public HubStorageManager() throws IOException {
-            try {
-                Files.createDirectories(CONJECTURE_FOLDER_PATH);
-            } catch (IOException ex) {
-                Logger.getLogger(Init.class.getName()).log(Level.SEVERE, null, ex);
-                throw new RuntimeException(ex);
+        public HubStorageManager(@NotNull Path outputFile, @NotNull RecordEncoder encoder, long byteLimit, HubCheckpoint checkpoint,
+                @NotNull HubMetrics metrics, @NotNull WaitStrategy waitStrategy, int bufferSize) throws IOException {
+            this.ring = new MpscRingBuffer<>(RING_CAPACITY, waitStrategy);
+            this.metrics = metrics;
+            this.metrics.setQueueDepthGauge(this.ring::size);
+            this.encoder = encoder;
+            this.buffer = new RecordBuffer(bufferSize);
+            this.byteLimit = byteLimit;
+            this.checkpoint = checkpoint;
+            if (checkpoint != null && checkpoint.isResumed()) {
+                this.channel = FileChannel.open(outputFile, WRITE);
+                long offset = checkpoint.getOutputBytes();
+                if (this.channel.size() < offset) {
+                    this.channel.close();
+                    throw new IOException("The output file is shorter than the " + offset + " bytes recorded by the checkpoint");
+                }
+                this.channel.truncate(offset);
+                this.channel.position(offset);
+                this.stream = new BufferedOutputStream(Channels.newOutputStream(this.channel), bufferSize);
+                this.bytesCommitted.set(offset);
+                LOG.info("Resuming from " + checkpoint);
+            } else {
+                this.channel = FileChannel.open(outputFile, TRUNCATE_EXISTING, CREATE, WRITE);
+                this.stream = new BufferedOutputStream(Channels.newOutputStream(this.channel), bufferSize);
+                this.encoder.encodeHeader(this.buffer);
+                this.buffer.writeTo(this.stream);
+                this.bytesCommitted.set(this.buffer.position());
             }
-            this.queue = new ArrayBlockingQueue<>(10);
-            this.stream = new BufferedOutputStream(Files.newOutputStream(CONJECTURE_OUTPUT_FILE, TRUNCATE_EXISTING, CREATE, WRITE));
             this.executor = Executors.newSingleThreadExecutor((Runnable r) -> new Thread(r, "Processing Hub Storage Manager Thread"));
             this.executor.submit(() -> {
-                while (true) {
-                    try {
-                        String string = this.queue.take() + "\n\n";
-                        if (!string.equalsIgnoreCase(POISON + "\n\n")) {
-                            writeString(string);
-                        } else {
-                            internalShutdown();
-                            break;
+                try {
+                    while (this.ring.awaitAvailable()) {
+                        this.ring.drainTo(this.drained);
+                        try {
+                            if (this.failure == null) {
+                                writeBatches(this.drained);
+                            }
+                        } catch (IOException | RuntimeException ex) {
+                            fail(ex instanceof IOException ? (IOException) ex : new IOException("The batches couldn't be encoded", ex));
+                        } finally {
+                            this.drained.clear();
                         }
-                    } catch (InterruptedException | IOException ex) {
-                        Logger.getLogger(ProcessingHub.class.getName()).log(Level.SEVERE, null, ex);
                     }
+                } catch (InterruptedException ex) {
+                    fail(new InterruptedIOException("The writer thread was interrupted"));
+                }
+                try {
+                    internalShutdown();
+                } catch (IOException ex) {
+                    fail(ex);
                 }
             });
         }
 
-        private void writeString(String message) throws IOException {
-            this.stream.write(message.getBytes(Charset.forName("UTF-16")));
+        /**
+         * Encodes the batches into one buffer and writes as many of their
+         * records as fit into the byte limit. Only called from the writer
+         * thread.
+         *
+         * @param batches The results to write, in the order they were handed
+         * over
+         * @throws IOException If an IOException occurred
+         */
+        private void writeBatches(List<ResultBatch> batches) throws IOException {
+            if (this.full) {
+                return;
+            }
+            long started = System.nanoTime();
+            this.buffer.clear();
+            for (ResultBatch batch : batches) {
+                for (int i = 0; i < batch.size(); i++) {
+                    this.encoder.encode(batch, i, this.buffer);
+                    this.buffer.markRecord();
+                }
+            }
+            long committed = this.bytesCommitted.get();
+            int records = this.buffer.fittingRecords(this.byteLimit - committed, this.recordsCommitted == 0);
+            if (records < this.buffer.records()) {
+                this.buffer.truncateToRecords(records);
+                this.encoder.truncated(committed + this.buffer.position());
+                this.full = true;
+            }
+            this.buffer.writeTo(this.stream);
+            this.recordsCommitted += records;
+            this.bytesCommitted.set(committed + this.buffer.position());
+            this.metrics.recordWrite(batches.size(), System.nanoTime() - started, this.buffer.position());
+            if (this.checkpoint != null && !this.full) {
+                for (ResultBatch batch : batches) {
+                    if (batch.getRangeStart() != null) {
+                        this.checkpoint.markCompleted(batch.getRangeStart(), batch.getRangeEnd());
+                    }
+                }
+                if (this.checkpoint.isDue()) {
+                    saveCheckpoint();
+                }
+            }
         }
 
         /**
-         * Cleans up and closes the channel
+         * Records the first failure of the writer thread. Only called from the
+         * writer thread.
+         *
+         * @param ex The failure
+         */
+        private void fail(IOException ex) {
+            if (this.failure == null) {
+                this.failure = ex;
+                LOG.log(Level.SEVERE, "Writing the output failed, nothing more is written", ex);
+            } else {
+                this.failure.addSuppressed(ex);
+            }
+        }
+
+        /**
+         * Throws the failure of the writer thread, if there was one.
+         *
+         * @throws IOException If the writer thread failed
+         */
+        private void checkFailure() throws IOException {
+            IOException ex = this.failure;
+            if (ex != null) {
+                throw new IOException("The output couldn't be written", ex);
+            }
+        }
+
+        /**
+         * Forces the output file to the disk and saves the checkpoint, so that
+         * the checkpoint never points past the durable end of the file.
+         *
+         * @throws IOException If an IOException occurred
+         */
+        private void saveCheckpoint() throws IOException {
+            this.stream.flush();
+            this.channel.force(false);
+            this.checkpoint.save(this.bytesCommitted.get());
+        }
+
+        /**
+         * Cleans up and closes the channel. The final checkpoint is saved
+         * before the footer, so that resuming a finished run rewrites the
+         * footer instead of appending after it.
          *
          * @throws IOException If an IOException was thrown
          */
         private void internalShutdown() throws IOException {
             this.executor.shutdown();
+            if (this.failure != null) {
+                this.stream.close();
+                return;
+            }
+            if (this.checkpoint != null) {
+                saveCheckpoint();
+            }
+            this.buffer.clear();
+            this.encoder.encodeFooter(this.buffer);
+            this.buffer.writeTo(this.stream);
             this.stream.close();
         }
 
         /**
-         * Shuts down this processing hub.
+         * Shuts down this processing hub, and waits until the writer thread
+         * has written every batch handed over and closed the file. Batches
+         * can't be saved afterwards.
+         *
+         * @throws IOException If the writer thread failed
          */
-        public void shutdown() throws InterruptedException {
-            this.queue.put(POISON);
+        @Override
+        public void shutdown() throws IOException, InterruptedException {
+            this.ring.close();
+            this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            checkFailure();
         }
 
         /**
-         * Saves the current value to the disk.
+         * Saves the results of a work unit to the disk.
          *
-         * @param value The value to save
+         * @param batch The results to save
+         * @throws IOException If the writer thread has failed
          * @throws InterruptedException If interrupted while waiting
          */
-        public void saveValue(CollatzSequencer.FinalSequencerReport<? extends Number> value) throws IOException, InterruptedException {
-            this.queue.put(value.toString());
+        @Override
+        public void saveBatch(ResultBatch batch) throws IOException, InterruptedException {
+            checkFailure();
+            if (!this.ring.offer(batch)) {
+                long started = System.nanoTime();
+                this.ring.put(batch);
+                this.metrics.recordPutBlocked(System.nanoTime() - started);
+            }
         }
 
-        /**
-         * A getter for the current size of the output file.
-         *
-         * @return THe file size in bytes
-         */
-        public long fileSize() {
-            try {
-                return Files.size(CONJECTURE_OUTPUT_FILE);
-            } catch (IOException ex) {
-                Logger.getLogger(ProcessingHub.class.getName()).log(Level.SEVERE, null, ex);
-                throw new RuntimeException(ex);
-            }
+        @Override
+        public long bytesCommitted() {
+            return this.bytesCommitted.get();
+        }
+
+        @Override
+        public boolean isFull() {
+            return this.full;
         }
 
     }
@@ -453,10 +1141,10 @@ public final class ProcessingHub {
 
     /**
      * A state class representing the state that will write to the disk until a
-     * certain amount of bytes has been written. NOTE: Will be slower than the
-     * number range mode due to the need to be certain as to the size of the
-     * file on the disk. If the file size is lower than one {@link BigInteger}
-     * at least one {@link BigInteger} will be written.
+     * certain amount of bytes has been written. Work units are dispatched like
+     * in the number range mode until the storage reports that a record didn't
+     * fit. If the file size is lower than one {@link BigInteger} at least one
+     * {@link BigInteger} will be written.
      */
     @NotThreadSafe
     private final class WriteUntilSize implements HubControlState {
@@ -476,11 +1164,13 @@ public final class ProcessingHub {
 
         @Override
         public void onHubInit() throws IOException {
-            BigInteger startingNumber = BigInteger.ONE, endingNumber = startingNumber.add(BigInteger.ONE);
-            for (long fileSize = storageManager.fileSize(); fileSize <= this.MAX_SIZE;
-                    fileSize = storageManager.fileSize(), startingNumber = endingNumber, endingNumber = endingNumber.add(BigInteger.ONE)) {
+            BigInteger startingNumber = BigInteger.ONE;
+            while (!storageManager.isFull() && !isFailed()) {
+                BigInteger endingNumber = startingNumber.add(nextChunkSize(chunkSize, null));
                 createTask(startingNumber, endingNumber);
+                startingNumber = endingNumber;
             }
+            LOG.info("Stopped after " + storageManager.bytesCommitted() + " of " + this.MAX_SIZE + " bytes");
         }
     }
 
@@ -490,8 +1180,10 @@ public final class ProcessingHub {
     @NotThreadSafe
     private final class NumberRangeState implements HubControlState {
 
-        private final BigInteger startingNumber, targetNumber;
-        private final HubNumericalHelper numberTracker;
+        private final BigInteger startingNumber, endingNumber;
+        private final BigInteger chunkSize;
+        private final ResidueSieve sieve;
+        private final HubCheckpoint resumedFrom;
 
         /**
          * Constructs a new number range with specified starting number and
@@ -499,22 +1191,46 @@ public final class ProcessingHub {
          *
          * @param startingNumber The starting number
          * @param targetNumber The ending number
+         * @param sieve The sieve that decides which numbers are computed, or
+         * null to compute every number
+         * @param checkpoint A snapshot of the checkpoint whose completed
+         * ranges are skipped, or null to compute the whole range
+         * @param chunkSize The size of the work units
          */
-        public NumberRangeState(@NotNull BigInteger startingNumber, @NotNull BigInteger targetNumber) throws IOException {
+        public NumberRangeState(@NotNull BigInteger startingNumber, @NotNull BigInteger targetNumber, ResidueSieve sieve,
+                HubCheckpoint checkpoint, @NotNull BigInteger chunkSize) throws IOException {
             if (startingNumber.compareTo(targetNumber) > 0) {
                 throw new IllegalArgumentException("The starting number is larger than the ending number.");
             } else if (startingNumber.equals(targetNumber)) {
                 throw new IllegalArgumentException("The starting number and ending numbers are equal.");
             }
             this.startingNumber = startingNumber;
-            this.targetNumber = targetNumber;
-            this.numberTracker = new HubNumericalHelper(startingNumber, targetNumber);
+            this.endingNumber = targetNumber.add(BigInteger.ONE);
+            this.chunkSize = chunkSize;
+            this.resumedFrom = checkpoint == null || !checkpoint.isResumed() ? null : checkpoint;
+            this.sieve = sieve;
         }
 
         @Override
         public void onHubInit() throws IOException {
-            for (; !this.numberTracker.isFinished(); this.numberTracker.increment()) {
-                createTask(this.numberTracker.getCurrentNumber(), this.numberTracker.getNextEndPoint());
+            BigInteger current = this.resumedFrom == null ? this.startingNumber : this.resumedFrom.getLowWaterMark();
+            while (current.compareTo(this.endingNumber) < 0 && !isFailed()) {
+                BigInteger next = current.add(nextChunkSize(this.chunkSize, this.endingNumber.subtract(current))).min(this.endingNumber);
+                if (this.resumedFrom == null) {
+                    createTask(current, next, this.sieve);
+                } else {
+                    for (BigInteger[] missing : this.resumedFrom.getMissingRanges(current, next)) {
+                        createTask(missing[0], missing[1], this.sieve);
+                    }
+                }
+                current = next;
+            }
+            if (chunkSizer != null) {
+                LOG.info(String.format(Locale.ROOT, "Sized the work units for %.1f ns per number", chunkSizer.getNanosPerNumber()));
+            }
+            if (this.sieve != null) {
+                LOG.info("Covered " + this.endingNumber.subtract(this.startingNumber)
+                        + " numbers, only computing those that survive the " + this.sieve);
             }
         }
 
@@ -0,0 +1,564 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Owns a number range and leases chunks of it to {@link RangeWorker}
+ * processes over TCP, so a run can use the cores and heaps of several JVMs,
+ * on one machine or many sharing a file system. The chunks are whole
+ * multiples of the work units of a {@link ProcessingHub}.
+ * <p>
+ * Every worker writes each chunk into a shard of its own below the shard
+ * directory, and reports it when it is complete. The coordinator records
+ * every accepted shard as a line of {@value #INDEX_FILE_NAME}: the first
+ * number, the exclusive end, the size in bytes and the shard name, separated
+ * by tabs. A coordinator started on a shard directory that already holds an
+ * index only leases the ranges it doesn't cover.
+ * <p>
+ * A lease that isn't renewed within the lease timeout, or whose worker
+ * disconnects, is reclaimed and leased again, and a shard reported for a
+ * reclaimed lease is rejected.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@ThreadSafe
+public final class RangeCoordinator implements Closeable {
+
+    /**
+     * The name of the shard index in the shard directory.
+     */
+    public static final String INDEX_FILE_NAME = "Shard Index.txt";
+
+    /**
+     * The default number of hub work units in each lease.
+     */
+    public static final int DEFAULT_UNITS_PER_LEASE = 100;
+
+    /**
+     * The default time after which a lease that wasn't renewed is reclaimed.
+     */
+    public static final long DEFAULT_LEASE_TIMEOUT_MILLIS = 60_000;
+
+    private static final Logger LOG = Logger.getLogger(RangeCoordinator.class.getName());
+
+    /**
+     * Starts a coordinator on all local addresses and waits until its range
+     * is complete.
+     *
+     * @param args The first and last number, the port, the shard directory,
+     * and optionally the number of hub work units per lease and the output
+     * format
+     * @throws IOException If the coordinator couldn't be started
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 4 || args.length > 6) {
+            System.err.println("Usage: RangeCoordinator <first number> <last number> <port> <shard directory>"
+                    + " [work units per lease] [output format]");
+            System.exit(2);
+        }
+        BigInteger unitsPerLease = BigInteger.valueOf(args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_UNITS_PER_LEASE);
+        try (RangeCoordinator coordinator = new RangeCoordinator(new BigInteger(args[0]), new BigInteger(args[1]),
+                ProcessingHub.HubNumericalHelper.DEFAULT_INCREMENT_VALUE.multiply(unitsPerLease), DEFAULT_LEASE_TIMEOUT_MILLIS,
+                Paths.get(args[3]), args.length > 5 ? RecordFormat.valueOf(args[5]) : RecordFormat.TEXT)) {
+            coordinator.start(new InetSocketAddress(Integer.parseInt(args[2])));
+            coordinator.awaitCompletion();
+        }
+    }
+
+    private final BigInteger startingNumber, endingNumber;
+    private final BigInteger leaseSize;
+    private final long leaseTimeoutMillis;
+    private final Path shardDirectory;
+    private final RecordFormat format;
+    private final BufferedWriter index;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final ExecutorService connections = Executors.newCachedThreadPool((Runnable r)
+            -> new Thread(r, "Range Coordinator Connection " + this.connectionCount.incrementAndGet()));
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+        Thread thread = new Thread(r, "Range Coordinator Lease Reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    @GuardedBy("this")
+    private final NavigableMap<BigInteger, BigInteger> completed = new TreeMap<>();
+    @GuardedBy("this")
+    private final Queue<BigInteger[]> reclaimed = new ArrayDeque<>();
+    @GuardedBy("this")
+    private final Map<Long, Lease> leases = new HashMap<>();
+    @GuardedBy("this")
+    private final Set<Socket> sockets = new HashSet<>();
+    @GuardedBy("this")
+    private BigInteger frontier;
+    @GuardedBy("this")
+    private long nextLeaseId = 1;
+    @GuardedBy("this")
+    private BigInteger numbersCompleted = BigInteger.ZERO;
+    private volatile ServerSocket server;
+
+    /**
+     * Constructs a new {@link RangeCoordinator}, loading the shard index if
+     * the shard directory already holds one.
+     *
+     * @param startingNumber The first number
+     * @param endingNumber The last number
+     * @param leaseSize The number of numbers in each lease
+     * @param leaseTimeoutMillis The time after which a lease that wasn't
+     * renewed is reclaimed
+     * @param shardDirectory The directory the workers write their shards to
+     * @param format The output format of the shards
+     * @throws IOException If the shard directory or the index couldn't be
+     * created or read
+     */
+    public RangeCoordinator(@NotNull BigInteger startingNumber, @NotNull BigInteger endingNumber, @NotNull BigInteger leaseSize,
+            long leaseTimeoutMillis, @NotNull Path shardDirectory, @NotNull RecordFormat format) throws IOException {
+        if (startingNumber.compareTo(endingNumber) >= 0) {
+            throw new IllegalArgumentException("Starting number is larger than or equal to ending number");
+        } else if (startingNumber.signum() < 1) {
+            throw new IllegalArgumentException("Starting number is less than one");
+        } else if (leaseSize.compareTo(BigInteger.valueOf(2)) < 0) {
+            throw new IllegalArgumentException("The lease size is less than two");
+        } else if (leaseTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("The lease timeout is less than or equal to zero");
+        }
+        this.startingNumber = startingNumber;
+        this.endingNumber = endingNumber.add(BigInteger.ONE);
+        this.leaseSize = leaseSize;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.shardDirectory = shardDirectory.toAbsolutePath();
+        this.format = format;
+        this.frontier = startingNumber;
+        Files.createDirectories(this.shardDirectory);
+        Path indexFile = this.shardDirectory.resolve(INDEX_FILE_NAME);
+        if (Files.exists(indexFile)) {
+            loadIndex(indexFile);
+        }
+        this.index = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Marks every range of an existing index as complete. The ranges may
+     * overlap, the numbers they share are only counted once.
+     *
+     * @param indexFile The index
+     * @throws IOException If the index couldn't be read
+     */
+    private synchronized void loadIndex(Path indexFile) throws IOException {
+        int shards = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split("\t");
+                if (fields.length != 4) {
+                    throw new IOException("Invalid line in the shard index: " + line);
+                }
+                BigInteger start = new BigInteger(fields[0]).max(this.startingNumber);
+                BigInteger end = new BigInteger(fields[1]).min(this.endingNumber);
+                if (start.compareTo(end) < 0) {
+                    markCompleted(start, end);
+                    shards++;
+                }
+            }
+        }
+        LOG.info("Loaded " + shards + " shards covering " + this.numbersCompleted + " numbers from " + indexFile);
+    }
+
+    /**
+     * Marks a range as complete. The completed ranges are kept merged, so
+     * that the numbers a range shares with earlier ones aren't counted again.
+     *
+     * @param start The first number
+     * @param end The exclusive end
+     */
+    @GuardedBy("this")
+    private void markCompleted(BigInteger start, BigInteger end) {
+        BigInteger first = start, last = end, added = end.subtract(start);
+        Map.Entry<BigInteger, BigInteger> before = this.completed.floorEntry(start);
+        if (before != null && before.getValue().compareTo(start) >= 0) {
+            first = before.getKey();
+        }
+        for (Iterator<Map.Entry<BigInteger, BigInteger>> iterator = this.completed.subMap(first, true, end, true).entrySet().iterator();
+                iterator.hasNext();) {
+            Map.Entry<BigInteger, BigInteger> range = iterator.next();
+            BigInteger shared = range.getValue().min(end).subtract(range.getKey().max(start));
+            if (shared.signum() > 0) {
+                added = added.subtract(shared);
+            }
+            last = last.max(range.getValue());
+            iterator.remove();
+        }
+        this.completed.put(first, last);
+        this.numbersCompleted = this.numbersCompleted.add(added);
+    }
+
+    /**
+     * Starts accepting workers on the specified address.
+     *
+     * @param address The address, with a port of zero for any free port
+     * @throws IOException If the address couldn't be bound
+     */
+    public void start(@NotNull InetSocketAddress address) throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.bind(address);
+        this.server = socket;
+        this.connections.execute(this::accept);
+        long reapInterval = Math.max(1, this.leaseTimeoutMillis / 2);
+        this.reaper.scheduleWithFixedDelay(this::reclaimExpired, reapInterval, reapInterval, TimeUnit.MILLISECONDS);
+        LOG.info("Coordinating " + this.startingNumber + " to " + this.endingNumber.subtract(BigInteger.ONE) + " on "
+                + socket.getLocalSocketAddress() + ", writing shards to " + this.shardDirectory);
+    }
+
+    /**
+     * A getter for the port the coordinator accepts workers on.
+     *
+     * @return The port, or -1 if it hasn't been started
+     */
+    public int getPort() {
+        ServerSocket socket = this.server;
+        return socket == null ? -1 : socket.getLocalPort();
+    }
+
+    /**
+     * Waits until every number of the range is in an accepted shard.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized void awaitCompletion() throws InterruptedException {
+        while (!isFinished()) {
+            wait();
+        }
+        LOG.info("Every shard of " + this.startingNumber + " to " + this.endingNumber.subtract(BigInteger.ONE) + " is complete");
+    }
+
+    /**
+     * Stops accepting workers. Connected workers are given until the lease
+     * timeout to disconnect, which they do once they have been told the range
+     * is finished, then their connections are closed.
+     *
+     * @throws IOException If the index couldn't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        ServerSocket socket = this.server;
+        if (socket != null) {
+            socket.close();
+        }
+        this.reaper.shutdownNow();
+        this.connections.shutdown();
+        try {
+            if (!this.connections.awaitTermination(this.leaseTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                synchronized (this) {
+                    for (Socket connection : this.sockets) {
+                        connection.close();
+                    }
+                }
+                this.connections.awaitTermination(this.leaseTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                this.index.close();
+            }
+        }
+    }
+
+    private void accept() {
+        ServerSocket socket = this.server;
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                synchronized (this) {
+                    this.sockets.add(connection);
+                }
+                this.connections.execute(() -> serve(connection));
+            } catch (SocketException ex) {
+                if (!socket.isClosed()) {
+                    LOG.log(Level.SEVERE, null, ex);
+                }
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Answers the messages of one worker until it disconnects, then reclaims
+     * every lease it still holds.
+     *
+     * @param socket The connection to the worker
+     */
+    private void serve(Socket socket) {
+        String worker = socket.getRemoteSocketAddress().toString();
+        Set<Long> held = new HashSet<>();
+        try (Socket connection = socket;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            if (in.readInt() != RangeProtocol.MAGIC || in.readInt() != RangeProtocol.VERSION || in.readByte() != RangeProtocol.HELLO) {
+                throw new IOException("Not a range worker of this version");
+            }
+            worker = in.readUTF() + " (" + worker + ")";
+            LOG.info("Worker " + worker + " connected");
+            out.writeByte(RangeProtocol.WELCOME);
+            out.writeUTF(this.format.name());
+            out.writeUTF(this.shardDirectory.toString());
+            out.writeLong(this.leaseTimeoutMillis);
+            out.flush();
+            while (true) {
+                byte type = in.readByte();
+                switch (type) {
+                    case RangeProtocol.REQUEST_LEASE:
+                        if (!answerLeaseRequest(worker, held, out)) {
+                            return;
+                        }
+                        break;
+                    case RangeProtocol.RENEW:
+                        renew(in.readLong());
+                        break;
+                    case RangeProtocol.COMPLETE:
+                        long id = in.readLong();
+                        String shard = in.readUTF();
+                        long bytes = in.readLong();
+                        held.remove(id);
+                        out.writeByte(complete(id, shard, bytes) ? RangeProtocol.ACCEPTED : RangeProtocol.REJECTED);
+                        out.flush();
+                        break;
+                    default:
+                        throw new IOException("Unknown message type " + type);
+                }
+            }
+        } catch (EOFException ex) {
+            LOG.info("Worker " + worker + " disconnected");
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Lost worker " + worker, ex);
+        } finally {
+            synchronized (this) {
+                this.sockets.remove(socket);
+                for (Long id : held) {
+                    reclaim(id, "its worker " + worker + " disconnected");
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers a lease request.
+     *
+     * @param worker The name of the worker
+     * @param held The ids of the leases the worker holds
+     * @param out The connection to the worker
+     * @return Whether the worker should keep asking, false once the range is
+     * finished
+     * @throws IOException If an IOException occurred
+     */
+    private boolean answerLeaseRequest(String worker, Set<Long> held, DataOutputStream out) throws IOException {
+        Lease lease;
+        boolean finished;
+        synchronized (this) {
+            lease = nextLease(worker);
+            finished = lease == null && isFinished();
+        }
+        if (lease != null) {
+            held.add(lease.id);
+            out.writeByte(RangeProtocol.LEASE);
+            out.writeLong(lease.id);
+            RangeProtocol.writeNumber(out, lease.start);
+            RangeProtocol.writeNumber(out, lease.end);
+        } else if (finished) {
+            out.writeByte(RangeProtocol.FINISHED);
+        } else {
+            out.writeByte(RangeProtocol.WAIT);
+            out.writeLong(Math.min(1000, this.leaseTimeoutMillis / 4 + 1));
+        }
+        out.flush();
+        return lease != null || !finished;
+    }
+
+    /**
+     * Leases the next range, reclaimed ranges first. A hub can't compute a
+     * single number, so a lease never leaves one number alone before a
+     * completed range or the end, and a gap of one number is leased together
+     * with a number of the completed range next to it.
+     *
+     * @param worker The name of the worker
+     * @return The lease, or null if every range is leased or complete
+     */
+    @GuardedBy("this")
+    private Lease nextLease(String worker) {
+        BigInteger[] range = this.reclaimed.poll();
+        if (range == null) {
+            for (Map.Entry<BigInteger, BigInteger> covering = this.completed.floorEntry(this.frontier);
+                    covering != null && covering.getValue().compareTo(this.frontier) > 0;
+                    covering = this.completed.floorEntry(this.frontier)) {
+                this.frontier = covering.getValue();
+            }
+            if (this.frontier.compareTo(this.endingNumber) >= 0) {
+                return null;
+            }
+            BigInteger bound = this.endingNumber;
+            BigInteger nextCompleted = this.completed.higherKey(this.frontier);
+            if (nextCompleted != null) {
+                bound = bound.min(nextCompleted);
+            }
+            BigInteger start = this.frontier;
+            BigInteger end = start.add(this.leaseSize).min(bound);
+            if (bound.subtract(end).equals(BigInteger.ONE)) {
+                end = bound;
+            }
+            if (end.subtract(start).equals(BigInteger.ONE)) {
+                if (end.compareTo(this.endingNumber) < 0) {
+                    end = end.add(BigInteger.ONE);
+                } else {
+                    start = start.subtract(BigInteger.ONE);
+                }
+            }
+            range = new BigInteger[]{start, end};
+            this.frontier = end;
+        }
+        Lease lease = new Lease(this.nextLeaseId++, range[0], range[1]);
+        lease.renewed = System.nanoTime();
+        this.leases.put(lease.id, lease);
+        LOG.fine("Leased " + lease + " to " + worker);
+        return lease;
+    }
+
+    private synchronized void renew(long id) {
+        Lease lease = this.leases.get(id);
+        if (lease != null) {
+            lease.renewed = System.nanoTime();
+        }
+    }
+
+    /**
+     * Indexes the shard of a lease, unless the lease has been reclaimed.
+     *
+     * @param id The lease id
+     * @param shard The name of the shard in the shard directory
+     * @param bytes The size of the shard
+     * @return Whether the shard was indexed
+     * @throws IOException If the index couldn't be written
+     */
+    private synchronized boolean complete(long id, String shard, long bytes) throws IOException {
+        Lease lease = this.leases.remove(id);
+        if (lease == null) {
+            LOG.warning("Rejected shard " + shard + ", its lease was reclaimed");
+            return false;
+        }
+        this.index.write(lease.start + "\t" + lease.end + "\t" + bytes + "\t" + shard);
+        this.index.newLine();
+        this.index.flush();
+        markCompleted(lease.start, lease.end);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Puts the range of a lease back to be leased again.
+     *
+     * @param id The lease id
+     * @param reason Why the lease is reclaimed
+     */
+    @GuardedBy("this")
+    private void reclaim(long id, String reason) {
+        Lease lease = this.leases.remove(id);
+        if (lease != null) {
+            this.reclaimed.add(new BigInteger[]{lease.start, lease.end});
+            LOG.warning("Reclaimed " + lease + ", " + reason);
+        }
+    }
+
+    private synchronized void reclaimExpired() {
+        long now = System.nanoTime();
+        for (Iterator<Lease> iterator = this.leases.values().iterator(); iterator.hasNext();) {
+            Lease lease = iterator.next();
+            if (now - lease.renewed > TimeUnit.MILLISECONDS.toNanos(this.leaseTimeoutMillis)) {
+                iterator.remove();
+                this.reclaimed.add(new BigInteger[]{lease.start, lease.end});
+                LOG.warning("Reclaimed " + lease + ", it wasn't renewed for " + this.leaseTimeoutMillis + " ms");
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private boolean isFinished() {
+        return this.numbersCompleted.equals(this.endingNumber.subtract(this.startingNumber));
+    }
+
+    /**
+     * A getter for the number of numbers in accepted shards.
+     *
+     * @return The count
+     */
+    public synchronized BigInteger getNumbersCompleted() {
+        return this.numbersCompleted;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Range Coordinator: " + this.numbersCompleted + " of " + this.endingNumber.subtract(this.startingNumber)
+                + " numbers complete, " + this.leases.size() + " leases out, " + this.reclaimed.size() + " reclaimed";
+    }
+
+    /**
+     * A range leased to a worker. The renewal time is guarded by the lock of
+     * the coordinator.
+     */
+    private static final class Lease {
+
+        private final long id;
+        private final BigInteger start, end;
+        private long renewed;
+
+        private Lease(long id, BigInteger start, BigInteger end) {
+            this.id = id;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return "lease " + this.id + " of " + this.start + " to " + this.end.subtract(BigInteger.ONE);
+        }
+    }
+}
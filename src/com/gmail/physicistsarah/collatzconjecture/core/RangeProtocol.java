@@ -0,0 +1,123 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import javax.validation.constraints.NotNull;
+
+/**
+ * The messages exchanged between a {@link RangeCoordinator} and its
+ * {@link RangeWorker}s over a TCP connection, written with
+ * {@link DataOutput}. Every message starts with its type byte.
+ * <p>
+ * The worker opens with {@link #MAGIC}, {@link #VERSION} and a
+ * {@link #HELLO} holding its name, and the coordinator answers with a
+ * {@link #WELCOME} holding the output format, the shard directory and the
+ * lease timeout. After that the worker sends {@link #REQUEST_LEASE} and
+ * {@link #COMPLETE}, each answered by the coordinator, and {@link #RENEW},
+ * which is never answered, so it can be sent from another thread while the
+ * worker waits for nothing but its own replies.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+final class RangeProtocol {
+
+    /**
+     * The first bytes of every connection.
+     */
+    static final int MAGIC = 0x436F_6C7A;
+    static final int VERSION = 1;
+
+    /**
+     * Worker: its name, as UTF.
+     */
+    static final byte HELLO = 1;
+    /**
+     * Worker: asks for a lease. Answered by {@link #LEASE}, {@link #WAIT} or
+     * {@link #FINISHED}.
+     */
+    static final byte REQUEST_LEASE = 2;
+    /**
+     * Worker: the lease id, as a long. Keeps the lease from expiring.
+     */
+    static final byte RENEW = 3;
+    /**
+     * Worker: the lease id as a long, the shard name as UTF and the shard
+     * size as a long. Answered by {@link #ACCEPTED} or {@link #REJECTED}.
+     */
+    static final byte COMPLETE = 4;
+    /**
+     * Coordinator: the output format name and the shard directory, as UTF,
+     * and the lease timeout in milliseconds, as a long.
+     */
+    static final byte WELCOME = 10;
+    /**
+     * Coordinator: the lease id, as a long, then the first number and the
+     * exclusive end of the range.
+     */
+    static final byte LEASE = 11;
+    /**
+     * Coordinator: every range is leased, but some aren't complete. Holds the
+     * milliseconds to wait before asking again, as a long.
+     */
+    static final byte WAIT = 12;
+    /**
+     * Coordinator: every range is complete.
+     */
+    static final byte FINISHED = 13;
+    /**
+     * Coordinator: the shard has been indexed.
+     */
+    static final byte ACCEPTED = 14;
+    /**
+     * Coordinator: the lease had expired and was handed to another worker,
+     * the shard is not used.
+     */
+    static final byte REJECTED = 15;
+
+    /**
+     * The maximum length of an encoded number. Anything longer means the
+     * stream is corrupt.
+     */
+    private static final int MAX_NUMBER_BYTES = 1 << 16;
+
+    /**
+     * Writes a number as its length and its two's complement bytes.
+     *
+     * @param out The destination
+     * @param number The number
+     * @throws IOException If an IOException occurred
+     */
+    static void writeNumber(@NotNull DataOutput out, @NotNull BigInteger number) throws IOException {
+        byte[] bytes = number.toByteArray();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a number written by {@link #writeNumber(DataOutput, BigInteger)}.
+     *
+     * @param in The source
+     * @return The number
+     * @throws IOException If an IOException occurred, or the length is
+     * invalid
+     */
+    static BigInteger readNumber(@NotNull DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > MAX_NUMBER_BYTES) {
+            throw new IOException("Invalid number length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new BigInteger(bytes);
+    }
+
+    private RangeProtocol() {
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A process that computes the ranges leased by a {@link RangeCoordinator}.
+ * Each lease is computed by a {@link ProcessingHub} of its own, which writes
+ * it into a shard directory below the coordinator's shard directory, in the
+ * output format of the coordinator. While a lease is computed it is renewed
+ * from another thread at a third of the lease timeout.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@NotThreadSafe
+public final class RangeWorker {
+
+    private static final Logger LOG = Logger.getLogger(RangeWorker.class.getName());
+
+    /**
+     * Connects a worker with the default configuration to a coordinator, and
+     * computes leases until the range is finished.
+     *
+     * @param args The host and the port of the coordinator, and optionally
+     * the name of the worker
+     * @throws IOException If the connection failed
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: RangeWorker <host> <port> [name]");
+            System.exit(2);
+        }
+        new RangeWorker(new InetSocketAddress(args[0], Integer.parseInt(args[1])), HubConfiguration.defaults(),
+                args.length > 2 ? args[2] : ManagementFactory.getRuntimeMXBean().getName()).run();
+    }
+
+    private final InetSocketAddress coordinator;
+    private final HubConfiguration configuration;
+    private final String name;
+    @GuardedBy("this")
+    private long currentLease;
+
+    /**
+     * Constructs a new {@link RangeWorker}.
+     *
+     * @param coordinator The address of the coordinator
+     * @param configuration The configuration of the hubs computing the
+     * leases. The output format and directory are replaced by the
+     * coordinator's
+     * @param name The name of the worker, as logged by the coordinator
+     */
+    public RangeWorker(@NotNull InetSocketAddress coordinator, @NotNull HubConfiguration configuration, @NotNull String name) {
+        if (configuration.getMode() != HubMode.REPORTS) {
+            throw new IllegalArgumentException("Range workers only support the " + HubMode.REPORTS + " mode");
+        } else if (configuration.isCheckpointed()) {
+            throw new IllegalArgumentException("Range workers don't keep checkpoints, the coordinator leases unfinished ranges again");
+        }
+        this.coordinator = coordinator;
+        this.configuration = configuration;
+        this.name = name;
+    }
+
+    /**
+     * Connects to the coordinator and computes leases until it reports the
+     * range is finished.
+     *
+     * @throws IOException If the connection failed or a shard couldn't be
+     * written
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void run() throws IOException, InterruptedException {
+        ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "Range Worker Lease Renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (Socket socket = new Socket()) {
+            socket.connect(this.coordinator);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(RangeProtocol.MAGIC);
+            out.writeInt(RangeProtocol.VERSION);
+            out.writeByte(RangeProtocol.HELLO);
+            out.writeUTF(this.name);
+            out.flush();
+            if (in.readByte() != RangeProtocol.WELCOME) {
+                throw new IOException("The coordinator didn't welcome the worker");
+            }
+            RecordFormat format = RecordFormat.valueOf(in.readUTF());
+            Path shardDirectory = Paths.get(in.readUTF());
+            long renewInterval = Math.max(1, in.readLong() / 3);
+            renewer.scheduleWithFixedDelay(() -> renew(out), renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+            LOG.info("Worker " + this.name + " connected to " + this.coordinator);
+            while (true) {
+                synchronized (out) {
+                    out.writeByte(RangeProtocol.REQUEST_LEASE);
+                    out.flush();
+                }
+                byte reply = in.readByte();
+                if (reply == RangeProtocol.FINISHED) {
+                    LOG.info("Worker " + this.name + " is finished");
+                    return;
+                } else if (reply == RangeProtocol.WAIT) {
+                    Thread.sleep(in.readLong());
+                } else if (reply == RangeProtocol.LEASE) {
+                    long id = in.readLong();
+                    BigInteger start = RangeProtocol.readNumber(in), end = RangeProtocol.readNumber(in);
+                    computeLease(id, start, end, format, shardDirectory, in, out);
+                } else {
+                    throw new IOException("Unexpected reply " + reply);
+                }
+            }
+        } finally {
+            renewer.shutdownNow();
+        }
+    }
+
+    /**
+     * Computes a lease into its shard and reports it to the coordinator. A
+     * rejected shard is deleted.
+     *
+     * @param id The lease id
+     * @param start The first number
+     * @param end The exclusive end
+     * @param format The output format
+     * @param shardDirectory The shard directory of the coordinator
+     * @param in The connection from the coordinator
+     * @param out The connection to the coordinator
+     * @throws IOException If the shard couldn't be written or the connection
+     * failed
+     */
+    private void computeLease(long id, BigInteger start, BigInteger end, RecordFormat format, Path shardDirectory,
+            DataInputStream in, DataOutputStream out) throws IOException {
+        String shard = "Shard " + start + "-" + end.subtract(BigInteger.ONE) + " Lease " + id;
+        HubConfiguration shardConfiguration = new HubConfiguration.Builder(this.configuration).outputFormat(format)
+                .outputDirectory(shardDirectory.resolve(shard)).build();
+        Path output = ProcessingHub.getOutputFile(shardConfiguration);
+        synchronized (this) {
+            this.currentLease = id;
+        }
+        try {
+            new ProcessingHub(start, end.subtract(BigInteger.ONE), shardConfiguration).hubInit();
+        } finally {
+            synchronized (this) {
+                this.currentLease = 0;
+            }
+        }
+        synchronized (out) {
+            out.writeByte(RangeProtocol.COMPLETE);
+            out.writeLong(id);
+            out.writeUTF(shard);
+            out.writeLong(Files.size(output));
+            out.flush();
+        }
+        if (in.readByte() != RangeProtocol.ACCEPTED) {
+            LOG.warning("Lease " + id + " was reclaimed before it was complete, deleting " + shard);
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(output.getParent());
+        }
+    }
+
+    /**
+     * Renews the lease being computed, if any. Called by the renewer thread.
+     *
+     * @param out The connection to the coordinator
+     */
+    private void renew(DataOutputStream out) {
+        long id;
+        synchronized (this) {
+            id = this.currentLease;
+        }
+        if (id == 0) {
+            return;
+        }
+        try {
+            synchronized (out) {
+                out.writeByte(RangeProtocol.RENEW);
+                out.writeLong(id);
+                out.flush();
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Lease " + id + " couldn't be renewed", ex);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A growable, big endian byte buffer that records are encoded into before they
+ * are written. Unlike a {@link java.io.ByteArrayOutputStream} it is not
+ * synchronized and can be reused without copying.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@NotThreadSafe
+final class RecordBuffer {
+
+    private byte[] bytes;
+    private int position;
+    private int[] recordEnds = new int[64];
+    private int records;
+
+    /**
+     * Constructs a new, empty {@link RecordBuffer}.
+     *
+     * @param capacity The initial capacity, in bytes
+     */
+    RecordBuffer(int capacity) {
+        this.bytes = new byte[Math.max(16, capacity)];
+    }
+
+    private void ensureCapacity(int additional) {
+        if (this.position + additional > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.position + additional));
+        }
+    }
+
+    /**
+     * Discards the contents of this buffer.
+     */
+    void clear() {
+        this.position = 0;
+        this.records = 0;
+    }
+
+    /**
+     * Marks the current position as the end of a record.
+     */
+    void markRecord() {
+        if (this.records == this.recordEnds.length) {
+            this.recordEnds = Arrays.copyOf(this.recordEnds, this.records * 2);
+        }
+        this.recordEnds[this.records++] = this.position;
+    }
+
+    /**
+     * A getter for the number of records marked since the last
+     * {@link #clear()}.
+     *
+     * @return The record count
+     */
+    int records() {
+        return this.records;
+    }
+
+    /**
+     * Counts the marked records that fit into the specified number of bytes.
+     *
+     * @param available The number of bytes available
+     * @param oversizedFirst Whether the first record is allowed even if it
+     * doesn't fit
+     * @return The number of records that fit
+     */
+    int fittingRecords(long available, boolean oversizedFirst) {
+        int low = 0, high = this.records;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (this.recordEnds[middle - 1] <= available) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low == 0 && oversizedFirst && this.records > 0 ? 1 : low;
+    }
+
+    /**
+     * Gets the number of bytes taken by the specified number of marked
+     * records.
+     *
+     * @param count The number of records
+     * @return The length in bytes
+     */
+    int lengthOf(int count) {
+        return count == 0 ? 0 : this.recordEnds[count - 1];
+    }
+
+    /**
+     * Discards everything after the specified number of marked records.
+     *
+     * @param count The number of records to keep
+     */
+    void truncateToRecords(int count) {
+        this.position = lengthOf(count);
+        this.records = count;
+    }
+
+    /**
+     * A getter for the number of bytes in this buffer.
+     *
+     * @return The position
+     */
+    int position() {
+        return this.position;
+    }
+
+    /**
+     * A getter for the backing array. Only the first {@link #position()} bytes
+     * are valid.
+     *
+     * @return The backing array
+     */
+    byte[] array() {
+        return this.bytes;
+    }
+
+    void putByte(int value) {
+        ensureCapacity(1);
+        this.bytes[this.position++] = (byte) value;
+    }
+
+    void putShort(int value) {
+        ensureCapacity(2);
+        this.bytes[this.position++] = (byte) (value >>> 8);
+        this.bytes[this.position++] = (byte) value;
+    }
+
+    void putInt(int value) {
+        ensureCapacity(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            this.bytes[this.position++] = (byte) (value >>> shift);
+        }
+    }
+
+    void putLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            this.bytes[this.position++] = (byte) (value >>> shift);
+        }
+    }
+
+    /**
+     * Appends a value as an unsigned varint: seven bits per byte, least
+     * significant first, with the high bit set on every byte but the last.
+     *
+     * @param value The value, treated as unsigned
+     */
+    void putVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            this.bytes[this.position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.bytes[this.position++] = (byte) value;
+    }
+
+    /**
+     * Appends the contents of another buffer.
+     *
+     * @param other The buffer to copy
+     */
+    void putBuffer(RecordBuffer other) {
+        putBytes(other.bytes, 0, other.position);
+    }
+
+    void putBytes(byte[] values, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(values, offset, this.bytes, this.position, length);
+        this.position += length;
+    }
+
+    /**
+     * Pads this buffer with zeros up to the next multiple of the specified
+     * alignment.
+     *
+     * @param alignment The alignment, in bytes
+     */
+    void pad(int alignment) {
+        while (this.position % alignment != 0) {
+            putByte(0);
+        }
+    }
+
+    /**
+     * Appends the specified ASCII characters as UTF-16BE.
+     *
+     * @param text The characters
+     */
+    void putUtf16(CharSequence text) {
+        int length = text.length();
+        ensureCapacity(length * 2);
+        for (int i = 0; i < length; i++) {
+            char character = text.charAt(i);
+            this.bytes[this.position++] = (byte) (character >>> 8);
+            this.bytes[this.position++] = (byte) character;
+        }
+    }
+
+    /**
+     * Appends the decimal digits of a non-negative value as UTF-16BE, without
+     * creating a {@link String}.
+     *
+     * @param value The value
+     */
+    void putUtf16(long value) {
+        int digits = 1;
+        for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits * 2);
+        int end = this.position + digits * 2;
+        for (int i = end - 2; i >= this.position; i -= 2, value /= 10) {
+            this.bytes[i] = 0;
+            this.bytes[i + 1] = (byte) ('0' + value % 10);
+        }
+        this.position = end;
+    }
+
+    /**
+     * Writes the contents of this buffer to the specified stream.
+     *
+     * @param stream The stream
+     * @throws IOException If an IOException occurred
+     */
+    void writeTo(OutputStream stream) throws IOException {
+        stream.write(this.bytes, 0, this.position);
+    }
+}
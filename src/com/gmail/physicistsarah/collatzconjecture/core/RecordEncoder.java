@@ -0,0 +1,48 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+/**
+ * Encodes the records of one output file. Instances are created by
+ * {@link RecordFormat#newEncoder()} and may keep state between records.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+interface RecordEncoder {
+
+    /**
+     * Encodes whatever precedes the first record.
+     *
+     * @param buffer The buffer to append to
+     */
+    public void encodeHeader(RecordBuffer buffer);
+
+    /**
+     * Encodes one record.
+     *
+     * @param batch The batch holding the record
+     * @param index The index of the record in the batch
+     * @param buffer The buffer to append to
+     */
+    public void encode(ResultBatch batch, int index, RecordBuffer buffer);
+
+    /**
+     * Encodes whatever follows the last record.
+     *
+     * @param buffer The buffer to append to
+     */
+    public void encodeFooter(RecordBuffer buffer);
+
+    /**
+     * Tells the encoder that the output was cut off after the specified
+     * number of bytes, at the end of a record, because it reached its byte
+     * limit. Encoders that keep offsets forget those past the cut.
+     *
+     * @param length The length of the output, in bytes
+     */
+    public default void truncated(long length) {
+    }
+}
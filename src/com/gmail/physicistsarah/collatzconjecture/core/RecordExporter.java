@@ -0,0 +1,76 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Exports a {@link RecordFormat#BINARY} or {@link RecordFormat#BLOCK} output
+ * file as readable text, in the layout of
+ * {@link CollatzSequencer.FinalSequencerReport#toString()}.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public final class RecordExporter {
+
+    private RecordExporter() {
+        throw new AssertionError("No instances");
+    }
+
+    /**
+     * Exports a binary output file. The text is written as UTF-8 to the
+     * second argument, or to standard output if there is none.
+     *
+     * @param args The binary file and, optionally, the text file
+     * @throws IOException If an IOException occurred
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: RecordExporter <binary or block output file> [text file]");
+            System.exit(1);
+        }
+        if (args.length == 2) {
+            try (Writer writer = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+                export(Paths.get(args[0]), writer);
+            }
+        } else {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            export(Paths.get(args[0]), writer);
+            writer.flush();
+        }
+    }
+
+    /**
+     * Exports a binary output file as text.
+     *
+     * @param file The binary file
+     * @param writer The destination of the text
+     * @return The number of records exported
+     * @throws IOException If an IOException occurred
+     */
+    public static long export(@NotNull Path file, @NotNull Appendable writer) throws IOException {
+        long count = 0;
+        try (RecordReader reader = RecordReader.open(file)) {
+            while (reader.next()) {
+                writer.append(reader.toReport().toString());
+                if (reader.hasExcursions()) {
+                    writer.append("\nMaximum Excursion: ").append(reader.getMaxExcursion().toString());
+                }
+                writer.append("\n\n");
+                count++;
+            }
+        }
+        return count;
+    }
+}
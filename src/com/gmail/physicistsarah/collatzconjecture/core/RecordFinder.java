@@ -0,0 +1,97 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A {@link ResultStorage} that only passes the delay records and path records
+ * of a number range run on to another storage. Every worker hands in the
+ * candidates of its work unit, the results that set a record within the unit,
+ * since a record of the whole run must also be a record of its own unit.
+ * Units finish out of order, so they are held back until every unit before
+ * them has been merged. Only the small candidate batches are ever held.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@ThreadSafe
+final class RecordFinder implements ResultStorage {
+
+    private static final Logger LOG = Logger.getLogger(RecordFinder.class.getName());
+
+    private final ResultStorage storage;
+    @GuardedBy("this")
+    private final NavigableMap<BigInteger, ResultBatch> pending = new TreeMap<>();
+    @GuardedBy("this")
+    private final RecordTracker records = new RecordTracker();
+    @GuardedBy("this")
+    private BigInteger nextRange;
+
+    /**
+     * Constructs a new {@link RecordFinder}.
+     *
+     * @param storage The storage the records are written to
+     * @param startingNumber The first number of the run
+     */
+    RecordFinder(@NotNull ResultStorage storage, @NotNull BigInteger startingNumber) {
+        this.storage = storage;
+        this.nextRange = startingNumber;
+    }
+
+    /**
+     * Merges the candidates of every unit that is now next in line, and saves
+     * the records among them.
+     *
+     * @param batch The candidates of a work unit, holding peaks
+     * @throws IOException If an IOException occurred
+     * @throws InterruptedException If interrupted while waiting
+     */
+    @Override
+    public synchronized void saveBatch(ResultBatch batch) throws IOException, InterruptedException {
+        this.pending.put(batch.getRangeStart(), batch);
+        for (ResultBatch next = this.pending.remove(this.nextRange); next != null; next = this.pending.remove(this.nextRange)) {
+            ResultBatch found = new ResultBatch(next.size(), next.getRangeStart(), next.getRangeEnd(), true);
+            for (int i = 0; i < next.size(); i++) {
+                if (this.records.offer(next.getIterations(i), next.getPeak(i), next.isPeakLong(i) ? null : next.getBigPeak(i))) {
+                    found.add(next, i);
+                }
+            }
+            this.nextRange = next.getRangeEnd();
+            if (found.size() > 0) {
+                this.storage.saveBatch(found);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() throws IOException, InterruptedException {
+        synchronized (this) {
+            if (!this.pending.isEmpty()) {
+                LOG.warning(this.pending.size() + " work units after " + this.nextRange
+                        + " couldn't be merged, because the unit starting there never finished");
+            }
+            LOG.info("Found " + this.records);
+        }
+        this.storage.shutdown();
+    }
+
+    @Override
+    public long bytesCommitted() {
+        return this.storage.bytesCommitted();
+    }
+
+    @Override
+    public boolean isFull() {
+        return this.storage.isFull();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * The formats in which a {@link ProcessingHub} can write its results.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public enum RecordFormat {
+
+    /**
+     * The output of {@link CollatzSequencer.FinalSequencerReport#toString()}
+     * as UTF-16, each record preceded by a byte order mark and followed by two
+     * line breaks.
+     */
+    TEXT {
+        @Override
+        RecordEncoder newEncoder(boolean excursions) {
+            return new TextRecordEncoder(excursions);
+        }
+    },
+    /**
+     * The fixed width records described in {@link BinaryRecordFormat}.
+     */
+    BINARY {
+        @Override
+        RecordEncoder newEncoder(boolean excursions) {
+            return new BinaryRecordFormat.Encoder(excursions ? BinaryRecordFormat.FLAG_EXCURSIONS : 0);
+        }
+    },
+    /**
+     * The delta and varint encoded blocks with a trailing index described in
+     * {@link BlockRecordFormat}.
+     */
+    BLOCK {
+        @Override
+        RecordEncoder newEncoder(boolean excursions) {
+            return new BlockRecordFormat.Encoder(excursions ? BlockRecordFormat.FLAG_EXCURSIONS : 0);
+        }
+
+        @Override
+        boolean isIndexed() {
+            return true;
+        }
+    },
+    /**
+     * Like {@link #BLOCK}, with the payload of every block deflated.
+     */
+    DEFLATED_BLOCK {
+        @Override
+        RecordEncoder newEncoder(boolean excursions) {
+            return new BlockRecordFormat.Encoder(BlockRecordFormat.FLAG_DEFLATE
+                    | (excursions ? BlockRecordFormat.FLAG_EXCURSIONS : 0));
+        }
+
+        @Override
+        boolean isIndexed() {
+            return true;
+        }
+    };
+
+    /**
+     * Creates an encoder for a new output file.
+     *
+     * @return The encoder
+     */
+    RecordEncoder newEncoder() {
+        return newEncoder(false);
+    }
+
+    /**
+     * Creates an encoder for a new output file.
+     *
+     * @param excursions Whether every record holds the peak of its
+     * trajectory, in which case every batch must hold peaks
+     * @return The encoder
+     */
+    abstract RecordEncoder newEncoder(boolean excursions);
+
+    /**
+     * Tests whether the encoders of this format keep an index of everything
+     * they encoded, in which case one encoder has to see every record of its
+     * file and the file can't be appended to.
+     *
+     * @return Whether the format ends with an index
+     */
+    boolean isIndexed() {
+        return false;
+    }
+
+    /**
+     * Encodes records in the layout of
+     * {@link CollatzSequencer.FinalSequencerReport#toString()} without
+     * building any strings for values that fit into a {@code long}. Peaks
+     * are written on an extra line, like {@link RecordExporter} does.
+     */
+    @Immutable
+    private static final class TextRecordEncoder implements RecordEncoder {
+
+        private final boolean excursions;
+
+        TextRecordEncoder(boolean excursions) {
+            this.excursions = excursions;
+        }
+
+        @Override
+        public void encodeHeader(RecordBuffer buffer) {
+        }
+
+        @Override
+        public void encode(ResultBatch batch, int index, RecordBuffer buffer) {
+            buffer.putByte(0xFE);
+            buffer.putByte(0xFF);
+            buffer.putUtf16("Initial Value: ");
+            if (batch.isLong(index)) {
+                buffer.putUtf16(batch.getValue(index));
+            } else {
+                buffer.putUtf16(batch.getBigValue(index).toString());
+            }
+            buffer.putUtf16("\nFinal Value: 1\nIterations:  ");
+            buffer.putUtf16(batch.getIterations(index));
+            if (this.excursions) {
+                buffer.putUtf16("\nMaximum Excursion: ");
+                if (batch.isPeakLong(index)) {
+                    buffer.putUtf16(batch.getPeak(index));
+                } else {
+                    buffer.putUtf16(batch.getBigPeak(index).toString());
+                }
+            }
+            buffer.putUtf16("\n\n");
+        }
+
+        @Override
+        public void encodeFooter(RecordBuffer buffer) {
+        }
+    }
+}
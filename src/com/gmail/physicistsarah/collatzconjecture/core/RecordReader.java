@@ -0,0 +1,142 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Reads the records of an output file one at a time, in the order they were
+ * written.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public interface RecordReader extends Closeable {
+
+    /**
+     * Opens a reader for the specified output file, choosing it by the magic
+     * number at the start of the file.
+     *
+     * @param file The file
+     * @return The reader
+     * @throws IOException If the file couldn't be read or isn't in a format
+     * that can be read
+     */
+    public static RecordReader open(@NotNull Path file) throws IOException {
+        int magic;
+        try (DataInputStream stream = new DataInputStream(Files.newInputStream(file))) {
+            magic = stream.readInt();
+        } catch (EOFException ex) {
+            throw new IOException(file + " is too short to be an output file", ex);
+        }
+        if (magic == BinaryRecordFormat.MAGIC) {
+            return new BinaryRecordReader(file);
+        } else if (magic == BlockRecordFormat.MAGIC) {
+            return new BlockRecordReader(file);
+        } else if (magic >>> Short.SIZE == 0xFEFF) {
+            return new TextRecordReader(file);
+        }
+        throw new IOException(file + " isn't a " + RecordFormat.TEXT + ", " + RecordFormat.BINARY + " or " + RecordFormat.BLOCK + " output file");
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return Whether there was another record
+     * @throws IOException If the file couldn't be read
+     * @throws MalformedRecordException If the file ends inside the record or
+     * it can't be parsed
+     */
+    public boolean next() throws IOException;
+
+    /**
+     * Tests whether the records hold their maximum excursion.
+     *
+     * @return Whether {@link #getMaxExcursion()} is available
+     */
+    public boolean hasExcursions();
+
+    /**
+     * Tests whether the initial value of the current record fits into a
+     * {@code long}.
+     *
+     * @return Whether {@link #getValue()} can be used
+     */
+    public boolean isLong();
+
+    /**
+     * A getter for the initial value of the current record, if it fits into a
+     * {@code long}.
+     *
+     * @return The initial value
+     */
+    public long getValue();
+
+    /**
+     * A getter for the initial value of the current record.
+     *
+     * @return The initial value
+     */
+    public BigInteger getInitialValue();
+
+    /**
+     * A getter for the iteration count of the current record.
+     *
+     * @return The number of iterations
+     */
+    public long getIterations();
+
+    /**
+     * A getter for the maximum excursion of the current record.
+     *
+     * @return The largest value of the trajectory
+     */
+    public BigInteger getMaxExcursion();
+
+    /**
+     * Creates the report for the current record.
+     *
+     * @return The report
+     */
+    public default CollatzSequencer.FinalSequencerReport<? extends Number> toReport() {
+        if (isLong()) {
+            return new CollatzSequencer.FinalSequencerReport<>(1L, getIterations(), "", getValue());
+        } else {
+            return new CollatzSequencer.FinalSequencerReport<>(BigInteger.ONE, BigInteger.valueOf(getIterations()), "", getInitialValue());
+        }
+    }
+
+    /**
+     * Thrown when a record was cut off with the file, or can't be parsed.
+     * The records before it were read, and the reader can't go past it.
+     */
+    public static final class MalformedRecordException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long offset;
+
+        MalformedRecordException(long offset, String message) {
+            super(message);
+            this.offset = offset;
+        }
+
+        /**
+         * A getter for the offset of the record.
+         *
+         * @return The offset, in bytes
+         */
+        public long getOffset() {
+            return this.offset;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.math.BigInteger;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Tracks the largest stopping time and the largest peak seen so far, to
+ * decide which results are delay records or path records. Results must be
+ * offered in increasing order of their initial values, and ties are not
+ * records.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@NotThreadSafe
+final class RecordTracker {
+
+    private long maxIterations = -1;
+    private long maxPeak;
+    private BigInteger bigMaxPeak;
+    private long delayRecords, pathRecords;
+
+    /**
+     * Offers a result, updating the maxima if it sets a record.
+     *
+     * @param iterations The number of iterations of the result
+     * @param peak The peak of the result, if it fits into a {@code long}
+     * @param bigPeak The peak of the result, or null if it fits into a
+     * {@code long}
+     * @return Whether the result is a delay record or a path record
+     */
+    boolean offer(long iterations, long peak, BigInteger bigPeak) {
+        boolean delayRecord = iterations > this.maxIterations;
+        boolean pathRecord;
+        if (bigPeak == null) {
+            pathRecord = this.bigMaxPeak == null && peak > this.maxPeak;
+        } else {
+            pathRecord = this.bigMaxPeak == null || bigPeak.compareTo(this.bigMaxPeak) > 0;
+        }
+        if (delayRecord) {
+            this.maxIterations = iterations;
+            this.delayRecords++;
+        }
+        if (pathRecord) {
+            this.maxPeak = peak;
+            this.bigMaxPeak = bigPeak;
+            this.pathRecords++;
+        }
+        return delayRecord || pathRecord;
+    }
+
+    /**
+     * A getter for the number of delay records found.
+     *
+     * @return The number of delay records
+     */
+    long getDelayRecords() {
+        return this.delayRecords;
+    }
+
+    /**
+     * A getter for the number of path records found.
+     *
+     * @return The number of path records
+     */
+    long getPathRecords() {
+        return this.pathRecords;
+    }
+
+    @Override
+    public String toString() {
+        return this.delayRecords + " delay records up to " + this.maxIterations + " iterations and " + this.pathRecords
+                + " path records up to a peak of " + (this.bigMaxPeak == null ? Long.toString(this.maxPeak) : this.bigMaxPeak);
+    }
+}
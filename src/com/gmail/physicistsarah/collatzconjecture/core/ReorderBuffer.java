@@ -0,0 +1,132 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A {@link ResultStorage} that passes the batches of a run on to another
+ * storage strictly in the order of their ranges, so the records land in the
+ * output file in increasing order of their initial values. Work units finish
+ * out of order, so each batch is held back until every batch before it has
+ * been passed on.
+ * <p>
+ * The number of work units between the oldest one not yet passed on and the
+ * newest one dispatched is bounded by a window. The dispatcher takes a permit
+ * with {@link #awaitWindow()} before each work unit, and the permit is
+ * returned once the unit's batch has been passed on, so a slow work unit
+ * stalls the dispatcher instead of letting held batches pile up.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@ThreadSafe
+final class ReorderBuffer implements ResultStorage {
+
+    private static final Logger LOG = Logger.getLogger(ReorderBuffer.class.getName());
+
+    private final ResultStorage storage;
+    private final Semaphore window;
+    private final HubCheckpoint resumedFrom;
+    @GuardedBy("this")
+    private final NavigableMap<BigInteger, ResultBatch> pending = new TreeMap<>();
+    @GuardedBy("this")
+    private BigInteger nextRange;
+    private volatile boolean aborted;
+
+    /**
+     * Constructs a new {@link ReorderBuffer}.
+     *
+     * @param storage The storage the batches are passed on to
+     * @param firstNumber The first number of the first batch
+     * @param window The maximum number of work units dispatched but not
+     * passed on
+     * @param resumedFrom A snapshot of the checkpoint of a resumed run, whose
+     * ranges are never dispatched again and so aren't waited for, or null
+     */
+    ReorderBuffer(@NotNull ResultStorage storage, @NotNull BigInteger firstNumber, int window, HubCheckpoint resumedFrom) {
+        if (window < 1) {
+            throw new IllegalArgumentException("The reorder window is less than one");
+        }
+        this.storage = storage;
+        this.window = new Semaphore(window);
+        this.resumedFrom = resumedFrom;
+        this.nextRange = resumedFrom == null ? firstNumber : resumedFrom.skipCompleted(firstNumber);
+    }
+
+    /**
+     * Waits until the window has room for another work unit, and takes it.
+     * Only called by the dispatcher, before each work unit, in the order of
+     * the ranges. Returns at once after {@link #abort()}.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    void awaitWindow() throws InterruptedException {
+        this.window.acquire();
+        if (this.aborted) {
+            this.window.release();
+        }
+    }
+
+    /**
+     * Stops the window from blocking the dispatcher, because a work unit
+     * failed and its batch will never arrive. The batches before it are
+     * still passed on.
+     */
+    void abort() {
+        this.aborted = true;
+        this.window.release();
+    }
+
+    /**
+     * Holds the batch until every batch before it has been passed on, then
+     * passes on every batch that is now next in line.
+     *
+     * @param batch The results of a work unit, tagged with its range
+     * @throws IOException If an IOException occurred
+     * @throws InterruptedException If interrupted while waiting
+     */
+    @Override
+    public synchronized void saveBatch(ResultBatch batch) throws IOException, InterruptedException {
+        this.pending.put(batch.getRangeStart(), batch);
+        for (ResultBatch next = this.pending.remove(this.nextRange); next != null; next = this.pending.remove(this.nextRange)) {
+            this.nextRange = this.resumedFrom == null ? next.getRangeEnd() : this.resumedFrom.skipCompleted(next.getRangeEnd());
+            try {
+                this.storage.saveBatch(next);
+            } finally {
+                this.window.release();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() throws IOException, InterruptedException {
+        synchronized (this) {
+            if (!this.pending.isEmpty()) {
+                LOG.warning(this.pending.size() + " batches after " + this.nextRange
+                        + " couldn't be written, because the work unit starting there never finished");
+            }
+        }
+        this.storage.shutdown();
+    }
+
+    @Override
+    public long bytesCommitted() {
+        return this.storage.bytesCommitted();
+    }
+
+    @Override
+    public boolean isFull() {
+        return this.storage.isFull();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import static java.lang.Math.multiplyExact;
+import static java.lang.Math.subtractExact;
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.Immutable;
+
+/**
+ * A sieve over the residue classes modulo 2^k. A class is removed when every
+ * member above a small threshold provably drops below its starting value
+ * within k steps. When every smaller number is known to reach 1, a removed
+ * number reaches 1 as well, so a verification run starting at 1 only needs to
+ * compute the surviving numbers.
+ * <p>
+ * Sieves are built once per JVM for each k and shared by all threads.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@Immutable
+public final class ResidueSieve {
+
+    /**
+     * The smallest supported modulus exponent.
+     */
+    public static final int MIN_BITS = 1;
+
+    /**
+     * The largest supported modulus exponent. A bitmap of this size occupies
+     * 2 MB.
+     */
+    public static final int MAX_BITS = 24;
+
+    private static final Logger LOG = Logger.getLogger(ResidueSieve.class.getName());
+    private static final AtomicReferenceArray<ResidueSieve> SIEVES = new AtomicReferenceArray<>(MAX_BITS + 1);
+
+    /**
+     * Gets the shared sieve modulo 2^bits, building it if needed.
+     *
+     * @param bits The modulus exponent
+     * @return The sieve
+     */
+    public static ResidueSieve forBits(int bits) {
+        if (bits < MIN_BITS || bits > MAX_BITS) {
+            throw new IllegalArgumentException("The number of sieve bits must be between " + MIN_BITS + " and " + MAX_BITS);
+        }
+        ResidueSieve sieve = SIEVES.get(bits);
+        if (sieve == null) {
+            synchronized (SIEVES) {
+                sieve = SIEVES.get(bits);
+                if (sieve == null) {
+                    sieve = new ResidueSieve(bits);
+                    SIEVES.set(bits, sieve);
+                }
+            }
+        }
+        return sieve;
+    }
+
+    private final int bits;
+    private final long mask;
+    private final long[] survivors;
+    private final long survivorCount;
+
+    /**
+     * Every number up to and including this value is computed, since some of
+     * them do not drop below themselves despite their residue class.
+     */
+    private final long threshold;
+
+    private ResidueSieve(int bits) {
+        long start = System.nanoTime();
+        this.bits = bits;
+        this.mask = (1L << bits) - 1;
+        this.survivors = new long[Math.max(1, (1 << bits) >>> 6)];
+        long count = 0, maxThreshold = 0;
+        for (long residue = 0; residue <= this.mask; residue++) {
+            long descent = descentThreshold(residue, bits);
+            if (descent < 0) {
+                this.survivors[(int) (residue >>> 6)] |= 1L << residue;
+                count++;
+            } else {
+                maxThreshold = Math.max(maxThreshold, descent);
+            }
+        }
+        this.survivorCount = count;
+        this.threshold = maxThreshold;
+        LOG.fine("Built the 2^" + bits + " residue sieve in " + (System.nanoTime() - start) / 1_000_000 + " ms, "
+                + count + " surviving classes");
+    }
+
+    /**
+     * Finds the bound above which every member of the residue class drops
+     * below itself within the specified number of steps. After j steps with c
+     * odd steps, a member n of the class has the value
+     * {@code 3^c * (n - residue) / 2^j + v}, where v is the value reached by
+     * the residue itself.
+     *
+     * @param residue The residue
+     * @param bits The modulus exponent
+     * @return The bound, or -1 if the class survives
+     */
+    private static long descentThreshold(long residue, int bits) {
+        long value = residue, powerOfThree = 1;
+        try {
+            for (int step = 1; step <= bits; step++) {
+                if ((value & 1) == 0) {
+                    value >>>= 1;
+                } else {
+                    value = ((value * 3) + 1) >>> 1;
+                    powerOfThree *= 3;
+                }
+                long powerOfTwo = 1L << step;
+                if (powerOfThree < powerOfTwo) {
+                    long numerator = subtractExact(multiplyExact(powerOfTwo, value), multiplyExact(powerOfThree, residue));
+                    return Math.max(0, numerator / (powerOfTwo - powerOfThree));
+                }
+            }
+        } catch (ArithmeticException ex) {
+            //Too large to prove anything, so the class is kept
+        }
+        return -1;
+    }
+
+    /**
+     * A getter for the modulus exponent.
+     *
+     * @return The number of bits
+     */
+    public int getBits() {
+        return this.bits;
+    }
+
+    /**
+     * A getter for the number of residue classes that survive the sieve.
+     *
+     * @return The survivor count
+     */
+    public long getSurvivorCount() {
+        return this.survivorCount;
+    }
+
+    /**
+     * Tests whether the specified number has to be computed.
+     *
+     * @param number The number
+     * @return Whether it survives the sieve
+     */
+    public boolean mustCompute(long number) {
+        return number <= this.threshold || isSurvivor(number);
+    }
+
+    /**
+     * Tests whether the specified number has to be computed.
+     *
+     * @param number The number
+     * @return Whether it survives the sieve
+     */
+    public boolean mustCompute(@NotNull BigInteger number) {
+        return number.bitLength() < Long.SIZE ? mustCompute(number.longValue()) : isSurvivor(number.longValue());
+    }
+
+    /**
+     * Tests whether the residue class of the specified number survives the
+     * sieve. Only the low bits of the number are used.
+     *
+     * @param number The number
+     * @return Whether its class survives
+     */
+    private boolean isSurvivor(long number) {
+        long residue = number & this.mask;
+        return (this.survivors[(int) (residue >>> 6)] & 1L << residue) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Residue Sieve: 2^" + this.bits + ", " + this.survivorCount + " surviving classes, threshold " + this.threshold;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.math.BigInteger;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * The results of one work unit of a {@link ProcessingHub}, stored in primitive
+ * arrays. Initial values that don't fit into a {@code long} are kept in a
+ * separate array that is only allocated when it is needed. A batch can also
+ * hold the peak of every trajectory, stored the same way.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@NotThreadSafe
+final class ResultBatch {
+
+    private final long[] values;
+    private final long[] iterations;
+    private final long[] peaks;
+    private final BigInteger rangeStart, rangeEnd;
+    private BigInteger[] bigValues;
+    private BigInteger[] bigPeaks;
+    private int size;
+
+    /**
+     * Constructs a new, empty {@link ResultBatch} that doesn't belong to a
+     * range.
+     *
+     * @param capacity The maximum number of results
+     */
+    ResultBatch(int capacity) {
+        this(capacity, null, null);
+    }
+
+    /**
+     * Constructs a new, empty {@link ResultBatch} for the work unit covering
+     * the specified range. Numbers of the range that were skipped, for example
+     * by a sieve, still count as covered.
+     *
+     * @param capacity The maximum number of results
+     * @param rangeStart The first number of the range
+     * @param rangeEnd The last number of the range, exclusive
+     */
+    ResultBatch(int capacity, BigInteger rangeStart, BigInteger rangeEnd) {
+        this(capacity, rangeStart, rangeEnd, false);
+    }
+
+    /**
+     * Constructs a new, empty {@link ResultBatch} for the work unit covering
+     * the specified range.
+     *
+     * @param capacity The maximum number of results
+     * @param rangeStart The first number of the range
+     * @param rangeEnd The last number of the range, exclusive
+     * @param peaks Whether the batch holds the peak of every result
+     */
+    ResultBatch(int capacity, BigInteger rangeStart, BigInteger rangeEnd, boolean peaks) {
+        this.values = new long[capacity];
+        this.iterations = new long[capacity];
+        this.peaks = peaks ? new long[capacity] : null;
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+    }
+
+    /**
+     * Adds a result.
+     *
+     * @param value The initial value
+     * @param iterations The number of iterations it took to reach 1
+     */
+    void add(long value, long iterations) {
+        this.values[this.size] = value;
+        this.iterations[this.size] = iterations;
+        this.size++;
+    }
+
+    /**
+     * Adds a result.
+     *
+     * @param value The initial value
+     * @param iterations The number of iterations it took to reach 1
+     */
+    void add(@NotNull BigInteger value, long iterations) {
+        if (value.bitLength() < Long.SIZE) {
+            add(value.longValue(), iterations);
+            return;
+        }
+        if (this.bigValues == null) {
+            this.bigValues = new BigInteger[this.values.length];
+        }
+        this.bigValues[this.size] = value;
+        add(-1, iterations);
+    }
+
+    /**
+     * Adds a result with its peak. The batch must have been constructed to
+     * hold peaks.
+     *
+     * @param value The initial value
+     * @param trajectory The statistics of the trajectory
+     */
+    void add(long value, @NotNull TrajectoryStatistics trajectory) {
+        addPeak(trajectory.getPeak(), trajectory.isPeakLong() ? null : trajectory.getBigPeak());
+        add(value, trajectory.getIterations());
+    }
+
+    /**
+     * Adds a result with its peak. The batch must have been constructed to
+     * hold peaks.
+     *
+     * @param value The initial value
+     * @param trajectory The statistics of the trajectory
+     */
+    void add(@NotNull BigInteger value, @NotNull TrajectoryStatistics trajectory) {
+        addPeak(trajectory.getPeak(), trajectory.isPeakLong() ? null : trajectory.getBigPeak());
+        add(value, trajectory.getIterations());
+    }
+
+    /**
+     * Copies the result at the specified index of another batch holding peaks
+     * into this one.
+     *
+     * @param batch The other batch
+     * @param index The index of the result in the other batch
+     */
+    void add(@NotNull ResultBatch batch, int index) {
+        addPeak(batch.getPeak(index), batch.isPeakLong(index) ? null : batch.getBigPeak(index));
+        if (batch.isLong(index)) {
+            add(batch.getValue(index), batch.getIterations(index));
+        } else {
+            add(batch.getBigValue(index), batch.getIterations(index));
+        }
+    }
+
+    private void addPeak(long peak, BigInteger bigPeak) {
+        if (bigPeak != null) {
+            if (this.bigPeaks == null) {
+                this.bigPeaks = new BigInteger[this.values.length];
+            }
+            this.bigPeaks[this.size] = bigPeak;
+            peak = -1;
+        }
+        this.peaks[this.size] = peak;
+    }
+
+    /**
+     * A getter for the number of results.
+     *
+     * @return The size
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * A getter for the first number of the range this batch covers.
+     *
+     * @return The first number, or null if the batch doesn't belong to a range
+     */
+    BigInteger getRangeStart() {
+        return this.rangeStart;
+    }
+
+    /**
+     * A getter for the end of the range this batch covers.
+     *
+     * @return The last number, exclusive, or null if the batch doesn't belong
+     * to a range
+     */
+    BigInteger getRangeEnd() {
+        return this.rangeEnd;
+    }
+
+    /**
+     * Tests whether the initial value at the specified index fits into a
+     * {@code long}.
+     *
+     * @param index The index
+     * @return Whether {@link #getValue(int)} can be used
+     */
+    boolean isLong(int index) {
+        return this.bigValues == null || this.bigValues[index] == null;
+    }
+
+    /**
+     * A getter for the initial value at the specified index, if it fits into a
+     * {@code long}.
+     *
+     * @param index The index
+     * @return The initial value
+     */
+    long getValue(int index) {
+        return this.values[index];
+    }
+
+    /**
+     * A getter for the initial value at the specified index.
+     *
+     * @param index The index
+     * @return The initial value
+     */
+    BigInteger getBigValue(int index) {
+        return isLong(index) ? BigInteger.valueOf(this.values[index]) : this.bigValues[index];
+    }
+
+    /**
+     * A getter for the number of iterations at the specified index.
+     *
+     * @param index The index
+     * @return The number of iterations
+     */
+    long getIterations(int index) {
+        return this.iterations[index];
+    }
+
+    /**
+     * Tests whether this batch holds the peak of every result.
+     *
+     * @return Whether the peaks are available
+     */
+    boolean hasPeaks() {
+        return this.peaks != null;
+    }
+
+    /**
+     * Tests whether the peak at the specified index fits into a
+     * {@code long}.
+     *
+     * @param index The index
+     * @return Whether {@link #getPeak(int)} can be used
+     */
+    boolean isPeakLong(int index) {
+        return this.bigPeaks == null || this.bigPeaks[index] == null;
+    }
+
+    /**
+     * A getter for the peak at the specified index, if it fits into a
+     * {@code long}.
+     *
+     * @param index The index
+     * @return The largest value of the trajectory
+     */
+    long getPeak(int index) {
+        return this.peaks[index];
+    }
+
+    /**
+     * A getter for the peak at the specified index.
+     *
+     * @param index The index
+     * @return The largest value of the trajectory
+     */
+    BigInteger getBigPeak(int index) {
+        return isPeakLong(index) ? BigInteger.valueOf(this.peaks[index]) : this.bigPeaks[index];
+    }
+
+    /**
+     * Creates the report for the result at the specified index.
+     *
+     * @param index The index
+     * @return The report
+     */
+    CollatzSequencer.FinalSequencerReport<? extends Number> toReport(int index) {
+        if (isLong(index)) {
+            return new CollatzSequencer.FinalSequencerReport<>(1L, this.iterations[index], "", this.values[index]);
+        } else {
+            return new CollatzSequencer.FinalSequencerReport<>(BigInteger.ONE, BigInteger.valueOf(this.iterations[index]), "",
+                    this.bigValues[index]);
+        }
+    }
+}
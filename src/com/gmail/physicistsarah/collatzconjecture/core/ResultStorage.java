@@ -0,0 +1,53 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+
+/**
+ * The destination of the results computed by a {@link ProcessingHub}. A
+ * storage may be given a byte limit, in which case it keeps every record that
+ * fits and discards the rest. The header and records count toward the limit,
+ * the footer doesn't, and the first record is always kept.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+interface ResultStorage {
+
+    /**
+     * Saves the results of a work unit.
+     *
+     * @param batch The results to save
+     * @throws IOException If an IOException occurred
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void saveBatch(ResultBatch batch) throws IOException, InterruptedException;
+
+    /**
+     * Shuts down this storage once every saved batch has been handed over.
+     *
+     * @throws IOException If an IOException occurred
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void shutdown() throws IOException, InterruptedException;
+
+    /**
+     * A getter for the exact number of bytes encoded and committed to the
+     * output so far, including the header. Unlike the size of the file on the
+     * disk this includes bytes that are still buffered.
+     *
+     * @return The size in bytes
+     */
+    public long bytesCommitted();
+
+    /**
+     * Tests whether a record has been discarded because it didn't fit into
+     * the byte limit. Once this is true every later batch is discarded.
+     *
+     * @return Whether the storage is full
+     */
+    public boolean isFull();
+}
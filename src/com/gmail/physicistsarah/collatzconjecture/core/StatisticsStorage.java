@@ -0,0 +1,83 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * The storage of the statistics mode, which writes no records, only a summary
+ * of the distributions of a number range run. It isn't a
+ * {@link ResultStorage}, there are no batches to save. Every worker thread
+ * counts into its own {@link TrajectoryHistogram}, so the workers share
+ * nothing while they compute, and the histograms are merged when the
+ * storage is shut down.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@ThreadSafe
+final class StatisticsStorage {
+
+    private static final Logger LOG = Logger.getLogger(StatisticsStorage.class.getName());
+
+    private final Path file;
+    private final BigInteger startingNumber, endingNumber;
+    private final List<TrajectoryHistogram> histograms = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<TrajectoryHistogram> localHistogram = ThreadLocal.withInitial(() -> {
+        TrajectoryHistogram histogram = new TrajectoryHistogram();
+        this.histograms.add(histogram);
+        return histogram;
+    });
+
+    /**
+     * Constructs a new {@link StatisticsStorage}.
+     *
+     * @param file The summary file
+     * @param startingNumber The first number of the run
+     * @param endingNumber The last number of the run
+     */
+    StatisticsStorage(@NotNull Path file, @NotNull BigInteger startingNumber, @NotNull BigInteger endingNumber) {
+        this.file = file;
+        this.startingNumber = startingNumber;
+        this.endingNumber = endingNumber;
+    }
+
+    /**
+     * Gets the histogram of the calling thread.
+     *
+     * @return The histogram, only to be used by the calling thread
+     */
+    TrajectoryHistogram histogram() {
+        return this.localHistogram.get();
+    }
+
+    /**
+     * Merges the histograms and writes the summary. Must only be called once
+     * every worker has finished.
+     *
+     * @throws IOException If the summary couldn't be written
+     */
+    void shutdown() throws IOException {
+        TrajectoryHistogram total = new TrajectoryHistogram();
+        for (TrajectoryHistogram histogram : this.histograms) {
+            total.merge(histogram);
+        }
+        try (Writer writer = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8)) {
+            writer.append("Range: ").append(this.startingNumber.toString()).append(" to ").append(this.endingNumber.toString()).append('\n');
+            total.writeSummary(writer);
+        }
+        LOG.info("Wrote the statistics of " + total.getCount() + " numbers from " + this.histograms.size() + " threads to " + this.file);
+    }
+}
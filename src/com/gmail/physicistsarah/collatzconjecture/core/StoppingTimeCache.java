@@ -0,0 +1,168 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A bounded, direct-mapped table of known stopping times, shared between all
+ * of the threads of a {@link ProcessingHub}. Each slot packs the value and its
+ * iteration count into one {@code long}, so readers never see a torn entry.
+ * When two values map to the same slot the smaller one is kept, since smaller
+ * values are reached by more trajectories.
+ * <p>
+ * The table is seeded with the stopping times of every value below its size,
+ * each in its own slot. Nothing smaller maps to those slots, so the seed is
+ * never evicted, and every trajectory that drops below the size of the table
+ * ends in a hit, however far above it the run started. Otherwise a run
+ * starting above the size would fill the table with its first starting
+ * values and keep them, while the later trajectories fall below their start
+ * into values that were never cached.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@ThreadSafe
+public final class StoppingTimeCache {
+
+    /**
+     * The number of low bits of a slot holding the iteration count.
+     */
+    private static final int ITERATION_BITS = 20;
+    private static final long ITERATION_MASK = (1L << ITERATION_BITS) - 1;
+
+    /**
+     * The largest value that can be stored in the cache.
+     */
+    public static final long MAX_CACHEABLE_VALUE = (1L << (Long.SIZE - ITERATION_BITS - 1)) - 1;
+
+    /**
+     * The largest iteration count that can be stored in the cache.
+     */
+    public static final long MAX_CACHEABLE_ITERATIONS = ITERATION_MASK;
+
+    private final AtomicLongArray table;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructs a new {@link StoppingTimeCache} and seeds it. The capacity is
+     * rounded up to the next power of two. Seeding takes a few steps per
+     * entry, so it is quick for the default capacity but noticeable for the
+     * largest ones.
+     *
+     * @param capacity The maximum number of entries
+     */
+    public StoppingTimeCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be greater than zero");
+        } else if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("The capacity can't be larger than 2^30");
+        }
+        int size = Integer.highestOneBit(capacity);
+        size = size < capacity ? size << 1 : size;
+        this.table = new AtomicLongArray(size);
+        this.mask = size - 1;
+        seed();
+    }
+
+    /**
+     * Stores the stopping time of every value below the size of the table.
+     * The values are seeded in ascending order, so each trajectory only needs
+     * to be followed until it drops below its start.
+     */
+    private void seed() {
+        if (this.mask == 0) {
+            return;
+        }
+        this.table.set(1, 1L << ITERATION_BITS);
+        for (int value = 2; value <= this.mask; value++) {
+            long number = value, iterations = 0;
+            while (number >= value) {
+                if ((number & 1) == 0) {
+                    int zeros = Long.numberOfTrailingZeros(number);
+                    number >>>= zeros;
+                    iterations += zeros;
+                } else {
+                    number = (number * 3) + 1;
+                    iterations++;
+                }
+            }
+            iterations += this.table.get((int) number) & ITERATION_MASK;
+            this.table.set(value, (long) value << ITERATION_BITS | iterations);
+        }
+    }
+
+    /**
+     * Looks up the iteration count of the specified value.
+     *
+     * @param value The value
+     * @return The iteration count, or -1 if it isn't known
+     */
+    public long get(long value) {
+        long entry = this.table.get((int) value & this.mask);
+        if (entry != 0 && entry >>> ITERATION_BITS == value) {
+            this.hits.increment();
+            return entry & ITERATION_MASK;
+        }
+        this.misses.increment();
+        return -1;
+    }
+
+    /**
+     * Records the iteration count of the specified value. Values and counts
+     * that don't fit into a slot are ignored.
+     *
+     * @param value The value
+     * @param iterations The number of iterations it takes to reach 1
+     */
+    public void put(long value, long iterations) {
+        if (value < 1 || value > MAX_CACHEABLE_VALUE || iterations < 0 || iterations > MAX_CACHEABLE_ITERATIONS) {
+            return;
+        }
+        int index = (int) value & this.mask;
+        long current = this.table.get(index);
+        if (current == 0 || current >>> ITERATION_BITS > value) {
+            this.table.compareAndSet(index, current, value << ITERATION_BITS | iterations);
+        }
+    }
+
+    /**
+     * A getter for the number of entries the cache can hold.
+     *
+     * @return The capacity
+     */
+    public int getCapacity() {
+        return this.table.length();
+    }
+
+    /**
+     * A getter for the number of successful lookups.
+     *
+     * @return The hit count
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * A getter for the number of failed lookups.
+     *
+     * @return The miss count
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        long hitCount = getHits(), missCount = getMisses();
+        return "Stopping Time Cache: capacity " + getCapacity() + ", hits " + hitCount + ", misses " + missCount
+                + (hitCount + missCount == 0 ? "" : String.format(", hit rate %.2f%%", 100.0 * hitCount / (hitCount + missCount)));
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Answers stopping time lookups from memory mapped output files. The files
+ * are either a single {@link RecordFormat#BINARY} or {@link RecordFormat#BLOCK}
+ * output file, the output directory of a hub, or the shard directory of a
+ * {@link RangeCoordinator}, whose shard index decides which shard is asked
+ * for a number. Numbers that aren't found are computed by
+ * {@link CollatzSequencer}, so every lookup is answered. Any number of
+ * threads can look up at the same time, and the latency of every lookup is
+ * recorded.
+ * <p>
+ * A {@link RecordFormat#BINARY} file written with an ordered output answers
+ * in constant time, reading the record at the slot of the number. A block
+ * file is searched by its index and decodes one block per lookup, which is
+ * slower but needs a fraction of the disk, and range lookups decode each
+ * block only once.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@ThreadSafe
+public final class StoppingTimeLookup implements StoppingTimeLookupMXBean {
+
+    private static final Logger LOG = Logger.getLogger(StoppingTimeLookup.class.getName());
+
+    /**
+     * The largest number of stopping times a range lookup returns.
+     */
+    public static final int MAX_RANGE = 1 << 24;
+
+    /**
+     * Opens the output files at the specified path and answers the lookups
+     * read from standard input, one per line: a number, or the first and last
+     * number of a range separated by a dash. Every stopping time is printed
+     * after its number, and the lookup latencies are printed once the input
+     * ends.
+     *
+     * @param args The output file or directory
+     * @throws IOException If the output files couldn't be opened
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: StoppingTimeLookup <output file, output directory or shard directory>");
+            System.exit(2);
+        }
+        StoppingTimeLookup lookup = open(Paths.get(args[0]));
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(lookup,
+                    new ObjectName("com.gmail.physicistsarah.collatzconjecture:type=StoppingTimeLookup"));
+        } catch (JMException ex) {
+            LOG.log(Level.WARNING, "The lookup metrics couldn't be registered", ex);
+        }
+        PrintWriter out = new PrintWriter(System.out);
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            line = line.trim();
+            int dash = line.indexOf('-', 1);
+            try {
+                if (dash < 0) {
+                    out.println(line + "\t" + lookup.getIterations(new BigInteger(line)));
+                } else {
+                    long first = Long.parseLong(line.substring(0, dash).trim());
+                    long[] iterations = lookup.getIterations(first, Long.parseLong(line.substring(dash + 1).trim()));
+                    for (int i = 0; i < iterations.length; i++) {
+                        out.println((first + i) + "\t" + iterations[i]);
+                    }
+                }
+            } catch (IllegalArgumentException ex) {
+                out.println(line + "\t" + ex.getMessage());
+            }
+        }
+        out.flush();
+        System.err.println(lookup);
+    }
+
+    /**
+     * Maps the output files at the specified path.
+     *
+     * @param path An output file, the output directory of a hub, or the shard
+     * directory of a {@link RangeCoordinator}
+     * @return The lookup
+     * @throws IOException If an output file couldn't be mapped
+     */
+    public static StoppingTimeLookup open(@NotNull Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return new StoppingTimeLookup(new long[]{Long.MIN_VALUE}, new long[]{Long.MAX_VALUE},
+                    new MappedShard[]{MappedShard.open(path)});
+        }
+        Path index = path.resolve(RangeCoordinator.INDEX_FILE_NAME);
+        if (!Files.exists(index)) {
+            return open(ProcessingHub.getOutputFile(path));
+        }
+        List<String[]> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (fields.length != 4) {
+                throw new IOException("Invalid line in the shard index: " + line);
+            }
+            BigInteger end = new BigInteger(fields[1]);
+            if (end.bitLength() < Long.SIZE) {
+                lines.add(fields);
+            } else {
+                LOG.warning("Leaving out the shard " + fields[3] + ", its numbers don't fit into a long");
+            }
+        }
+        lines.sort((String[] first, String[] second) -> Long.compare(Long.parseLong(first[0]), Long.parseLong(second[0])));
+        long[] starts = new long[lines.size()], ends = new long[lines.size()];
+        MappedShard[] shards = new MappedShard[lines.size()];
+        for (int i = 0; i < shards.length; i++) {
+            starts[i] = Long.parseLong(lines.get(i)[0]);
+            ends[i] = Long.parseLong(lines.get(i)[1]);
+            shards[i] = MappedShard.open(ProcessingHub.getOutputFile(path.resolve(lines.get(i)[3])));
+        }
+        LOG.info("Mapped " + shards.length + " shards from " + index);
+        return new StoppingTimeLookup(starts, ends, shards);
+    }
+
+    private final long[] starts, ends;
+    private final MappedShard[] shards;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder numbersFound = new LongAdder();
+    private final LongAdder numbersComputed = new LongAdder();
+    private final LongAdder lookupNanos = new LongAdder();
+    private final LongAdder[] lookupLatency = new LongAdder[HubMetrics.LATENCY_BUCKETS];
+
+    /**
+     * Constructs a new {@link StoppingTimeLookup}.
+     *
+     * @param starts The first number of every shard, ascending
+     * @param ends The exclusive end of every shard
+     * @param shards The shards
+     */
+    private StoppingTimeLookup(long[] starts, long[] ends, MappedShard[] shards) {
+        this.starts = starts;
+        this.ends = ends;
+        this.shards = shards;
+        for (int i = 0; i < this.lookupLatency.length; i++) {
+            this.lookupLatency[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Finds the shard covering a number.
+     *
+     * @param number The number
+     * @return The index of the shard with the largest start not above the
+     * number, or -1
+     */
+    private int findShard(long number) {
+        int shard = Arrays.binarySearch(this.starts, number);
+        return shard >= 0 ? shard : -shard - 2;
+    }
+
+    private void record(long started, long found, long computed) {
+        long nanos = System.nanoTime() - started;
+        this.lookups.increment();
+        this.numbersFound.add(found);
+        this.numbersComputed.add(computed);
+        this.lookupNanos.add(nanos);
+        this.lookupLatency[Math.min(HubMetrics.LATENCY_BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos))].increment();
+    }
+
+    /**
+     * Looks up the stopping time of a number.
+     *
+     * @param number The initial value, a natural number
+     * @return The number of iterations it takes to reach 1
+     */
+    public long getIterations(long number) {
+        if (number < 1) {
+            throw new IllegalArgumentException("The number " + number + " isn't a natural number");
+        }
+        long started = System.nanoTime();
+        int shard = findShard(number);
+        long iterations = shard >= 0 && number < this.ends[shard] ? this.shards[shard].lookup(number) : -1;
+        if (iterations >= 0) {
+            record(started, 1, 0);
+            return iterations;
+        }
+        iterations = CollatzSequencer.iterations(number);
+        record(started, 0, 1);
+        return iterations;
+    }
+
+    /**
+     * Looks up the stopping time of a number. Numbers past 64 bits are always
+     * computed.
+     *
+     * @param number The initial value, a natural number
+     * @return The number of iterations it takes to reach 1
+     */
+    public long getIterations(@NotNull BigInteger number) {
+        if (number.bitLength() < Long.SIZE) {
+            return getIterations(number.longValue());
+        }
+        long started = System.nanoTime();
+        long iterations = CollatzSequencer.iterations(number);
+        record(started, 0, 1);
+        return iterations;
+    }
+
+    /**
+     * Looks up the stopping times of a range of numbers.
+     *
+     * @param first The first number, a natural number
+     * @param last The last number, inclusive
+     * @return The stopping time of the number {@code first + i} at index
+     * {@code i}
+     */
+    public long[] getIterations(long first, long last) {
+        if (first < 1) {
+            throw new IllegalArgumentException("The number " + first + " isn't a natural number");
+        } else if (last < first || last - first >= MAX_RANGE) {
+            throw new IllegalArgumentException("The range " + first + "-" + last + " is empty or longer than " + MAX_RANGE);
+        }
+        long started = System.nanoTime();
+        long[] iterations = new long[(int) (last - first + 1)];
+        Arrays.fill(iterations, -1);
+        long found = 0;
+        for (int shard = Math.max(0, findShard(first)); shard < this.shards.length && this.starts[shard] <= last; shard++) {
+            long from = Math.max(first, this.starts[shard]), to = Math.min(last, this.ends[shard] - 1);
+            if (from <= to) {
+                found += this.shards[shard].lookup(from, to, iterations, (int) (from - first));
+            }
+        }
+        for (int i = 0; i < iterations.length; i++) {
+            if (iterations[i] < 0) {
+                iterations[i] = CollatzSequencer.iterations(first + i);
+            }
+        }
+        record(started, found, iterations.length - found);
+        return iterations;
+    }
+
+    @Override
+    public int getShards() {
+        return this.shards.length;
+    }
+
+    @Override
+    public long getLookups() {
+        return this.lookups.sum();
+    }
+
+    @Override
+    public long getNumbersFound() {
+        return this.numbersFound.sum();
+    }
+
+    @Override
+    public long getNumbersComputed() {
+        return this.numbersComputed.sum();
+    }
+
+    @Override
+    public double getMeanLookupNanos() {
+        long count = getLookups();
+        return count == 0 ? 0 : (double) this.lookupNanos.sum() / count;
+    }
+
+    @Override
+    public long[] getLookupLatencyHistogram() {
+        long[] counts = new long[HubMetrics.LATENCY_BUCKETS];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.lookupLatency[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Summarizes the lookups on one line.
+     *
+     * @return The summary
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d lookups on %d shards, %d numbers found and %d computed, mean latency %.0f ns",
+                getLookups(), getShards(), getNumbersFound(), getNumbersComputed(), getMeanLookupNanos());
+    }
+}
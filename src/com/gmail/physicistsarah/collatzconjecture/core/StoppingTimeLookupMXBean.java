@@ -0,0 +1,62 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+/**
+ * The management interface of a {@link StoppingTimeLookup}, published
+ * through JMX.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public interface StoppingTimeLookupMXBean {
+
+    /**
+     * A getter for the number of mapped output files.
+     *
+     * @return The shard count
+     */
+    public int getShards();
+
+    /**
+     * A getter for the number of point and range lookups so far.
+     *
+     * @return The lookup count
+     */
+    public long getLookups();
+
+    /**
+     * A getter for the number of stopping times found in the shards.
+     *
+     * @return The count
+     */
+    public long getNumbersFound();
+
+    /**
+     * A getter for the number of stopping times that weren't in any shard
+     * and were computed instead.
+     *
+     * @return The count
+     */
+    public long getNumbersComputed();
+
+    /**
+     * A getter for the mean time a lookup took, including the stopping times
+     * computed for misses.
+     *
+     * @return The mean latency, in nanoseconds
+     */
+    public double getMeanLookupNanos();
+
+    /**
+     * A getter for the distribution of the lookup latencies. Bucket 0 counts
+     * lookups under a nanosecond, and bucket {@code i} counts those that took
+     * at least {@code 2^(i - 1)} and less than {@code 2^i} nanoseconds. The
+     * last bucket also counts everything slower.
+     *
+     * @return The lookup counts per bucket
+     */
+    public long[] getLookupLatencyHistogram();
+}
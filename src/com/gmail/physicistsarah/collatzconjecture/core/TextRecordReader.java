@@ -0,0 +1,259 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Reads the records of a {@link RecordFormat#TEXT} output file one at a
+ * time. The file is read through a window that only has to hold the record
+ * being parsed, and values that fit into a {@code long} are parsed without
+ * allocating. Every record starts with a byte order mark, and as the
+ * characters of a record are all ASCII the mark can't appear anywhere else,
+ * so a reader can start at any offset of the file and find the next record.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@NotThreadSafe
+public final class TextRecordReader implements RecordReader {
+
+    private static final int BYTE_ORDER_MARK = 0xFEFF;
+    private static final String INITIAL_VALUE = "Initial Value: ", FINAL_VALUE = "\nFinal Value: ", ITERATIONS = "\nIterations:",
+            MAXIMUM_EXCURSION = "\nMaximum Excursion: ";
+
+    private final FileChannel channel;
+    private final long end;
+    private byte[] bytes = new byte[1 << 20];
+    private long bufferStart, recordStart, position;
+    private int bufferLength;
+    private boolean synchronize;
+    private long value, iterations, maxExcursion;
+    private BigInteger bigValue, bigMaxExcursion, bigNumber;
+    private boolean excursions;
+
+    /**
+     * Opens the specified file.
+     *
+     * @param file The file
+     * @throws IOException If the file couldn't be opened
+     */
+    public TextRecordReader(@NotNull Path file) throws IOException {
+        this(file, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens the specified file to read the records that start within a range
+     * of offsets.
+     *
+     * @param file The file
+     * @param start The first offset
+     * @param end The end of the range, exclusive
+     * @throws IOException If the file couldn't be opened
+     */
+    TextRecordReader(@NotNull Path file, long start, long end) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.end = end;
+        this.position = start + (start & 1);
+        this.bufferStart = this.position;
+        this.recordStart = this.position;
+        this.synchronize = start != 0;
+    }
+
+    /**
+     * Gets the character at the specified offset, reading more of the file if
+     * the window doesn't hold it. The window keeps everything from the start
+     * of the current record.
+     *
+     * @param offset The offset
+     * @return The character, or -1 at the end of the file
+     * @throws IOException If the file couldn't be read
+     */
+    private int charAt(long offset) throws IOException {
+        if (offset + 2 > this.bufferStart + this.bufferLength && !fill(offset + 2)) {
+            return -1;
+        }
+        int index = (int) (offset - this.bufferStart);
+        return ((this.bytes[index] & 0xFF) << 8) | (this.bytes[index + 1] & 0xFF);
+    }
+
+    private boolean fill(long needed) throws IOException {
+        int discarded = (int) (this.recordStart - this.bufferStart);
+        System.arraycopy(this.bytes, discarded, this.bytes, 0, this.bufferLength - discarded);
+        this.bufferLength -= discarded;
+        this.bufferStart = this.recordStart;
+        if (needed - this.bufferStart > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, (int) Math.max(this.bytes.length * 2L, needed - this.bufferStart));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(this.bytes, this.bufferLength, this.bytes.length - this.bufferLength);
+        while (this.bufferStart + buffer.position() < needed) {
+            if (this.channel.read(buffer, this.bufferStart + buffer.position()) < 0) {
+                break;
+            }
+        }
+        this.bufferLength = buffer.position();
+        return this.bufferStart + this.bufferLength >= needed;
+    }
+
+    private void expect(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++, this.position += 2) {
+            int character = charAt(this.position);
+            if (character != text.charAt(i)) {
+                throw new MalformedRecordException(this.recordStart, character < 0 ? "The file ends inside the record at " + this.recordStart
+                        : "The record at " + this.recordStart + " doesn't match the text format");
+            }
+        }
+    }
+
+    private boolean matches(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            if (charAt(this.position + 2L * i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        this.position += 2L * text.length();
+        return true;
+    }
+
+    /**
+     * Parses the decimal number at the current position. Numbers that don't
+     * fit into a {@code long} are left in {@code bigNumber}, which is
+     * null otherwise.
+     *
+     * @return The number, if it fits into a {@code long}
+     * @throws IOException If there is no number at the current position
+     */
+    private long parseNumber() throws IOException {
+        long number = 0;
+        BigInteger big = null;
+        int digits = 0;
+        for (int character = charAt(this.position); character >= '0' && character <= '9'; character = charAt(this.position)) {
+            int digit = character - '0';
+            if (big == null && (number < Long.MAX_VALUE / 10 || (number == Long.MAX_VALUE / 10 && digit <= Long.MAX_VALUE % 10))) {
+                number = number * 10 + digit;
+            } else {
+                big = (big == null ? BigInteger.valueOf(number) : big).multiply(BigInteger.TEN).add(BigInteger.valueOf(digit));
+            }
+            this.position += 2;
+            digits++;
+        }
+        if (digits == 0) {
+            throw new MalformedRecordException(this.recordStart, "The record at " + this.recordStart + " is missing a number");
+        }
+        this.bigNumber = big;
+        return number;
+    }
+
+    /**
+     * Skips to the first record at or after the start of the range.
+     *
+     * @return Whether a record was found
+     * @throws IOException If the file couldn't be read
+     */
+    private boolean synchronize() throws IOException {
+        while (this.position < this.end) {
+            this.recordStart = this.position;
+            int character = charAt(this.position);
+            if (character < 0) {
+                return false;
+            } else if (character == BYTE_ORDER_MARK && charAt(this.position + 2) == INITIAL_VALUE.charAt(0)) {
+                return true;
+            }
+            this.position += 2;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (this.synchronize) {
+            this.synchronize = false;
+            if (!synchronize()) {
+                return false;
+            }
+        }
+        this.recordStart = this.position;
+        int mark = this.position < this.end ? charAt(this.position) : -1;
+        if (mark < 0) {
+            return false;
+        } else if (mark != BYTE_ORDER_MARK) {
+            throw new MalformedRecordException(this.position, "There is no record at " + this.position);
+        }
+        this.position += 2;
+        expect(INITIAL_VALUE);
+        this.value = parseNumber();
+        this.bigValue = this.bigNumber;
+        expect(FINAL_VALUE);
+        parseNumber();
+        expect(ITERATIONS);
+        while (charAt(this.position) == ' ') {
+            this.position += 2;
+        }
+        this.iterations = parseNumber();
+        if (this.bigNumber != null) {
+            throw new MalformedRecordException(this.recordStart,
+                    "The iteration count of the record at " + this.recordStart + " doesn't fit into a long");
+        }
+        this.excursions = matches(MAXIMUM_EXCURSION);
+        if (this.excursions) {
+            this.maxExcursion = parseNumber();
+            this.bigMaxExcursion = this.bigNumber;
+        }
+        expect("\n\n");
+        return true;
+    }
+
+    /**
+     * Tests whether the current record holds its maximum excursion. Text
+     * files don't say whether all of their records do.
+     *
+     * @return Whether {@link #getMaxExcursion()} is available
+     */
+    @Override
+    public boolean hasExcursions() {
+        return this.excursions;
+    }
+
+    @Override
+    public boolean isLong() {
+        return this.bigValue == null;
+    }
+
+    @Override
+    public long getValue() {
+        return this.value;
+    }
+
+    @Override
+    public BigInteger getInitialValue() {
+        return isLong() ? BigInteger.valueOf(this.value) : this.bigValue;
+    }
+
+    @Override
+    public long getIterations() {
+        return this.iterations;
+    }
+
+    @Override
+    public BigInteger getMaxExcursion() {
+        if (!hasExcursions()) {
+            throw new IllegalStateException("The record doesn't hold its maximum excursion");
+        }
+        return this.bigMaxExcursion == null ? BigInteger.valueOf(this.maxExcursion) : this.bigMaxExcursion;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * The distributions of the stopping times and the peaks of many trajectories,
+ * counted in primitive arrays. Stopping times are counted exactly, peaks by
+ * their bit length. Each worker fills its own histogram, and the histograms
+ * are merged once the workers are done.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@NotThreadSafe
+final class TrajectoryHistogram {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private long[] iterationCounts = new long[1024];
+    private long[] peakBitCounts = new long[Long.SIZE + 1];
+    private long count;
+
+    /**
+     * Counts a trajectory.
+     *
+     * @param trajectory The statistics of the trajectory
+     */
+    void add(@NotNull TrajectoryStatistics trajectory) {
+        long iterations = trajectory.getIterations();
+        if (iterations >= this.iterationCounts.length) {
+            this.iterationCounts = Arrays.copyOf(this.iterationCounts, (int) Math.max(iterations + 1, this.iterationCounts.length * 2L));
+        }
+        this.iterationCounts[(int) iterations]++;
+        int bits = trajectory.isPeakLong() ? Long.SIZE - Long.numberOfLeadingZeros(trajectory.getPeak())
+                : trajectory.getBigPeak().bitLength();
+        if (bits >= this.peakBitCounts.length) {
+            this.peakBitCounts = Arrays.copyOf(this.peakBitCounts, bits + 1);
+        }
+        this.peakBitCounts[bits]++;
+        this.count++;
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other The other histogram
+     */
+    void merge(@NotNull TrajectoryHistogram other) {
+        this.iterationCounts = mergeCounts(this.iterationCounts, other.iterationCounts);
+        this.peakBitCounts = mergeCounts(this.peakBitCounts, other.peakBitCounts);
+        this.count += other.count;
+    }
+
+    private static long[] mergeCounts(long[] counts, long[] other) {
+        if (other.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.length);
+        }
+        for (int i = 0; i < other.length; i++) {
+            counts[i] += other[i];
+        }
+        return counts;
+    }
+
+    /**
+     * A getter for the number of trajectories counted.
+     *
+     * @return The count
+     */
+    long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Gets the mean stopping time.
+     *
+     * @return The mean, or NaN if nothing was counted
+     */
+    double getMeanIterations() {
+        double sum = 0;
+        for (int i = 0; i < this.iterationCounts.length; i++) {
+            sum += (double) i * this.iterationCounts[i];
+        }
+        return sum / this.count;
+    }
+
+    /**
+     * Gets the standard deviation of the stopping times.
+     *
+     * @return The standard deviation, or NaN if nothing was counted
+     */
+    double getIterationsDeviation() {
+        double mean = getMeanIterations(), sum = 0;
+        for (int i = 0; i < this.iterationCounts.length; i++) {
+            sum += (i - mean) * (i - mean) * this.iterationCounts[i];
+        }
+        return Math.sqrt(sum / this.count);
+    }
+
+    /**
+     * Gets the smallest stopping time that at least the specified share of the
+     * trajectories don't exceed.
+     *
+     * @param percentile The share, in percent
+     * @return The stopping time, or -1 if nothing was counted
+     */
+    long getIterationsPercentile(double percentile) {
+        long rank = (long) Math.ceil(this.count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < this.iterationCounts.length; i++) {
+            seen += this.iterationCounts[i];
+            if (seen >= Math.max(1, rank)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes a readable summary: the mean, deviation and percentiles of the
+     * stopping times, then the count of every stopping time and of every peak
+     * bit length that occurred.
+     *
+     * @param writer The destination of the summary
+     * @throws IOException If an IOException occurred
+     */
+    void writeSummary(@NotNull Appendable writer) throws IOException {
+        writer.append("Numbers: ").append(Long.toString(this.count)).append('\n');
+        writer.append("Mean Iterations: ").append(String.format(Locale.ROOT, "%.4f", getMeanIterations())).append('\n');
+        writer.append("Standard Deviation: ").append(String.format(Locale.ROOT, "%.4f", getIterationsDeviation())).append('\n');
+        for (double percentile : PERCENTILES) {
+            writer.append("Percentile ").append(BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString())
+                    .append("%: ").append(Long.toString(getIterationsPercentile(percentile))).append('\n');
+        }
+        writer.append("Maximum Iterations: ").append(Long.toString(getIterationsPercentile(100))).append("\n\n");
+        writer.append("Iterations\tCount\n");
+        for (int i = 0; i < this.iterationCounts.length; i++) {
+            if (this.iterationCounts[i] != 0) {
+                writer.append(Integer.toString(i)).append('\t').append(Long.toString(this.iterationCounts[i])).append('\n');
+            }
+        }
+        writer.append("\nPeak Bits\tCount\n");
+        for (int i = 0; i < this.peakBitCounts.length; i++) {
+            if (this.peakBitCounts[i] != 0) {
+                writer.append(Integer.toString(i)).append('\t').append(Long.toString(this.peakBitCounts[i])).append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.math.BigInteger;
+import javax.validation.constraints.NotNull;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * The stopping time and the maximum excursion, or peak, of a trajectory. The
+ * kernel is the one of {@link CollatzSequencer#iterations(long)} with the peak
+ * tracked after every odd step, which is the only step that can raise it. An
+ * instance is reused for every number a worker computes, so that nothing is
+ * allocated unless the trajectory leaves the range of a {@code long}.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+@NotThreadSafe
+public final class TrajectoryStatistics {
+
+    private long iterations;
+    private long peak;
+    private BigInteger bigPeak;
+
+    /**
+     * Computes the trajectory of the specified value.
+     *
+     * @param number The starting value, a natural number
+     * @return This instance, holding the results
+     */
+    public TrajectoryStatistics compute(long number) {
+        if (number < 1) {
+            throw new IllegalArgumentException("The value passed must be a natural number.");
+        }
+        long peak = number;
+        long iterations = 0;
+        while (number != 1) {
+            if ((number & 1) == 0) {
+                int zeros = Long.numberOfTrailingZeros(number);
+                number >>>= zeros;
+                iterations += zeros;
+            } else if (number <= CollatzSequencer.MAX_LONG_ODD_STEP) {
+                number = (number * 3) + 1;
+                iterations++;
+                if (number > peak) {
+                    peak = number;
+                }
+            } else {
+                return compute(BigInteger.valueOf(number), iterations, BigInteger.valueOf(peak));
+            }
+        }
+        this.iterations = iterations;
+        this.peak = peak;
+        this.bigPeak = null;
+        return this;
+    }
+
+    /**
+     * Computes the trajectory of the specified value.
+     *
+     * @param number The starting value, a natural number
+     * @return This instance, holding the results
+     */
+    public TrajectoryStatistics compute(@NotNull BigInteger number) {
+        if (number.signum() < 1) {
+            throw new IllegalArgumentException("The value passed must be a natural number.");
+        }
+        if (number.bitLength() < Long.SIZE) {
+            return compute(number.longValue());
+        }
+        return compute(number, 0, number);
+    }
+
+    /**
+     * The arbitrary precision part of the kernel. Once the value drops back
+     * into the range of a {@code long} the trajectory continues with
+     * primitives, but it can still climb past the peak, and even past the
+     * range of a {@code long} again, so the peak is tracked until the
+     * trajectory reaches 1.
+     *
+     * @param number The current value
+     * @param iterations The iterations already performed
+     * @param peak The largest value so far
+     * @return This instance, holding the results
+     */
+    private TrajectoryStatistics compute(BigInteger number, long iterations, BigInteger peak) {
+        while (true) {
+            while (number.bitLength() >= Long.SIZE - 2) {
+                if (!number.testBit(0)) {
+                    int zeros = number.getLowestSetBit();
+                    number = number.shiftRight(zeros);
+                    iterations += zeros;
+                } else {
+                    number = number.shiftLeft(1).add(number).add(BigInteger.ONE);
+                    iterations++;
+                    if (number.compareTo(peak) > 0) {
+                        peak = number;
+                    }
+                }
+            }
+            /*
+             * A peak past the range of a long can't be beaten by a value that
+             * still fits, so it stands in as the largest long.
+             */
+            long value = number.longValue();
+            long longPeak = peak.bitLength() < Long.SIZE ? peak.longValue() : Long.MAX_VALUE;
+            while (value != 1) {
+                if ((value & 1) == 0) {
+                    int zeros = Long.numberOfTrailingZeros(value);
+                    value >>>= zeros;
+                    iterations += zeros;
+                } else if (value <= CollatzSequencer.MAX_LONG_ODD_STEP) {
+                    value = (value * 3) + 1;
+                    iterations++;
+                    if (value > longPeak) {
+                        longPeak = value;
+                    }
+                } else {
+                    break;
+                }
+            }
+            if (peak.bitLength() < Long.SIZE) {
+                peak = BigInteger.valueOf(longPeak);
+            }
+            if (value == 1) {
+                break;
+            }
+            number = BigInteger.valueOf(value);
+        }
+        this.iterations = iterations;
+        if (peak.bitLength() < Long.SIZE) {
+            this.peak = peak.longValue();
+            this.bigPeak = null;
+        } else {
+            this.bigPeak = peak;
+        }
+        return this;
+    }
+
+    /**
+     * A getter for the number of iterations of the last trajectory.
+     *
+     * @return The number of iterations needed to reach 1
+     */
+    public long getIterations() {
+        return this.iterations;
+    }
+
+    /**
+     * Tests whether the peak of the last trajectory fits into a {@code long}.
+     *
+     * @return Whether {@link #getPeak()} can be used
+     */
+    public boolean isPeakLong() {
+        return this.bigPeak == null;
+    }
+
+    /**
+     * A getter for the peak of the last trajectory, if it fits into a
+     * {@code long}.
+     *
+     * @return The largest value of the trajectory
+     */
+    public long getPeak() {
+        return this.peak;
+    }
+
+    /**
+     * A getter for the peak of the last trajectory.
+     *
+     * @return The largest value of the trajectory
+     */
+    public BigInteger getBigPeak() {
+        return isPeakLong() ? BigInteger.valueOf(this.peak) : this.bigPeak;
+    }
+}
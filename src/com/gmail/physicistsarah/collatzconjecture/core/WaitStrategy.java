@@ -0,0 +1,97 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How the threads on either side of an {@link MpscRingBuffer} wait: the
+ * writer thread for batches to arrive, and the workers for free slots. The
+ * strategies trade the CPU time burnt while waiting against how quickly a
+ * waiting thread notices the change.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public enum WaitStrategy {
+
+    /**
+     * Spins without ever giving up the CPU. The lowest latency, but the
+     * writer thread occupies a whole core even while idle, so this only suits
+     * machines with a core to spare for it.
+     */
+    BUSY_SPIN {
+        @Override
+        void idle(int round) {
+        }
+    },
+    /**
+     * Spins for a while, then yields the CPU to other threads on every round.
+     */
+    YIELDING {
+        @Override
+        void idle(int round) {
+            if (round >= SPIN_ROUNDS) {
+                Thread.yield();
+            }
+        }
+    },
+    /**
+     * Spins, then yields, then sleeps briefly on every round. Nearly no CPU
+     * time is used while idle, at the cost of a fraction of a millisecond of
+     * latency.
+     */
+    SLEEPING {
+        @Override
+        void idle(int round) {
+            backOff(round);
+        }
+    },
+    /**
+     * The writer thread parks until a worker publishes a batch and wakes it.
+     * Workers waiting for a free slot back off like {@link #SLEEPING}.
+     */
+    BLOCKING {
+        @Override
+        void idle(int round) {
+            backOff(round);
+        }
+
+        @Override
+        boolean parksConsumer() {
+            return true;
+        }
+    };
+
+    private static final int SPIN_ROUNDS = 100;
+    private static final long SLEEP_NANOS = 100_000;
+
+    private static void backOff(int round) {
+        if (round < SPIN_ROUNDS) {
+            return;
+        } else if (round < SPIN_ROUNDS * 2) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(SLEEP_NANOS);
+        }
+    }
+
+    /**
+     * Waits once, in a loop that rechecks its condition after every call.
+     *
+     * @param round The number of times the caller has waited so far
+     */
+    abstract void idle(int round);
+
+    /**
+     * Tests whether the consumer parks until it is woken, instead of calling
+     * {@link #idle(int)}.
+     *
+     * @return Whether the consumer parks
+     */
+    boolean parksConsumer() {
+        return false;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that {@link RecordFormat#BINARY} files read back as they were
+ * encoded, through the sequential and the positioned reader and through a
+ * {@link MappedShard}, with values and peaks escaped past 64 bits.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public class BinaryRecordFormatTest {
+
+    private static final BigInteger LONG_LIMIT = BigInteger.ONE.shiftLeft(Long.SIZE - 1);
+
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        this.file = Files.createTempFile("BinaryRecordFormatTest", ".Dat");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    /**
+     * Encodes a batch of the specified values into the test file.
+     *
+     * @param values The initial values, in the order they are written
+     * @param excursions Whether the records hold peaks
+     * @return The initial value, the iterations and, with excursions, the
+     * peak of every record
+     * @throws IOException If the file couldn't be written
+     */
+    private List<List<BigInteger>> write(List<BigInteger> values, boolean excursions) throws IOException {
+        ResultBatch batch = new ResultBatch(values.size(), null, null, excursions);
+        List<List<BigInteger>> records = new ArrayList<>();
+        TrajectoryStatistics statistics = new TrajectoryStatistics();
+        for (BigInteger value : values) {
+            statistics.compute(value);
+            if (excursions) {
+                batch.add(value, statistics);
+            } else {
+                batch.add(value, statistics.getIterations());
+            }
+            records.add(Arrays.asList(value, BigInteger.valueOf(statistics.getIterations()),
+                    excursions ? statistics.getBigPeak() : null));
+        }
+        RecordEncoder encoder = RecordFormat.BINARY.newEncoder(excursions);
+        RecordBuffer buffer = new RecordBuffer(1 << 16);
+        encoder.encodeHeader(buffer);
+        for (int i = 0; i < batch.size(); i++) {
+            encoder.encode(batch, i, buffer);
+        }
+        encoder.encodeFooter(buffer);
+        Files.write(this.file, Arrays.copyOf(buffer.array(), buffer.position()));
+        return records;
+    }
+
+    private static List<List<BigInteger>> readAll(RecordReader reader) throws IOException {
+        List<List<BigInteger>> records = new ArrayList<>();
+        while (reader.next()) {
+            records.add(Arrays.asList(reader.getInitialValue(), BigInteger.valueOf(reader.getIterations()),
+                    reader.hasExcursions() ? reader.getMaxExcursion() : null));
+        }
+        return records;
+    }
+
+    private static List<BigInteger> range(long first, long last) {
+        List<BigInteger> values = new ArrayList<>();
+        for (long value = first; value <= last; value++) {
+            values.add(BigInteger.valueOf(value));
+        }
+        return values;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<BigInteger> values = range(1, 5_000);
+        for (int i = -3; i <= 3; i++) {
+            values.add(LONG_LIMIT.add(BigInteger.valueOf(i)));
+        }
+        values.add(BigInteger.ONE.shiftLeft(200).add(BigInteger.ONE));
+        values.addAll(range(10_001, 12_000));
+        for (boolean excursions : new boolean[]{false, true}) {
+            List<List<BigInteger>> records = write(values, excursions);
+            try (RecordReader reader = RecordReader.open(this.file)) {
+                assertTrue("Reader type", reader instanceof BinaryRecordReader);
+                assertEquals("Records", records, readAll(reader));
+            }
+            MappedShard shard = MappedShard.open(this.file);
+            for (long value : new long[]{1, 4_999, 5_000, 10_001, 11_111, 12_000}) {
+                assertEquals("Lookup of " + value, CollatzSequencer.iterations(value), shard.lookup(value));
+            }
+            assertEquals("Lookup of a missing value", -1, shard.lookup(7_000));
+            long[] iterations = new long[20];
+            assertEquals("Range lookup", 10, shard.lookup(4_991, 5_010, iterations, 0));
+            assertEquals("Range lookup", CollatzSequencer.iterations(5_000), iterations[9]);
+        }
+    }
+
+    @Test
+    public void testPositionedReader() throws IOException {
+        List<BigInteger> values = range(1, 1_000);
+        values.add(LONG_LIMIT);
+        List<List<BigInteger>> records = write(values, true);
+        try (BinaryRecordReader reader = new BinaryRecordReader(this.file, 100, 50)) {
+            assertEquals("Records", records.subList(100, 150), readAll(reader));
+        }
+        try (BinaryRecordReader reader = new BinaryRecordReader(this.file, 990, 20)) {
+            for (int i = 0; i < 10; i++) {
+                assertTrue("Record " + (990 + i), reader.next());
+            }
+            reader.next();
+            fail("An escaped value was read by position");
+        } catch (BinaryRecordReader.EscapedValueException expected) {
+        }
+        records = write(range(1, 100), false);
+        try (BinaryRecordReader reader = new BinaryRecordReader(this.file, 90, 50)) {
+            assertEquals("Records up to the end", records.subList(90, 100), readAll(reader));
+        }
+    }
+
+    /**
+     * Cuts a file off inside its last record, which has an escaped value.
+     * The records before it must be read, and the cut reported at the
+     * offset of the record. A file cut off between records ends cleanly.
+     *
+     * @throws IOException If the file couldn't be written
+     */
+    @Test
+    public void testCutOffFile() throws IOException {
+        List<BigInteger> values = range(1, 100);
+        values.add(LONG_LIMIT);
+        List<List<BigInteger>> records = write(values, true);
+        byte[] bytes = Files.readAllBytes(this.file);
+        int recordSize = ByteBuffer.wrap(bytes).getInt(Integer.BYTES + 2 * Short.BYTES);
+        long lastRecord = BinaryRecordFormat.HEADER_SIZE + 100L * recordSize;
+        for (long cut : new long[]{lastRecord + 1, lastRecord + recordSize, bytes.length - 1}) {
+            Files.write(this.file, Arrays.copyOf(bytes, (int) cut));
+            try (BinaryRecordReader reader = new BinaryRecordReader(this.file)) {
+                for (int i = 0; i < 100; i++) {
+                    assertTrue("Record " + i + " of a file cut at " + cut, reader.next());
+                    assertEquals("Record " + i + " of a file cut at " + cut, records.get(i).get(0), reader.getInitialValue());
+                }
+                reader.next();
+                fail("A file cut at " + cut + " ended cleanly");
+            } catch (RecordReader.MalformedRecordException expected) {
+                assertEquals("Offset of the cut record", lastRecord, expected.getOffset());
+            }
+        }
+        Files.write(this.file, Arrays.copyOf(bytes, (int) lastRecord));
+        try (BinaryRecordReader reader = new BinaryRecordReader(this.file)) {
+            assertEquals("Records before the cut", records.subList(0, 100), readAll(reader));
+        }
+    }
+}
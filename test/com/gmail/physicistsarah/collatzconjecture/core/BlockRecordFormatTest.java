@@ -0,0 +1,244 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that {@link RecordFormat#BLOCK} and
+ * {@link RecordFormat#DEFLATED_BLOCK} files read back as they were encoded,
+ * finished or cut off at any point of their last block.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public class BlockRecordFormatTest {
+
+    private static final BigInteger LONG_LIMIT = BigInteger.ONE.shiftLeft(Long.SIZE - 1);
+
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        this.file = Files.createTempFile("BlockRecordFormatTest", ".Dat");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    /**
+     * Gets the batches of the tests, in the order they are written: a run of
+     * consecutive numbers spanning several blocks, numbers around and past
+     * 2^63, odd numbers, and a last short batch.
+     *
+     * @param excursions Whether the batches hold peaks
+     * @return The batches
+     */
+    private static List<ResultBatch> batches(boolean excursions) {
+        List<List<BigInteger>> values = new ArrayList<>();
+        values.add(new ArrayList<>());
+        for (long value = 1; value <= 20_000; value++) {
+            values.get(0).add(BigInteger.valueOf(value));
+        }
+        values.add(new ArrayList<>());
+        for (int i = -5; i <= 5; i++) {
+            values.get(1).add(LONG_LIMIT.add(BigInteger.valueOf(i)));
+        }
+        for (int i = 0; i < 10; i++) {
+            values.get(1).add(BigInteger.ONE.shiftLeft(70).add(BigInteger.valueOf(3 * i + 1)));
+        }
+        values.add(new ArrayList<>());
+        for (long value = 50_001; value < 60_000; value += 2) {
+            values.get(2).add(BigInteger.valueOf(value));
+        }
+        values.add(new ArrayList<>());
+        for (long value = 70_001; value <= 70_100; value++) {
+            values.get(3).add(BigInteger.valueOf(value));
+        }
+        List<ResultBatch> batches = new ArrayList<>();
+        TrajectoryStatistics statistics = new TrajectoryStatistics();
+        for (List<BigInteger> batchValues : values) {
+            ResultBatch batch = new ResultBatch(batchValues.size(), batchValues.get(0),
+                    batchValues.get(batchValues.size() - 1).add(BigInteger.ONE), excursions);
+            for (BigInteger value : batchValues) {
+                statistics.compute(value);
+                if (excursions) {
+                    batch.add(value, statistics);
+                } else {
+                    batch.add(value, statistics.getIterations());
+                }
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Encodes batches.
+     *
+     * @param format The format
+     * @param excursions Whether the records hold peaks
+     * @param batches The batches
+     * @param footer Whether the file is finished, false for a file that was
+     * cut off after its last block
+     * @return The encoded file
+     */
+    private static byte[] encode(RecordFormat format, boolean excursions, List<ResultBatch> batches, boolean footer) {
+        RecordEncoder encoder = format.newEncoder(excursions);
+        RecordBuffer buffer = new RecordBuffer(1 << 16);
+        encoder.encodeHeader(buffer);
+        for (ResultBatch batch : batches) {
+            for (int i = 0; i < batch.size(); i++) {
+                encoder.encode(batch, i, buffer);
+            }
+        }
+        if (footer) {
+            encoder.encodeFooter(buffer);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Reads every record of the file.
+     *
+     * @param reader The reader
+     * @return The initial value, the iterations and, if there is one, the
+     * peak of every record
+     * @throws IOException If the file couldn't be read
+     */
+    private static List<List<BigInteger>> readAll(BlockRecordReader reader) throws IOException {
+        List<List<BigInteger>> records = new ArrayList<>();
+        while (reader.next()) {
+            records.add(Arrays.asList(reader.getInitialValue(), BigInteger.valueOf(reader.getIterations()),
+                    reader.hasExcursions() ? reader.getMaxExcursion() : null));
+        }
+        return records;
+    }
+
+    private static List<List<BigInteger>> expected(List<ResultBatch> batches, boolean excursions) {
+        List<List<BigInteger>> records = new ArrayList<>();
+        for (ResultBatch batch : batches) {
+            for (int i = 0; i < batch.size(); i++) {
+                records.add(Arrays.asList(batch.isLong(i) ? BigInteger.valueOf(batch.getValue(i)) : batch.getBigValue(i),
+                        BigInteger.valueOf(batch.getIterations(i)),
+                        !excursions ? null : batch.isPeakLong(i) ? BigInteger.valueOf(batch.getPeak(i)) : batch.getBigPeak(i)));
+            }
+        }
+        return records;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (RecordFormat format : new RecordFormat[]{RecordFormat.BLOCK, RecordFormat.DEFLATED_BLOCK}) {
+            for (boolean excursions : new boolean[]{false, true}) {
+                String name = format + (excursions ? " with excursions" : "");
+                List<ResultBatch> batches = batches(excursions);
+                Files.write(this.file, encode(format, excursions, batches, true));
+                try (BlockRecordReader reader = new BlockRecordReader(this.file)) {
+                    assertTrue(name + " isn't indexed", reader.isIndexed());
+                    assertEquals(name + " torn offset", -1, reader.getTornOffset());
+                    assertEquals(name + " records", expected(batches, excursions), readAll(reader));
+                    for (BigInteger value : new BigInteger[]{BigInteger.valueOf(8_193), LONG_LIMIT,
+                        BigInteger.ONE.shiftLeft(70).add(BigInteger.valueOf(28)), BigInteger.valueOf(59_999)}) {
+                        assertTrue(name + " seek to " + value, reader.seek(value));
+                        assertTrue(name + " record at " + value, reader.next());
+                        assertEquals(name + " record at " + value, value, reader.getInitialValue());
+                    }
+                    assertFalse(name + " seek to a missing value", reader.seek(BigInteger.valueOf(50_002)));
+                    assertTrue(name + " record after a missing value", reader.next());
+                    assertEquals(name + " record after a missing value", BigInteger.valueOf(50_003), reader.getInitialValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Cuts a file without a trailer off at several points of its last block,
+     * including inside the block header. The whole blocks must still be read,
+     * indexed and mapped, and the last block reported as torn.
+     *
+     * @throws IOException If a file couldn't be read
+     */
+    @Test
+    public void testCutOffFile() throws IOException {
+        for (RecordFormat format : new RecordFormat[]{RecordFormat.BLOCK, RecordFormat.DEFLATED_BLOCK}) {
+            boolean excursions = format == RecordFormat.BLOCK;
+            List<ResultBatch> batches = batches(excursions);
+            byte[] bytes = encode(format, excursions, batches, false);
+            Files.write(this.file, bytes);
+            long lastBlock = 0;
+            int blocks;
+            try (BlockRecordReader reader = new BlockRecordReader(this.file)) {
+                assertFalse(format + " is indexed", reader.isIndexed());
+                assertEquals(format + " records", expected(batches, excursions), readAll(reader));
+                assertEquals(format + " torn offset", -1, reader.getTornOffset());
+                blocks = reader.getBlockCount();
+                for (int block = 0; block < blocks; block++) {
+                    lastBlock = Math.max(lastBlock, reader.getBlockOffset(block));
+                }
+            }
+            List<List<BigInteger>> whole = expected(batches.subList(0, batches.size() - 1), excursions);
+            for (long cut : new long[]{lastBlock + 1, lastBlock + 6, lastBlock + 11, lastBlock + 12, bytes.length - 1}) {
+                String name = format + " cut at " + cut;
+                Files.write(this.file, Arrays.copyOf(bytes, (int) cut));
+                try (BlockRecordReader reader = new BlockRecordReader(this.file)) {
+                    assertEquals(name + " records", whole, readAll(reader));
+                    assertEquals(name + " torn offset", lastBlock, reader.getTornOffset());
+                }
+                try (BlockRecordReader reader = new BlockRecordReader(this.file)) {
+                    assertEquals(name + " torn offset", lastBlock, reader.getTornOffset());
+                    assertEquals(name + " blocks", blocks - 1, reader.getBlockCount());
+                    assertTrue(name + " seek", reader.seek(BigInteger.valueOf(59_999)));
+                    assertFalse(name + " seek into the torn block", reader.seek(BigInteger.valueOf(70_050)));
+                }
+                MappedShard shard = MappedShard.open(this.file);
+                assertEquals(name + " lookup", CollatzSequencer.iterations(12_345), shard.lookup(12_345));
+                assertEquals(name + " lookup in the torn block", -1, shard.lookup(70_050));
+            }
+        }
+    }
+
+    /**
+     * Cuts a finished file off inside its index and its trailer. Every block
+     * must still be read, and the start of the index reported as torn.
+     *
+     * @throws IOException If a file couldn't be read
+     */
+    @Test
+    public void testCutOffIndex() throws IOException {
+        for (RecordFormat format : new RecordFormat[]{RecordFormat.BLOCK, RecordFormat.DEFLATED_BLOCK}) {
+            List<ResultBatch> batches = batches(false);
+            byte[] bytes = encode(format, false, batches, true);
+            Files.write(this.file, bytes);
+            long indexOffset;
+            try (BlockRecordReader reader = new BlockRecordReader(this.file)) {
+                indexOffset = reader.getBlocksEnd();
+            }
+            for (long cut : new long[]{bytes.length - 1, bytes.length - BlockRecordFormat.TRAILER_SIZE, indexOffset + 3}) {
+                String name = format + " cut at " + cut;
+                Files.write(this.file, Arrays.copyOf(bytes, (int) cut));
+                try (BlockRecordReader reader = new BlockRecordReader(this.file)) {
+                    assertFalse(name + " is indexed", reader.isIndexed());
+                    assertEquals(name + " records", expected(batches, false), readAll(reader));
+                    assertEquals(name + " torn offset", indexOffset, reader.getTornOffset());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a {@link HubCheckpoint} survives a save and a load, and that a
+ * hub resumed from one after a crash writes every number exactly once.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public class HubCheckpointTest {
+
+    /**
+     * The name of the checkpoint file in the output directory of a hub.
+     */
+    private static final String CHECKPOINT_FILE_NAME = "Conjecture Checkpoint.properties";
+    private static final int CHUNK_SIZE = 1_000;
+    private static final long LAST_NUMBER = 30_000;
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        this.directory = Files.createTempDirectory("HubCheckpointTest");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private static BigInteger number(long number) {
+        return BigInteger.valueOf(number);
+    }
+
+    private static HubConfiguration.Builder configuration(Path outputDirectory) {
+        return new HubConfiguration.Builder().outputDirectory(outputDirectory).outputFormat(RecordFormat.BINARY)
+                .chunkSize(CHUNK_SIZE).workerThreads(2).sieveBits(0);
+    }
+
+    /**
+     * Runs a hub over a range.
+     *
+     * @param outputDirectory The output directory
+     * @param first The first number
+     * @param last The last number
+     * @return The output file
+     * @throws IOException If the run failed
+     */
+    private static Path run(Path outputDirectory, long first, long last) throws IOException {
+        HubConfiguration configuration = configuration(outputDirectory).reorderWindow(4).build();
+        new ProcessingHub(number(first), number(last), configuration).hubInit();
+        return ProcessingHub.getOutputFile(configuration);
+    }
+
+    /**
+     * Gets the records of a run, without the header.
+     *
+     * @param output The output file
+     * @return The records
+     * @throws IOException If the file couldn't be read
+     */
+    private static byte[] records(Path output) throws IOException {
+        byte[] bytes = Files.readAllBytes(output);
+        return Arrays.copyOfRange(bytes, BinaryRecordFormat.HEADER_SIZE, bytes.length);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        Path file = this.directory.resolve(CHECKPOINT_FILE_NAME);
+        HubCheckpoint checkpoint = new HubCheckpoint(file, number(1), number(1_001), RecordFormat.BLOCK, 4, 1_000);
+        checkpoint.markCompleted(number(301), number(401));
+        checkpoint.markCompleted(number(1), number(101));
+        checkpoint.markCompleted(number(201), number(301));
+        checkpoint.markCompleted(number(601), number(701));
+        checkpoint.save(12_345);
+        HubCheckpoint loaded = HubCheckpoint.load(file, number(1), number(1_001), RecordFormat.BLOCK, 4, 1_000);
+        assertTrue("Not resumed", loaded.isResumed());
+        assertEquals("Low water mark", number(101), loaded.getLowWaterMark());
+        assertEquals("Output bytes", 12_345, loaded.getOutputBytes());
+        assertEquals("Skipped", number(401), loaded.skipCompleted(number(250)));
+        assertEquals("Skipped", number(450), loaded.skipCompleted(number(450)));
+        List<BigInteger[]> missing = loaded.getMissingRanges(number(1), number(1_001));
+        assertEquals("Missing ranges", 3, missing.size());
+        assertEquals("Missing ranges", Arrays.asList(number(101), number(201)), Arrays.asList(missing.get(0)));
+        assertEquals("Missing ranges", Arrays.asList(number(401), number(601)), Arrays.asList(missing.get(1)));
+        assertEquals("Missing ranges", Arrays.asList(number(701), number(1_001)), Arrays.asList(missing.get(2)));
+    }
+
+    @Test
+    public void testLoadRejectsAnotherRun() throws IOException {
+        Path file = this.directory.resolve(CHECKPOINT_FILE_NAME);
+        new HubCheckpoint(file, number(1), number(1_001), RecordFormat.BLOCK, 0, 1_000).save(0);
+        try {
+            HubCheckpoint.load(file, number(1), number(2_001), RecordFormat.BLOCK, 0, 1_000);
+            fail("A checkpoint of another range was loaded");
+        } catch (IOException expected) {
+        }
+        try {
+            HubCheckpoint.load(file, number(1), number(1_001), RecordFormat.TEXT, 0, 1_000);
+            fail("A checkpoint of another format was loaded");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Simulates a crash after the first third of an ordered run: the output
+     * holds a torn record past the checkpoint. The resumed run must truncate
+     * it and finish with the same bytes as a run that never stopped.
+     *
+     * @throws IOException If a run failed
+     */
+    @Test(timeout = 300_000)
+    public void testResumeOrderedRun() throws IOException {
+        byte[] expected = Files.readAllBytes(run(this.directory.resolve("Reference"), 1, LAST_NUMBER));
+        Path crashed = this.directory.resolve("Crashed");
+        Path output = run(crashed, 1, LAST_NUMBER / 3);
+        long durable = Files.size(output);
+        Files.write(output, new byte[]{1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+        HubCheckpoint checkpoint = new HubCheckpoint(crashed.resolve(CHECKPOINT_FILE_NAME), number(1), number(LAST_NUMBER + 1),
+                RecordFormat.BINARY, 0, 1_000);
+        checkpoint.markCompleted(number(1), number(LAST_NUMBER / 3 + 1));
+        checkpoint.save(durable);
+        new ProcessingHub(number(1), number(LAST_NUMBER),
+                configuration(crashed).reorderWindow(4).checkpointInterval(1_000).resume(true).build()).hubInit();
+        assertArrayEquals("Resumed output", expected, Files.readAllBytes(output));
+    }
+
+    /**
+     * Simulates a crash of an unordered run that had written a range above
+     * its low water mark. The resumed run must only compute the gaps.
+     *
+     * @throws IOException If a run failed
+     */
+    @Test(timeout = 300_000)
+    public void testResumeWithCompletedRangesAboveTheLowWaterMark() throws IOException {
+        Path crashed = this.directory.resolve("Crashed");
+        Path output = run(crashed, 1, 10_000);
+        Files.write(output, records(run(this.directory.resolve("Later"), 20_001, 25_000)), StandardOpenOption.APPEND);
+        long durable = Files.size(output);
+        Files.write(output, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+        HubCheckpoint checkpoint = new HubCheckpoint(crashed.resolve(CHECKPOINT_FILE_NAME), number(1), number(LAST_NUMBER + 1),
+                RecordFormat.BINARY, 0, 1_000);
+        checkpoint.markCompleted(number(1), number(10_001));
+        checkpoint.markCompleted(number(20_001), number(25_001));
+        checkpoint.save(durable);
+        new ProcessingHub(number(1), number(LAST_NUMBER),
+                configuration(crashed).checkpointInterval(1_000).resume(true).build()).hubInit();
+        int[] seen = new int[(int) LAST_NUMBER + 1];
+        try (BinaryRecordReader reader = new BinaryRecordReader(output)) {
+            while (reader.next()) {
+                int value = (int) reader.getValue();
+                seen[value]++;
+                assertEquals("Iterations of " + value, CollatzSequencer.iterations(value), reader.getIterations());
+            }
+        }
+        for (int value = 1; value <= LAST_NUMBER; value++) {
+            assertEquals("Records of " + value, 1, seen[value]);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Checks that {@link HubCommandLine#parse(String...)} rejects every invalid
+ * command line with an {@link IllegalArgumentException}, which the command
+ * line turns into the usage text.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public class HubCommandLineTest {
+
+    @Test
+    public void testValidCommandLine() {
+        HubCommandLine commandLine = HubCommandLine.parse("--range", "1", "1000", "--buffer-size", "1G", "--format", "block");
+        assertEquals("Buffer size", 1 << 30, commandLine.getConfiguration().getWriterBufferSize());
+        assertEquals("Format", RecordFormat.BLOCK, commandLine.getConfiguration().getOutputFormat());
+    }
+
+    @Test
+    public void testInvalidCommandLines() {
+        String[][] commandLines = {
+            {"--range", "5", "3"},
+            {"--range", "0", "9"},
+            {"--range", "4", "4"},
+            {"--range", "1", "9", "--buffer-size", "3G"},
+            {"--range", "1", "9", "--buffer-size", "2048M"},
+            {"--size", "0"},
+            {"--size", "8589934592G"},
+            {"--range", "1"},
+            {"--range", "1", "9", "--size", "1M"},
+            {"--range", "1", "9", "--format", "XML"}};
+        for (String[] args : commandLines) {
+            try {
+                HubCommandLine.parse(args);
+                fail("Parsed " + String.join(" ", args));
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
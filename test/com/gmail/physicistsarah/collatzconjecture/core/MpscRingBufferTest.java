@@ -0,0 +1,201 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Checks that an {@link MpscRingBuffer} delivers every element exactly once,
+ * in the order the slots were claimed, while producers race each other, the
+ * consumer and {@link MpscRingBuffer#close()}.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public class MpscRingBufferTest {
+
+    private static final int PRODUCERS = 4;
+
+    /**
+     * Takes elements until the buffer is closed and drained.
+     *
+     * @param buffer The buffer
+     * @param taken The elements taken, in order
+     * @return The consumer thread, already started
+     */
+    private static Thread startConsumer(MpscRingBuffer<long[]> buffer, List<long[]> taken) {
+        Thread consumer = new Thread(() -> {
+            try {
+                while (buffer.awaitAvailable()) {
+                    buffer.drainTo(taken);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Ring Buffer Consumer");
+        consumer.start();
+        return consumer;
+    }
+
+    /**
+     * Checks that every producer's elements arrived once each, in the order
+     * it put them.
+     *
+     * @param taken The elements taken, each holding its producer and its
+     * sequence number
+     * @param accepted The number of elements each producer got into the
+     * buffer
+     */
+    private static void assertDeliveredInOrder(List<long[]> taken, long[] accepted) {
+        long[] expected = new long[accepted.length];
+        for (long[] element : taken) {
+            int producer = (int) element[0];
+            assertEquals("Element of producer " + producer, expected[producer], element[1]);
+            expected[producer]++;
+        }
+        for (int producer = 0; producer < accepted.length; producer++) {
+            assertEquals("Elements of producer " + producer, accepted[producer], expected[producer]);
+        }
+    }
+
+    private static void stress(WaitStrategy waitStrategy, int elementsPerProducer) throws InterruptedException {
+        MpscRingBuffer<long[]> buffer = new MpscRingBuffer<>(64, waitStrategy);
+        List<long[]> taken = new ArrayList<>();
+        Thread consumer = startConsumer(buffer, taken);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int i = 0; i < producers.length; i++) {
+            long producer = i;
+            producers[i] = new Thread(() -> {
+                try {
+                    for (long sequence = 0; sequence < elementsPerProducer; sequence++) {
+                        buffer.put(new long[]{producer, sequence});
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Ring Buffer Producer " + i);
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        buffer.close();
+        consumer.join();
+        long[] accepted = new long[PRODUCERS];
+        Arrays.fill(accepted, elementsPerProducer);
+        assertDeliveredInOrder(taken, accepted);
+        assertEquals("Elements left", 0, buffer.size());
+    }
+
+    @Test(timeout = 120_000)
+    public void testManyProducersBlocking() throws InterruptedException {
+        stress(WaitStrategy.BLOCKING, 50_000);
+    }
+
+    @Test(timeout = 120_000)
+    public void testManyProducersEveryWaitStrategy() throws InterruptedException {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            stress(waitStrategy, 5_000);
+        }
+    }
+
+    /**
+     * Closes the buffer while the producers are still putting. Every put that
+     * returned must be delivered, and every later offer must fail.
+     *
+     * @throws InterruptedException If interrupted
+     */
+    @Test(timeout = 120_000)
+    public void testCloseDuringPut() throws InterruptedException {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            MpscRingBuffer<long[]> buffer = new MpscRingBuffer<>(8, WaitStrategy.BLOCKING);
+            List<long[]> taken = new ArrayList<>();
+            Thread consumer = startConsumer(buffer, taken);
+            long[] accepted = new long[PRODUCERS];
+            CountDownLatch started = new CountDownLatch(PRODUCERS);
+            Thread[] producers = new Thread[PRODUCERS];
+            for (int i = 0; i < producers.length; i++) {
+                int producer = i;
+                producers[i] = new Thread(() -> {
+                    started.countDown();
+                    try {
+                        for (long sequence = 0;; sequence++) {
+                            buffer.put(new long[]{producer, sequence});
+                            accepted[producer]++;
+                        }
+                    } catch (IllegalStateException ex) {
+                        // Closed, the element that failed wasn't accepted
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "Ring Buffer Producer " + i);
+                producers[i].start();
+            }
+            started.await();
+            TimeUnit.MILLISECONDS.sleep(attempt % 5);
+            buffer.close();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            consumer.join();
+            assertDeliveredInOrder(taken, accepted);
+            try {
+                buffer.offer(new long[]{0, 0});
+                fail("An offer to a closed buffer succeeded");
+            } catch (IllegalStateException expected) {
+            }
+        }
+    }
+
+    /**
+     * Hands single elements to a parking consumer, one at a time, so that
+     * every offer races the consumer announcing that it parks. A lost wakeup
+     * leaves the consumer parked with an element waiting, and the handoff
+     * never completes.
+     *
+     * @throws InterruptedException If interrupted
+     */
+    @Test(timeout = 120_000)
+    public void testBlockingConsumerIsWoken() throws InterruptedException {
+        MpscRingBuffer<long[]> buffer = new MpscRingBuffer<>(4, WaitStrategy.BLOCKING);
+        AtomicLong consumed = new AtomicLong();
+        Thread consumer = new Thread(() -> {
+            List<long[]> taken = new ArrayList<>();
+            try {
+                while (buffer.awaitAvailable()) {
+                    consumed.addAndGet(buffer.drainTo(taken));
+                    taken.clear();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Ring Buffer Consumer");
+        consumer.start();
+        int handoffs = 200_000;
+        for (long sequence = 0; sequence < handoffs; sequence++) {
+            assertTrue("Offer " + sequence, buffer.offer(new long[]{0, sequence}));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (consumed.get() <= sequence) {
+                if (System.nanoTime() > deadline) {
+                    fail("The consumer missed the wakeup of element " + sequence);
+                }
+                Thread.yield();
+            }
+        }
+        buffer.close();
+        consumer.join(TimeUnit.SECONDS.toMillis(10));
+        assertTrue("The consumer missed the wakeup of close", !consumer.isAlive());
+        assertEquals("Elements taken", handoffs, consumed.get());
+    }
+}
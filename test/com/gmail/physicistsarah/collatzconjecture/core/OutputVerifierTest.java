@@ -0,0 +1,123 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that an {@link OutputVerifier} passes the output of a run, and that
+ * it reports a file that was cut off or damaged without giving up on the
+ * records it can still read.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public class OutputVerifierTest {
+
+    private static final long LAST_NUMBER = 5_000;
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        this.directory = Files.createTempDirectory("OutputVerifierTest");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /**
+     * Runs a hub from 1 to {@link #LAST_NUMBER}.
+     *
+     * @param format The format of the output
+     * @return The output file
+     * @throws IOException If the run failed
+     */
+    private Path run(RecordFormat format) throws IOException {
+        HubConfiguration configuration = new HubConfiguration.Builder().outputDirectory(this.directory.resolve(format.name()))
+                .outputFormat(format).chunkSize(500).workerThreads(2).sieveBits(0).reorderWindow(4).build();
+        new ProcessingHub(BigInteger.ONE, BigInteger.valueOf(LAST_NUMBER), configuration).hubInit();
+        return ProcessingHub.getOutputFile(configuration);
+    }
+
+    private static OutputVerifier.Report verify(Path file) throws IOException, InterruptedException {
+        return new OutputVerifier(2, 1 << 10).verify(file);
+    }
+
+    @Test(timeout = 120_000)
+    public void testCleanFiles() throws IOException, InterruptedException {
+        for (RecordFormat format : RecordFormat.values()) {
+            OutputVerifier.Report report = verify(run(format));
+            assertTrue(format + " isn't clean:\n" + report, report.isClean());
+            assertEquals(format + " records", LAST_NUMBER, report.getRecords());
+            assertEquals(format + " last value", BigInteger.valueOf(LAST_NUMBER), report.getLast());
+        }
+    }
+
+    /**
+     * Cuts the output of a run off by a few bytes. Every record before the
+     * cut must be verified, and the cut reported as one malformed record.
+     *
+     * @throws IOException If a file couldn't be read
+     * @throws InterruptedException If interrupted
+     */
+    @Test(timeout = 120_000)
+    public void testCutOffFiles() throws IOException, InterruptedException {
+        for (RecordFormat format : RecordFormat.values()) {
+            Path output = run(format);
+            byte[] bytes = Files.readAllBytes(output);
+            for (int cut : new int[]{1, 3, 10}) {
+                String name = format + " cut by " + cut;
+                Files.write(output, Arrays.copyOf(bytes, bytes.length - cut));
+                OutputVerifier.Report report = verify(output);
+                assertFalse(name + " is clean", report.isClean());
+                assertEquals(name + " malformed records", 1, report.getMalformed());
+                assertEquals(name + " mismatches", 0, report.getMismatches());
+                assertEquals(name + " gaps", 0, report.getGaps());
+                assertEquals(name + " first value", BigInteger.ONE, report.getFirst());
+                assertEquals(name + " records", report.getLast().longValueExact(), report.getRecords());
+                assertTrue(name + " records", report.getRecords() > LAST_NUMBER / 2);
+            }
+        }
+    }
+
+    /**
+     * Damages a record in the middle of a text file. The chunks after it
+     * must still be verified.
+     *
+     * @throws IOException If a file couldn't be read
+     * @throws InterruptedException If interrupted
+     */
+    @Test(timeout = 120_000)
+    public void testUnparseableRecord() throws IOException, InterruptedException {
+        Path output = run(RecordFormat.TEXT);
+        byte[] bytes = Files.readAllBytes(output);
+        int damaged = bytes.length / 2 & ~1;
+        bytes[damaged] = 0;
+        bytes[damaged + 1] = 'x';
+        Files.write(output, bytes);
+        OutputVerifier.Report report = verify(output);
+        assertFalse("The damaged file is clean", report.isClean());
+        assertEquals("Malformed records", 1, report.getMalformed());
+        assertEquals("Last value", BigInteger.valueOf(LAST_NUMBER), report.getLast());
+        assertEquals("Records", LAST_NUMBER - report.getMissing().longValueExact(), report.getRecords());
+    }
+}
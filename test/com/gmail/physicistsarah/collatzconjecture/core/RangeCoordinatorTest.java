@@ -0,0 +1,124 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a {@link RangeCoordinator} and a few {@link RangeWorker}s
+ * connected to it over the loopback interface cover the range exactly once.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public class RangeCoordinatorTest {
+
+    private static final long LAST_NUMBER = 20_000;
+    private static final BigInteger LEASE_SIZE = BigInteger.valueOf(1_500);
+    private static final long LEASE_TIMEOUT_MILLIS = 10_000;
+    private static final int WORKERS = 3;
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        this.directory = Files.createTempDirectory("RangeCoordinatorTest");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private RangeCoordinator coordinator(long leaseTimeoutMillis) throws IOException {
+        return new RangeCoordinator(BigInteger.ONE, BigInteger.valueOf(LAST_NUMBER), LEASE_SIZE, leaseTimeoutMillis, this.directory,
+                RecordFormat.BLOCK);
+    }
+
+    @Test(timeout = 300_000)
+    public void testWorkersCoverTheRange() throws Exception {
+        try (RangeCoordinator coordinator = coordinator(LEASE_TIMEOUT_MILLIS)) {
+            coordinator.start(new InetSocketAddress("localhost", 0));
+            InetSocketAddress address = new InetSocketAddress("localhost", coordinator.getPort());
+            HubConfiguration configuration = new HubConfiguration.Builder().chunkSize(250).workerThreads(1).sieveBits(0).build();
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            Thread[] workers = new Thread[WORKERS];
+            for (int i = 0; i < workers.length; i++) {
+                RangeWorker worker = new RangeWorker(address, configuration, "Test Worker " + i);
+                workers[i] = new Thread(() -> {
+                    try {
+                        worker.run();
+                    } catch (IOException | InterruptedException ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }, "Test Worker " + i);
+                workers[i].start();
+            }
+            coordinator.awaitCompletion();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertNull("A worker failed", failure.get());
+            assertEquals("Numbers completed", BigInteger.valueOf(LAST_NUMBER), coordinator.getNumbersCompleted());
+        }
+        List<long[]> shards = new ArrayList<>();
+        for (String line : Files.readAllLines(this.directory.resolve(RangeCoordinator.INDEX_FILE_NAME), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            shards.add(new long[]{Long.parseLong(fields[0]), Long.parseLong(fields[1])});
+        }
+        shards.sort((long[] first, long[] second) -> Long.compare(first[0], second[0]));
+        long next = 1;
+        for (long[] shard : shards) {
+            assertEquals("Start of the shard after " + (next - 1), next, shard[0]);
+            assertTrue("Empty shard at " + shard[0], shard[1] > shard[0]);
+            next = shard[1];
+        }
+        assertEquals("End of the last shard", LAST_NUMBER + 1, next);
+        StoppingTimeLookup lookup = StoppingTimeLookup.open(this.directory);
+        long[] iterations = lookup.getIterations(1, LAST_NUMBER);
+        assertEquals("Numbers computed instead of looked up", 0, lookup.getNumbersComputed());
+        for (int i = 0; i < iterations.length; i++) {
+            assertEquals("Iterations of " + (i + 1), CollatzSequencer.iterations(i + 1), iterations[i]);
+        }
+        try (RangeCoordinator resumed = coordinator(LEASE_TIMEOUT_MILLIS)) {
+            assertEquals("Numbers completed after a restart", BigInteger.valueOf(LAST_NUMBER), resumed.getNumbersCompleted());
+            resumed.awaitCompletion();
+        }
+    }
+
+    /**
+     * Starts a coordinator whose lease timeout is shorter than the intervals
+     * derived from it can be.
+     *
+     * @throws IOException If the coordinator couldn't be started
+     */
+    @Test(timeout = 60_000)
+    public void testShortLeaseTimeout() throws IOException {
+        for (long leaseTimeoutMillis = 1; leaseTimeoutMillis <= 3; leaseTimeoutMillis++) {
+            try (RangeCoordinator coordinator = coordinator(leaseTimeoutMillis)) {
+                coordinator.start(new InetSocketAddress("localhost", 0));
+                assertTrue("Port", coordinator.getPort() > 0);
+            }
+        }
+    }
+}
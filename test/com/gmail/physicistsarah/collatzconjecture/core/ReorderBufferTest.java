@@ -0,0 +1,169 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that a {@link ReorderBuffer} passes batches on in the order of their
+ * ranges, and that its window holds the dispatcher back.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public class ReorderBufferTest {
+
+    private static final int UNIT = 100;
+
+    /**
+     * Records the range starts of the batches passed on to it.
+     */
+    private static final class RecordingStorage implements ResultStorage {
+
+        private final List<BigInteger> starts = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void saveBatch(ResultBatch batch) {
+            this.starts.add(batch.getRangeStart());
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public long bytesCommitted() {
+            return 0;
+        }
+
+        @Override
+        public boolean isFull() {
+            return false;
+        }
+    }
+
+    private static ResultBatch unit(long index) {
+        return new ResultBatch(0, BigInteger.valueOf(1 + index * UNIT), BigInteger.valueOf(1 + (index + 1) * UNIT));
+    }
+
+    /**
+     * Starts a thread that takes one permit of the window.
+     *
+     * @param buffer The buffer
+     * @param acquired Counted down once the permit is taken
+     * @return The thread
+     */
+    private static Thread startDispatch(ReorderBuffer buffer, CountDownLatch acquired) {
+        Thread dispatcher = new Thread(() -> {
+            try {
+                buffer.awaitWindow();
+                acquired.countDown();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Reorder Buffer Dispatcher");
+        dispatcher.start();
+        return dispatcher;
+    }
+
+    @Test(timeout = 60_000)
+    public void testBatchesArePassedOnInOrder() throws Exception {
+        int units = 2_000, threads = 4;
+        RecordingStorage storage = new RecordingStorage();
+        ReorderBuffer buffer = new ReorderBuffer(storage, BigInteger.ONE, 16, null);
+        List<List<Long>> assigned = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            assigned.add(new ArrayList<>());
+        }
+        Random random = new Random(7);
+        Thread[] workers = new Thread[threads];
+        for (long index = 0; index < units; index++) {
+            assigned.get(random.nextInt(threads)).add(index);
+        }
+        for (int i = 0; i < threads; i++) {
+            List<Long> indices = assigned.get(i);
+            Collections.shuffle(indices, random);
+            workers[i] = new Thread(() -> {
+                try {
+                    for (long index : indices) {
+                        buffer.saveBatch(unit(index));
+                    }
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }, "Reorder Buffer Worker " + i);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        buffer.shutdown();
+        assertEquals("Batches passed on", units, storage.starts.size());
+        for (int index = 0; index < units; index++) {
+            assertEquals("Batch " + index, unit(index).getRangeStart(), storage.starts.get(index));
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void testWindowWaitsForTheOldestUnit() throws Exception {
+        RecordingStorage storage = new RecordingStorage();
+        ReorderBuffer buffer = new ReorderBuffer(storage, BigInteger.ONE, 2, null);
+        buffer.awaitWindow();
+        buffer.awaitWindow();
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread dispatcher = startDispatch(buffer, acquired);
+        buffer.saveBatch(unit(1));
+        assertFalse("The window opened for a held batch", acquired.await(200, TimeUnit.MILLISECONDS));
+        assertTrue("A batch was passed on out of order", storage.starts.isEmpty());
+        buffer.saveBatch(unit(0));
+        assertTrue("The window didn't open", acquired.await(10, TimeUnit.SECONDS));
+        dispatcher.join();
+        assertEquals("Batches passed on", 2, storage.starts.size());
+    }
+
+    @Test(timeout = 60_000)
+    public void testAbortReleasesTheDispatcher() throws Exception {
+        ReorderBuffer buffer = new ReorderBuffer(new RecordingStorage(), BigInteger.ONE, 1, null);
+        buffer.awaitWindow();
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread dispatcher = startDispatch(buffer, acquired);
+        assertFalse("The window opened without a batch", acquired.await(200, TimeUnit.MILLISECONDS));
+        buffer.abort();
+        assertTrue("Abort didn't release the dispatcher", acquired.await(10, TimeUnit.SECONDS));
+        dispatcher.join();
+        for (int i = 0; i < 10; i++) {
+            buffer.awaitWindow();
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void testResumedRangesAreSkipped() throws Exception {
+        HubCheckpoint checkpoint = new HubCheckpoint(Paths.get("unused"), BigInteger.ONE, unit(9).getRangeEnd(),
+                RecordFormat.BINARY, 0, 0);
+        checkpoint.markCompleted(unit(0).getRangeStart(), unit(2).getRangeStart());
+        checkpoint.markCompleted(unit(4).getRangeStart(), unit(5).getRangeStart());
+        RecordingStorage storage = new RecordingStorage();
+        ReorderBuffer buffer = new ReorderBuffer(storage, BigInteger.ONE, 4, checkpoint.snapshot());
+        for (long index : new long[]{9, 3, 6, 8, 2, 7, 5}) {
+            buffer.saveBatch(unit(index));
+        }
+        List<BigInteger> expected = new ArrayList<>();
+        for (long index : new long[]{2, 3, 5, 6, 7, 8, 9}) {
+            expected.add(unit(index).getRangeStart());
+        }
+        assertEquals("Batches passed on", expected, storage.starts);
+    }
+}
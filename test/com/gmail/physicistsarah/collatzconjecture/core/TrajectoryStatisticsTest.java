@@ -0,0 +1,75 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.gmail.physicistsarah.collatzconjecture.core;
+
+import java.math.BigInteger;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks {@link TrajectoryStatistics} against a plain {@link BigInteger}
+ * walk of the trajectory.
+ *
+ * @author Sarah Szabo <PhysicistSarah@Gmail.com>
+ */
+public class TrajectoryStatisticsTest {
+
+    private static final BigInteger THREE = BigInteger.valueOf(3);
+
+    /**
+     * Walks the trajectory one step at a time.
+     *
+     * @param number The starting value
+     * @return The number of iterations and the peak
+     */
+    private static BigInteger[] reference(BigInteger number) {
+        BigInteger peak = number;
+        long iterations = 0;
+        while (!number.equals(BigInteger.ONE)) {
+            number = number.testBit(0) ? number.multiply(THREE).add(BigInteger.ONE) : number.shiftRight(1);
+            iterations++;
+            peak = peak.max(number);
+        }
+        return new BigInteger[]{BigInteger.valueOf(iterations), peak};
+    }
+
+    private static void assertMatchesReference(TrajectoryStatistics statistics, BigInteger number) {
+        BigInteger[] expected = reference(number);
+        statistics.compute(number);
+        assertEquals("Iterations of " + number, expected[0].longValue(), statistics.getIterations());
+        assertEquals("Peak of " + number, expected[1], statistics.getBigPeak());
+        assertEquals("Peak type of " + number, expected[1].bitLength() < Long.SIZE, statistics.isPeakLong());
+    }
+
+    @Test
+    public void testSmallNumbers() {
+        TrajectoryStatistics statistics = new TrajectoryStatistics();
+        for (long number = 1; number < 100_000; number++) {
+            assertMatchesReference(statistics, BigInteger.valueOf(number));
+        }
+    }
+
+    /**
+     * The trajectory of this number drops below 2^61 and then climbs far
+     * past its starting value.
+     */
+    @Test
+    public void testPeakAfterDroppingIntoLongRange() {
+        TrajectoryStatistics statistics = new TrajectoryStatistics();
+        statistics.compute(new BigInteger("31695616923117575152"));
+        assertEquals(new BigInteger("64024667322193133530165877294264738020"), statistics.getBigPeak());
+    }
+
+    @Test
+    public void testNumbersAroundLongRange() {
+        TrajectoryStatistics statistics = new TrajectoryStatistics();
+        Random random = new Random(42);
+        for (int i = 0; i < 5_000; i++) {
+            assertMatchesReference(statistics, new BigInteger(62 + random.nextInt(5), random).setBit(61));
+        }
+    }
+}